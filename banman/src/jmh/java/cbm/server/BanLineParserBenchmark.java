@@ -0,0 +1,114 @@
+package cbm.server;
+
+import cbm.server.model.Ban;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.DateTimeException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compares {@link BanLineParser} with the regular expressions it replaced, on a generated ini file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BanLineParserBenchmark {
+
+    private static final Pattern NET_ID_BAN_PATTERN = Pattern.compile("BannedIDs=\\(Uid=\\(A=(\\d+),B=17825793\\)\\)");
+    private static final Pattern BAN_PATTERN =
+            Pattern.compile(
+                    "^Bans=\\(DurationSeconds=(-?\\d+)," +
+                            "EnactedTime=\\(Year=(\\d+),Month=(\\d+),DayOfWeek=(\\d+),Day=(\\d+)," +
+                            "Hour=(\\d+),Min=(\\d+),Sec=(\\d+),MSec=(\\d+)\\)," +
+                            "IPPolicy=(?:|\"([^\"]*)\")," +
+                            "NetId=\\(Uid=\\(A=(\\d+),B=\\d+\\)\\)," +
+                            "PlayerName=(?:|\"(.*)\")," +
+                            "Reason=(?:|\"(.*)\")," +
+                            "NetIDAsString=(?:|\"([^\"]*)\")\\)$");
+
+    @Param({"1000"})
+    private int bans;
+
+    private String content;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        final StringBuilder sb = new StringBuilder("[Engine.AccessControl]\r\nIPPolicies=ACCEPT;*\r\n");
+        final OffsetDateTime start = OffsetDateTime.of(2019, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+        for (int i = 0; i < bans; ++i) {
+            final SteamID steamID = SteamID.steamID(100_000_000L + random.nextInt(100_000_000));
+            if (i % 10 == 0) {
+                sb.append("BannedIDs=(Uid=(A=").append(steamID.uid()).append(",B=17825793))");
+            } else {
+                final OffsetDateTime enacted = start.plusSeconds(random.nextInt(3 * 365 * 86400));
+                sb.append(BanGenerator.banLine(steamID, random.nextInt(30 * 86400), enacted,
+                                               "player \"" + i + "\"", "Reason number " + i));
+            }
+            sb.append("\r\n");
+        }
+        content = sb.toString();
+    }
+
+    @Benchmark
+    public void scanner(Blackhole blackhole) {
+        LogDownloader.parseBans(content).forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public void regex(Blackhole blackhole) {
+        Arrays.stream(content.split("\r\n"))
+              .filter(s -> s.startsWith("BannedIDs=(") || s.startsWith("Bans=("))
+              .map(BanLineParserBenchmark::parseBanWithRegex)
+              .filter(Objects::nonNull)
+              .forEach(blackhole::consume);
+    }
+
+    private static Ban parseBanWithRegex(String line) {
+        final var netIdMatcher = NET_ID_BAN_PATTERN.matcher(line);
+        if (netIdMatcher.matches())
+            return SteamID.steamID(netIdMatcher.group(1))
+                          .map(steamID -> new Ban.Builder().setSteamID(steamID).build())
+                          .orElse(null);
+
+        final var m = BAN_PATTERN.matcher(line.trim());
+        if (m.matches())
+            try {
+                return SteamID.steamID(m.group(11))
+                              .map(steamID -> new Ban.Builder()
+                                      .setSteamID(steamID)
+                                      .setDurationSeconds(m.group(1))
+                                      .setEnactedTime(m.group(2), m.group(3), m.group(5),
+                                                      m.group(6), m.group(7), m.group(8))
+                                      .setIpPolicy(m.group(10))
+                                      .setPlayerName(m.group(12))
+                                      .setReason(m.group(13))
+                                      .build())
+                              .orElse(null);
+            } catch (DateTimeException e) {
+                return null;
+            }
+
+        return null;
+    }
+}
@@ -0,0 +1,90 @@
+package cbm.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compares {@link SteamUrlScanner} with the URL extraction and regular expressions it replaced, on generated chat
+ * messages. Most of them have no profile URL, like in a watch-list channel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SteamUrlScannerBenchmark {
+
+    private static final Pattern STEAM_URL_RX =
+            Pattern.compile("https?://steamcommunity\\.com/(?:profiles|id)/.+", Pattern.CASE_INSENSITIVE);
+    private static final String[] CHAT = {
+            "gg",
+            "he was teamkilling the whole round on the left flank, can somebody check the logs?",
+            "lol",
+            "who's up for a few rounds on Skirmish later tonight? server 2 is empty",
+            "the server was lagging like crazy around 21:00, anyone else noticed?",
+            "here's the clip https://www.youtube.com/watch?v=dQw4w9WgXcQ he just kept spamming the voice chat",
+            "thanks, banned for 24h",
+            "https://discord.com/channels/123456789012345678/234567890123456789/345678901234567890",
+            "he came back with another account, same name with a dot at the end",
+    };
+    private static final String[] PROFILE_MESSAGES = {
+            "this guy https://steamcommunity.com/profiles/%1$d was spawn killing all evening",
+            "<https://steamcommunity.com/id/%2$s/> keeps insulting people in chat, see the screenshot",
+            "https://steamcommunity.com/profiles/%1$d",
+            "same guy as yesterday, new account: https://steamcommunity.com/id/%2$s and " +
+                    "https://steamcommunity.com/profiles/%1$d",
+    };
+
+    @Param({"1000"})
+    private int messages;
+
+    private String[] corpus;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        corpus = new String[messages];
+        for (int i = 0; i < messages; ++i) {
+            if (i % 10 == 0) {
+                final String format = PROFILE_MESSAGES[random.nextInt(PROFILE_MESSAGES.length)];
+                final long steamID64 = 76561197960265728L + random.nextInt(1_000_000_000);
+                final String name = "player_" + random.nextInt(100_000);
+                corpus[i] = String.format(format, steamID64, name);
+            } else {
+                corpus[i] = CHAT[random.nextInt(CHAT.length)];
+            }
+        }
+    }
+
+    @Benchmark
+    public void scanner(Blackhole blackhole) {
+        for (String message : corpus)
+            for (SteamUrlScanner.Match match : SteamUrlScanner.scan(message))
+                blackhole.consume(match.getSteamID().isPresent() ? match.getSteamID() : match.getVanityName());
+    }
+
+    @Benchmark
+    public void autolink(Blackhole blackhole) {
+        for (String message : corpus)
+            for (String url : Utils.extractUrls(message))
+                if (STEAM_URL_RX.matcher(url).matches()) {
+                    final var steamID = SteamID.steamID(url);
+                    blackhole.consume(steamID.isPresent() ? steamID : SteamID.vanityName(url));
+                }
+    }
+}
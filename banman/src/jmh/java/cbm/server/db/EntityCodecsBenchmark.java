@@ -0,0 +1,149 @@
+package cbm.server.db;
+
+import cbm.server.model.Ban;
+import jetbrains.exodus.entitystore.Entity;
+import jetbrains.exodus.entitystore.PersistentEntityStores;
+import jetbrains.exodus.util.IOUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hydrates all the ban log entries of a store, written as a packed record by {@link EntityCodecs}, or as one property
+ * per field like older versions did. {@code propertyNames} is how the properties used to be read, looking up the
+ * property names before each property.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityCodecsBenchmark {
+
+    private static final String LOG_ENTRY = "LogEntry";
+
+    @Param({"100000"})
+    private int entries;
+
+    private Path dir;
+    private InstrumentedPersistentEntityStore records;
+    private InstrumentedPersistentEntityStore properties;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("entity-codecs");
+        records = open(dir.resolve("records"));
+        properties = open(dir.resolve("properties"));
+
+        final Random random = new Random(42);
+        final Instant detectedAt = Instant.parse("2021-06-01T00:00:00Z");
+        for (int from = 0; from < entries; from += 10_000) {
+            final int to = Math.min(from + 10_000, entries);
+            final int first = from;
+            records.executeInTransaction(txn -> {
+                for (int i = first; i < to; ++i)
+                    EntityCodecs.writeBanLogEntry(txn.newEntity(LOG_ENTRY), detectedAt, "add", ban(random, i));
+            });
+            properties.executeInTransaction(txn -> {
+                for (int i = first; i < to; ++i) {
+                    final Ban ban = ban(random, i);
+                    final Entity entity = txn.newEntity(LOG_ENTRY);
+                    entity.setProperty("detected-at", detectedAt);
+                    entity.setProperty("action", "add");
+                    EntityCodecs.setPlayerId(entity, ban.getId());
+                    entity.setProperty("enacted-time", ban.getEnactedTime());
+                    entity.setProperty("duration", ban.getDuration());
+                    entity.setProperty("ip-policy", ban.getIpPolicy());
+                    entity.setProperty("player-name", ban.getPlayerName());
+                    entity.setProperty("reason", ban.getReason());
+                }
+            });
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        records.close();
+        properties.close();
+        IOUtil.deleteRecursively(dir.toFile());
+        IOUtil.deleteFile(dir.toFile());
+    }
+
+    @Benchmark
+    public void record(Blackhole blackhole) {
+        records.executeInReadonlyTransaction(txn -> {
+            for (Entity entity : txn.getAll(LOG_ENTRY))
+                blackhole.consume(EntityCodecs.readBanLogEntry(entity));
+        });
+    }
+
+    @Benchmark
+    public void properties(Blackhole blackhole) {
+        properties.executeInReadonlyTransaction(txn -> {
+            for (Entity entity : txn.getAll(LOG_ENTRY))
+                blackhole.consume(EntityCodecs.readBanLogEntry(entity));
+        });
+    }
+
+    @Benchmark
+    public void propertyNames(Blackhole blackhole) {
+        properties.executeInReadonlyTransaction(txn -> {
+            for (Entity entity : txn.getAll(LOG_ENTRY)) {
+                blackhole.consume(getProperty(entity, "detected-at"));
+                blackhole.consume(getProperty(entity, "action"));
+                blackhole.consume(new Ban.Builder()
+                                          .setId(getProperty(entity, "player-id").toString())
+                                          .setEnactedTime(getProperty(entity, "enacted-time"))
+                                          .setDuration(getProperty(entity, "duration"))
+                                          .setIpPolicy(getProperty(entity, "ip-policy"))
+                                          .setPlayerName(getProperty(entity, "player-name"))
+                                          .setReason(getProperty(entity, "reason"))
+                                          .build());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Comparable<?>> T getProperty(Entity entity, String propertyName) {
+        if (!entity.getPropertyNames().contains(propertyName))
+            return null;
+        return (T) entity.getProperty(propertyName);
+    }
+
+    private static InstrumentedPersistentEntityStore open(Path path) {
+        final InstrumentedPersistentEntityStore store =
+                new InstrumentedPersistentEntityStore(PersistentEntityStores.newInstance(path.toString()));
+        store.registerCustomPropertyTypes(BansDatabase.PROPERTY_TYPES);
+        return store;
+    }
+
+    private static Ban ban(Random random, int i) {
+        return new Ban.Builder()
+                       .setId(Long.toString(76561197960265728L + i))
+                       .setEnactedTime(Instant.ofEpochSecond(1_600_000_000L + random.nextInt(30_000_000)))
+                       .setDuration(Duration.ofHours(1 + random.nextInt(720)))
+                       .setIpPolicy("none")
+                       .setPlayerName("player_" + i)
+                       .setReason("Teamkilling on the left flank, round " + random.nextInt(100))
+                       .build();
+    }
+}
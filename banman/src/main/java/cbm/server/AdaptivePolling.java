@@ -0,0 +1,61 @@
+package cbm.server;
+
+import cbm.server.db.BansDatabase;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.StringJoiner;
+
+/**
+ * The interval between two polls of the ban file, following how often the bans change: it is halved, down to the
+ * floor, after a poll that found changes, and doubled, up to the ceiling, after a poll that found none.
+ * <p>
+ * Not thread safe, meant to be used by a single job.
+ */
+public class AdaptivePolling {
+    private final Duration floor;
+    private final Duration ceiling;
+    private Duration interval;
+
+    /**
+     * @param floor    The shortest interval
+     * @param interval The first interval
+     * @param ceiling  The longest interval
+     */
+    public AdaptivePolling(@NotNull Duration floor, @NotNull Duration interval, @NotNull Duration ceiling) {
+        if (floor.isZero() || floor.isNegative() || floor.compareTo(interval) > 0 || interval.compareTo(ceiling) > 0)
+            throw new IllegalArgumentException("Invalid intervals: " + floor + " <= " + interval + " <= " + ceiling);
+
+        this.floor = floor;
+        this.ceiling = ceiling;
+        this.interval = interval;
+    }
+
+    public @NotNull Duration getInterval() {
+        return interval;
+    }
+
+    /**
+     * @param stats The changes found by a poll
+     * @return The interval to the next poll
+     */
+    public @NotNull Duration onPoll(@NotNull BansDatabase.Stats stats) {
+        if (stats.numAdded() + stats.numRemoved() > 0) {
+            final Duration shorter = interval.dividedBy(2);
+            interval = shorter.compareTo(floor) < 0 ? floor : shorter;
+        } else {
+            final Duration longer = interval.multipliedBy(2);
+            interval = longer.compareTo(ceiling) > 0 ? ceiling : longer;
+        }
+        return interval;
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", AdaptivePolling.class.getSimpleName() + "[", "]")
+                       .add("floor=" + floor)
+                       .add("ceiling=" + ceiling)
+                       .add("interval=" + interval)
+                       .toString();
+    }
+}
@@ -0,0 +1,253 @@
+package cbm.server;
+
+import cbm.server.model.Ban;
+import org.jetbrains.annotations.NotNull;
+
+import java.text.ParseException;
+import java.time.DateTimeException;
+import java.time.Instant;
+
+/**
+ * Single-pass parser for the ban lines of PCServer-UDKGame.ini:
+ * <pre>
+ *     BannedIDs=(Uid=(A=123775322,B=17825793))
+ *     Bans=(DurationSeconds=3600,EnactedTime=(Year=2019,Month=5,DayOfWeek=3,Day=1,Hour=18,Min=23,Sec=51,MSec=917),
+ *           IPPolicy="DENY,0.0.0.0",NetId=(Uid=(A=123775322,B=17825793)),PlayerName="name",Reason="reason",
+ *           NetIDAsString="0x011000010760A75A")
+ * </pre>
+ * (the second one is a single line). Numbers are parsed in place, and only the strings that end up in the
+ * {@link Ban} are allocated. The error offsets of the thrown {@link ParseException}s are relative to the line start.
+ * <p>
+ * An instance keeps the state of the current line, so it isn't thread-safe, but it can be reused.
+ */
+public class BanLineParser {
+    private static final String NET_ID_BAN = "BannedIDs=(Uid=(A=";
+    private static final String NET_ID_BAN_END = ",B=17825793))";
+    private static final String BAN = "Bans=(DurationSeconds=";
+    private static final String REASON = ",Reason=";
+    private static final String NET_ID_AS_STRING = ",NetIDAsString=";
+
+    private CharSequence s;
+    private int start;
+    private int pos;
+    private int end;
+
+    public static boolean isBanLine(@NotNull CharSequence s, int start, int end) {
+        return regionMatches(s, start, end, NET_ID_BAN) || regionMatches(s, start, end, "Bans=(");
+    }
+
+    public @NotNull Ban parse(@NotNull CharSequence line) throws ParseException {
+        return parse(line, 0, line.length());
+    }
+
+    /**
+     * Parse the line between {@code start} (inclusive) and {@code end} (exclusive). Trailing whitespace is ignored.
+     */
+    public @NotNull Ban parse(@NotNull CharSequence s, int start, int end) throws ParseException {
+        this.s = s;
+        this.start = start;
+        this.pos = start;
+        this.end = end;
+        while (this.end > start && Character.isWhitespace(s.charAt(this.end - 1)))
+            --this.end;
+
+        try {
+            if (regionMatches(s, start, this.end, NET_ID_BAN))
+                return parseNetIdBan();
+
+            return parseBan();
+        } finally {
+            this.s = null;
+        }
+    }
+
+    private Ban parseNetIdBan() throws ParseException {
+        expect(NET_ID_BAN);
+        final long a = parseUnsignedLong();
+        expect(NET_ID_BAN_END);
+        expectEnd();
+        return new Ban.Builder()
+                       .setSteamID(SteamID.steamID(a))
+                       .build();
+    }
+
+    private Ban parseBan() throws ParseException {
+        expect(BAN);
+        final long durationSeconds = parseLong();
+
+        expect(",EnactedTime=(Year=");
+        final int yearPos = pos;
+        final int year = (int) parseUnsignedLong(4, 4);
+        expect(",Month=");
+        final int month = (int) parseUnsignedLong(1, 2);
+        expect(",DayOfWeek=");
+        parseUnsignedLong();
+        expect(",Day=");
+        final int day = (int) parseUnsignedLong(1, 2);
+        expect(",Hour=");
+        final int hour = (int) parseUnsignedLong(1, 2);
+        expect(",Min=");
+        final int min = (int) parseUnsignedLong(1, 2);
+        expect(",Sec=");
+        final int sec = (int) parseUnsignedLong(1, 2);
+        expect(",MSec=");
+        parseUnsignedLong();
+        expect("),IPPolicy=");
+        final Instant enactedTime = enactedTime(yearPos, year, month, day, hour, min, sec);
+
+        final String ipPolicy = parseSimpleQuotedOrEmpty();
+        expect(",NetId=(Uid=(A=");
+        final long a = parseUnsignedLong();
+        expect(",B=");
+        parseUnsignedLong();
+        expect(")),PlayerName=");
+
+        // The player name and the reason may contain anything, including quotes, so find the end of the
+        // reason from the line end first, and then split the rest
+        if (end <= pos || s.charAt(end - 1) != ')')
+            throw error("Expected ')' at the end of the line", end);
+
+        final int netIdAsStringEnd = end - 1;
+        final int netIdAsStringStart;
+        if (s.charAt(netIdAsStringEnd - 1) == '"') {
+            int q = netIdAsStringEnd - 2;
+            while (q >= pos && s.charAt(q) != '"')
+                --q;
+            if (q < pos)
+                throw error("Unbalanced quotes in NetIDAsString", netIdAsStringEnd - 1);
+            netIdAsStringStart = q;
+        } else {
+            netIdAsStringStart = netIdAsStringEnd;
+        }
+
+        final int reasonEnd = netIdAsStringStart - NET_ID_AS_STRING.length();
+        if (reasonEnd < pos || !regionMatches(s, reasonEnd, end, NET_ID_AS_STRING))
+            throw error("Expected '" + NET_ID_AS_STRING + "'", Math.max(reasonEnd, pos));
+
+        final int nameEnd = findNameEnd(reasonEnd);
+        final String playerName = quotedOrNull(pos, nameEnd);
+        final String reason = quotedOrNull(nameEnd + REASON.length(), reasonEnd);
+
+        return new Ban.Builder()
+                       .setSteamID(SteamID.steamID(a))
+                       .setDurationSeconds(durationSeconds)
+                       .setEnactedTime(enactedTime)
+                       .setIpPolicy(ipPolicy)
+                       .setPlayerName(playerName)
+                       .setReason(reason)
+                       .build();
+    }
+
+    /**
+     * Same as {@code Instant.parse}, the midnight at the end of the day and the leap second are accepted.
+     */
+    private Instant enactedTime(int yearPos, int year, int month, int day, int hour, int min, int sec)
+            throws ParseException {
+
+        try {
+            if (hour == 24 && min == 0 && sec == 0)
+                return Instant.ofEpochSecond(Utils.epochSecond(year, month, day, 0, 0, 0) + 86400);
+            if (hour == 23 && min == 59 && sec == 60)
+                return Instant.ofEpochSecond(Utils.epochSecond(year, month, day, 23, 59, 59));
+            return Instant.ofEpochSecond(Utils.epochSecond(year, month, day, hour, min, sec));
+        } catch (DateTimeException e) {
+            throw error(e.getMessage(), yearPos);
+        }
+    }
+
+    /**
+     * Find the position of {@code ,Reason=} that separates the player name from the reason. Both are either empty,
+     * or quoted. An empty name is preferred, otherwise the name is as long as possible.
+     */
+    private int findNameEnd(int reasonEnd) throws ParseException {
+        if (regionMatches(s, pos, reasonEnd, REASON) && isQuotedOrEmpty(pos + REASON.length(), reasonEnd))
+            return pos;
+
+        if (pos < reasonEnd && s.charAt(pos) == '"')
+            for (int i = reasonEnd - REASON.length(); i >= pos + 2; --i)
+                if (s.charAt(i - 1) == '"'
+                        && regionMatches(s, i, reasonEnd, REASON)
+                        && isQuotedOrEmpty(i + REASON.length(), reasonEnd))
+                    return i;
+
+        throw error("Expected PlayerName=\"...\",Reason=\"...\"", pos);
+    }
+
+    private boolean isQuotedOrEmpty(int from, int to) {
+        return from == to || (to - from >= 2 && s.charAt(from) == '"' && s.charAt(to - 1) == '"');
+    }
+
+    private String quotedOrNull(int from, int to) {
+        return from == to ? null : s.subSequence(from + 1, to - 1).toString();
+    }
+
+    private String parseSimpleQuotedOrEmpty() throws ParseException {
+        if (pos < end && s.charAt(pos) == ',')
+            return null;
+
+        expect("\"");
+        final int from = pos;
+        while (pos < end && s.charAt(pos) != '"')
+            ++pos;
+        final String value = s.subSequence(from, pos).toString();
+        expect("\"");
+        return value;
+    }
+
+    private long parseLong() throws ParseException {
+        if (pos < end && s.charAt(pos) == '-') {
+            ++pos;
+            return -parseUnsignedLong();
+        }
+        return parseUnsignedLong();
+    }
+
+    private long parseUnsignedLong() throws ParseException {
+        return parseUnsignedLong(1, 19);
+    }
+
+    private long parseUnsignedLong(int minDigits, int maxDigits) throws ParseException {
+        final int from = pos;
+        long value = 0;
+        while (pos < end) {
+            final char ch = s.charAt(pos);
+            if (ch < '0' || ch > '9')
+                break;
+            if (value > (Long.MAX_VALUE - (ch - '0')) / 10)
+                throw error("Number too large", from);
+            value = value * 10 + (ch - '0');
+            ++pos;
+        }
+
+        final int digits = pos - from;
+        if (digits < minDigits || digits > maxDigits)
+            throw error(minDigits == maxDigits ? "Expected " + minDigits + " digits"
+                                               : "Expected " + minDigits + " to " + maxDigits + " digits", from);
+        return value;
+    }
+
+    private void expect(String literal) throws ParseException {
+        if (!regionMatches(s, pos, end, literal))
+            throw error("Expected '" + literal + "'", pos);
+        pos += literal.length();
+    }
+
+    private void expectEnd() throws ParseException {
+        if (pos != end)
+            throw error("Unexpected trailing characters", pos);
+    }
+
+    private ParseException error(String message, int position) {
+        return new ParseException(message + " at " + (position - start), position - start);
+    }
+
+    private static boolean regionMatches(CharSequence s, int from, int to, String literal) {
+        final int length = literal.length();
+        if (to - from < length)
+            return false;
+        for (int i = 0; i < length; ++i)
+            if (s.charAt(from + i) != literal.charAt(i))
+                return false;
+        return true;
+    }
+}
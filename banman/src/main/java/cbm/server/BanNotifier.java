@@ -0,0 +1,101 @@
+package cbm.server;
+
+import cbm.server.bot.MessageComposer;
+import cbm.server.db.BanEvent;
+import cbm.server.model.Ban;
+import discord4j.common.util.Snowflake;
+import discord4j.core.GatewayDiscordClient;
+import discord4j.core.object.entity.channel.MessageChannel;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import reactor.core.Disposable;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Posts the new long bans to the notification channels as they are detected, batched so a large update doesn't
+ * flood the channels.
+ */
+public class BanNotifier {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final int MAX_BATCH_SIZE = 20;
+    private static final Duration MAX_BATCH_DELAY = Duration.ofMinutes(1);
+    private static final int MAX_PENDING_BATCHES = 100;
+    private static final Duration FIRST_RESTART_DELAY = Duration.ofSeconds(1);
+    private static final Duration MAX_RESTART_DELAY = Duration.ofMinutes(10);
+
+    private final GatewayDiscordClient client;
+    private final Set<Snowflake> channelIds;
+
+    public BanNotifier(@NotNull GatewayDiscordClient client, @NotNull Set<Snowflake> channelIds) {
+        this.client = client;
+        this.channelIds = channelIds;
+    }
+
+    /**
+     * If the notifications fail, they are restarted with backoff: the events published meanwhile are not notified.
+     *
+     * @param events The ban events, see {@link cbm.server.db.BansDatabase#events}
+     */
+    public @NotNull Disposable start(@NotNull Flux<BanEvent> events) {
+        return newLongBans(events)
+                       .concatMap(bans -> notify(bans).onErrorResume(e -> {
+                           LOGGER.warn("Failed to notify {} new bans", bans.size(), e);
+                           return Mono.empty();
+                       }))
+                       .doOnError(e -> LOGGER.error("Ban notifications failed, restarting them", e))
+                       .retryWhen(Retry.backoff(Long.MAX_VALUE, FIRST_RESTART_DELAY)
+                                       .maxBackoff(MAX_RESTART_DELAY)
+                                       .transientErrors(true))
+                       .subscribe();
+    }
+
+    /**
+     * The batches wait in a bounded buffer while a batch is posted, so that {@code bufferTimeout} always has a
+     * request for the next one. The oldest batches are dropped when the buffer is full.
+     */
+    static @NotNull Flux<List<Ban>> newLongBans(@NotNull Flux<BanEvent> events) {
+        return events.filter(event -> event.getType() == BanEvent.Type.ADDED && !event.getBan().isShortBan())
+                     .map(BanEvent::getBan)
+                     .bufferTimeout(MAX_BATCH_SIZE, MAX_BATCH_DELAY)
+                     .onBackpressureBuffer(MAX_PENDING_BATCHES,
+                                           bans -> LOGGER.warn("Too many new bans, dropping {} of them", bans.size()),
+                                           BufferOverflowStrategy.DROP_OLDEST);
+    }
+
+    private Mono<Void> notify(List<Ban> bans) {
+        final List<String> messages = compose(bans);
+        return Flux.fromIterable(channelIds)
+                   .flatMap(client::getChannelById)
+                   .filter(MessageChannel.class::isInstance)
+                   .cast(MessageChannel.class)
+                   .flatMap(channel -> Flux.fromIterable(messages).concatMap(channel::createMessage))
+                   .then();
+    }
+
+    static @NotNull List<String> compose(@NotNull List<Ban> bans) {
+        final MessageComposer composer = new MessageComposer.Builder()
+                                                 .setHeader("**New bans** (" + bans.size() + "):")
+                                                 .build();
+        return composer.compose(bans.stream()
+                                    .map(BanNotifier::toString)
+                                    .collect(Collectors.toList()));
+    }
+
+    private static String toString(Ban ban) {
+        final SteamID steamID = SteamID.steamID(ban.getId()).orElse(null);
+        final String until = ban.getBannedUntil().equals(Instant.MAX) ? "forever" : "until " + ban.getBannedUntil();
+        return String.format("%s \"%s\" %s for \"%s\"",
+                             steamID == null ? ban.getId() : "<" + steamID.profileUrl() + ">",
+                             ban.getPlayerName(), until, ban.getReason());
+    }
+}
@@ -1,22 +1,27 @@
 package cbm.server;
 
+import cbm.server.api.ApiServer;
 import cbm.server.bot.AddBanCommand;
 import cbm.server.bot.ColorCommand;
 import cbm.server.bot.GuideCommand;
 import cbm.server.bot.InfoCommand;
+import cbm.server.bot.JobsCommand;
 import cbm.server.bot.ListBansCommand;
 import cbm.server.bot.LogCommand;
+import cbm.server.bot.MetricsCommand;
 import cbm.server.bot.PingCommand;
 import cbm.server.bot.ProfileCommand;
 import cbm.server.bot.RemoveBanCommand;
 import cbm.server.bot.SearchCommand;
 import cbm.server.bot.WantedCommand;
 import cbm.server.db.BansDatabase;
+import cbm.server.db.IncrementalBackup;
 import cbm.server.model.Ban;
 import discord4j.common.util.Snowflake;
 import discord4j.core.DiscordClientBuilder;
 import discord4j.core.GatewayDiscordClient;
 import discord4j.core.event.domain.lifecycle.ReadyEvent;
+import discord4j.core.event.domain.lifecycle.ReconnectEvent;
 import discord4j.core.event.domain.message.MessageCreateEvent;
 import discord4j.core.object.entity.User;
 import discord4j.core.object.entity.channel.GuildMessageChannel;
@@ -36,28 +41,33 @@ import reactor.core.publisher.Mono;
 import reactor.util.function.Tuple4;
 import reactor.util.function.Tuples;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
-import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @Command(name = "Bot", mixinStandardHelpOptions = true, version = "1.0")
 public class Bot implements Callable<Integer> {
 
     private static final Logger LOGGER = LogManager.getLogger();
+    /**
+     * The name of the server given on the command line.
+     */
+    private static final String DEFAULT_SERVER = "default";
 
     @Option(names = {"-t", "--token"}, required = true, description = "The Discord bot token.")
     private String discordToken;
@@ -79,95 +89,154 @@ public class Bot implements Callable<Integer> {
     @Override
     public Integer call() throws IOException {
         final Configuration configuration = Configuration.load(configurationPath);
-
-        final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
-        final LogDownloader logDownloader = new LogDownloader(chivalryServer);
-
-        try (final BansDatabase bansDatabase = new BansDatabase(configuration.getDatabase())) {
-            if (resetWatchlist)
-                bansDatabase.clearMentionsData();
-
-            executorService.scheduleAtFixedRate(() -> updateBans(logDownloader, bansDatabase),
-                                                10, 600, TimeUnit.SECONDS);
-            executorService.scheduleAtFixedRate(() -> {
-                LOGGER.info("Backing up the database ...");
-                try {
-                    final File backup = bansDatabase.backup();
-                    LOGGER.info("Backup created: {}", backup);
-                } catch (Exception e) {
-                    LOGGER.warn("Failed to backup the database!", e);
+        SteamWeb.setApiKey(configuration.getSteamApiKey());
+
+        final Map<String, Callable<Stream<Ban>>> downloaders = new TreeMap<>();
+        configuration.getServers().forEach((name, server) -> downloaders.put(name,
+                                                                             new LogDownloader(server)::downloadBans));
+        if (chivalryServer != null && downloaders.putIfAbsent(DEFAULT_SERVER,
+                                                              new LogDownloader(chivalryServer)::downloadBans) != null)
+            throw new IllegalArgumentException("The server " + DEFAULT_SERVER + " is both configured and given");
+        if (downloaders.isEmpty())
+            throw new IllegalArgumentException("No Chivalry server: configure [servers], or give --host");
+
+        try (final BansDatabase bansDatabase = new BansDatabase(configuration.getDatabase());
+             final JobScheduler scheduler = new JobScheduler();
+             final ServersDownloader serversDownloader = new ServersDownloader(downloaders)) {
+            // Not a resource of the try: there may be none
+            final ApiServer apiServer = configuration.getApiAddress() == null
+                                        ? null
+                                        : new ApiServer(configuration.getApiAddress(), bansDatabase);
+            try {
+                if (resetWatchlist)
+                    bansDatabase.clearMentionsData();
+                bansDatabase.events()
+                            .subscribe(event -> Metrics.increment("bans.events." + event.getType().name()
+                                                                                        .toLowerCase(Locale.ROOT)));
+
+                final AdaptivePolling polling = new AdaptivePolling(Duration.ofMinutes(1), Duration.ofMinutes(10),
+                                                                    Duration.ofMinutes(40));
+                scheduler.scheduleAdaptive("update-bans", Duration.ofSeconds(10), polling.getInterval(),
+                                           Duration.ofSeconds(15),
+                                           () -> updateBans(serversDownloader, bansDatabase, polling));
+                // The bans show up in the server logs within seconds, long before the bans are polled
+                for (Configuration.Server server : configuration.getServers().values()) {
+                    if (server.getLaunchLogPath() == null)
+                        continue;
+
+                    final LogTailer tailer = new LogTailer(server.getName(), server.getHostname(),
+                                                           server.getLaunchLogPath(), server.getUsername(),
+                                                           server.getPassword());
+                    final ServerLogParser parser = new ServerLogParser(server.getLaunchLogPattern());
+                    scheduler.schedule("tail-" + server.getName(), Duration.ofSeconds(5), Duration.ofSeconds(5),
+                                       Duration.ofSeconds(1),
+                                       () -> tailServerLog(server.getName(), tailer, parser, bansDatabase));
                 }
-            }, 1, 1, TimeUnit.DAYS);
-
-            final var handler =
-                    new MessageHandler(configuration,
-                                       () -> new CommandLine(new Cmd())
-                                                     .addSubcommand(new GuideCommand(configuration.getUserGuide()))
-                                                     .addSubcommand(new PingCommand())
-                                                     .addSubcommand(new ColorCommand())
-                                                     .addSubcommand(new ProfileCommand())
-                                                     .addSubcommand(new InfoCommand(bansDatabase))
-                                                     .addSubcommand(new LogCommand(bansDatabase))
-                                                     .addSubcommand(new SearchCommand(bansDatabase))
-                                                     .addSubcommand(new WantedCommand(bansDatabase))
-                                                     .addSubcommand(new AddBanCommand(bansDatabase))
-                                                     .addSubcommand(new RemoveBanCommand(bansDatabase))
-                                                     .addSubcommand(new ListBansCommand(bansDatabase)));
-
-            final GatewayDiscordClient client =
-                    Objects.requireNonNull(DiscordClientBuilder.create(discordToken)
-                                                               .build()
-                                                               .login()
-                                                               .block());
-
-            final Duration delay = getDelayUntil(LocalTime.parse("06:00:00"));
-            LOGGER.info("Delay to first stats: {}", delay);
-            executorService.scheduleAtFixedRate(() -> showStats(bansDatabase, client, configuration),
-                                                delay.toSeconds(), 24 * 3600, TimeUnit.SECONDS);
-
-            client.getEventDispatcher().on(ReadyEvent.class)
-                  .subscribe(event -> {
-                      final User self = event.getSelf();
-                      LOGGER.info("Logged in as {}#{}. Command prefix is {}",
-                                  self.getUsername(), self.getDiscriminator(), configuration.getPrefix());
-                  });
-
-            client.getEventDispatcher().on(MessageCreateEvent.class)
-                  .map(MessageCreateEvent::getMessage)
-                  .flatMap(handler::handle)
-                  .subscribe();
-
-            final Set<Snowflake> watchListChannels = configuration.getWatchListChannels();
-
-            client.getEventDispatcher().on(MessageCreateEvent.class)
-                  .map(MessageCreateEvent::getMessage)
-                  .filter(message -> watchListChannels.contains(message.getChannelId()))
-                  .flatMap(message -> message.getChannel()
-                                             .cast(GuildMessageChannel.class)
-                                             .flatMap(channel -> new ChannelWatcher(channel, bansDatabase)
-                                                                         .updateChannel(message.getId()))
-                                             .doOnNext(stats -> LOGGER.info("Processed mentions: {}", stats)))
-                  .subscribe();
-
-            updateMentions(bansDatabase, client, watchListChannels)
-                    .subscribe();
-
-            client.onDisconnect().block();
-            return 0;
+                final IncrementalBackup backups = new IncrementalBackup(Path.of(configuration.getDatabase(), "backups"),
+                                                                        IncrementalBackup.DEFAULT_BYTES_PER_SECOND,
+                                                                        IncrementalBackup.DEFAULT_KEEP);
+                scheduler.schedule("backup", Duration.ofDays(1), Duration.ofDays(1), Duration.ofMinutes(10), () -> {
+                    LOGGER.info("Backing up the database ...");
+                    try {
+                        final Path backup = bansDatabase.backup(backups);
+                        LOGGER.info("Backup created: {}", backup);
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Failed to backup the database", e);
+                    }
+                });
+
+                final var handler =
+                        new MessageHandler(configuration,
+                                           () -> new CommandLine(new Cmd())
+                                                         .addSubcommand(new GuideCommand(configuration.getUserGuide()))
+                                                         .addSubcommand(new PingCommand())
+                                                         .addSubcommand(new MetricsCommand())
+                                                         .addSubcommand(new JobsCommand(scheduler))
+                                                         .addSubcommand(new ColorCommand())
+                                                         .addSubcommand(new ProfileCommand())
+                                                         .addSubcommand(new InfoCommand(bansDatabase))
+                                                         .addSubcommand(new LogCommand(bansDatabase))
+                                                         .addSubcommand(new SearchCommand(bansDatabase))
+                                                         .addSubcommand(new WantedCommand(bansDatabase))
+                                                         .addSubcommand(new AddBanCommand(bansDatabase))
+                                                         .addSubcommand(new RemoveBanCommand(bansDatabase))
+                                                         .addSubcommand(new ListBansCommand(bansDatabase)));
+
+                final GatewayDiscordClient client =
+                        Objects.requireNonNull(DiscordClientBuilder.create(discordToken)
+                                                                   .build()
+                                                                   .login()
+                                                                   .block());
+
+                final Duration delay = getDelayUntil(LocalTime.parse("06:00:00"));
+                LOGGER.info("Delay to first stats: {}", delay);
+                scheduler.schedule("stats", delay, Duration.ofDays(1), Duration.ZERO,
+                                   () -> showStats(bansDatabase, client, configuration));
+
+                scheduler.schedule("refresh-mentions", Duration.ofMinutes(5), Duration.ofHours(1),
+                                   Duration.ofMinutes(1),
+                                   () -> {
+                                       final Long refreshed = ChannelWatcher.refreshMentions(client, bansDatabase)
+                                                                            .block(Duration.ofMinutes(30));
+                                       LOGGER.info("Refreshed the metadata of {} mentioned messages", refreshed);
+                                   });
+
+                client.getEventDispatcher().on(ReadyEvent.class)
+                      .subscribe(event -> {
+                          final User self = event.getSelf();
+                          LOGGER.info("Logged in as {}#{}. Command prefix is {}",
+                                      self.getUsername(), self.getDiscriminator(), configuration.getPrefix());
+                      });
+
+                client.getEventDispatcher().on(MessageCreateEvent.class)
+                      .map(MessageCreateEvent::getMessage)
+                      .flatMap(handler::handle)
+                      .subscribe();
+
+                final Map<Snowflake, ChannelWatcher> watchers = new ConcurrentHashMap<>();
+
+                client.getEventDispatcher().on(MessageCreateEvent.class)
+                      .map(MessageCreateEvent::getMessage)
+                      .subscribe(message -> {
+                          final ChannelWatcher watcher = watchers.get(message.getChannelId());
+                          if (watcher != null)
+                              watcher.onMessage(message);
+                      });
+
+                client.getEventDispatcher().on(ReconnectEvent.class)
+                      .subscribe(event -> {
+                          LOGGER.info("Reconnected, catching up with {} watched channels", watchers.size());
+                          watchers.values().forEach(ChannelWatcher::catchUp);
+                      });
+
+                if (!configuration.getBanNotificationChannels().isEmpty())
+                    new BanNotifier(client, configuration.getBanNotificationChannels()).start(bansDatabase.events());
+
+                startWatchers(bansDatabase, client, configuration.getWatchListChannels())
+                        .subscribe(watcher -> {
+                            // Queued before any live message, so it starts from the checkpoint
+                            watcher.catchUp();
+                            watchers.put(watcher.getChannelId(), watcher);
+                        });
+
+                client.onDisconnect().block();
+                return 0;
+            } finally {
+                if (apiServer != null)
+                    apiServer.close();
+            }
         }
     }
 
-    private Mono<Void> updateMentions(BansDatabase bansDatabase, GatewayDiscordClient client,
-                                      Set<Snowflake> channelIds) {
+    private Flux<ChannelWatcher> startWatchers(BansDatabase bansDatabase, GatewayDiscordClient client,
+                                               Set<Snowflake> channelIds) {
 
         return Flux.fromIterable(channelIds)
                    .flatMap(client::getChannelById)
                    .filter(GuildMessageChannel.class::isInstance)
                    .cast(GuildMessageChannel.class)
                    .doOnNext(channel -> LOGGER.info("Monitoring channel #{}", channel.getName()))
-                   .flatMap(channel -> new ChannelWatcher(channel, bansDatabase).updateChannel())
-                   .doOnNext(stats -> LOGGER.info("Processed mentions: {}", stats))
-                   .then();
+                   .map(channel -> new ChannelWatcher(channel, bansDatabase));
     }
 
     /**
@@ -179,22 +248,66 @@ public class Bot implements Callable<Integer> {
         return Duration.between(now, then).plusDays(daysToAdd);
     }
 
-    private void updateBans(LogDownloader logDownloader, BansDatabase bansDatabase) {
+    /**
+     * @return The delay to the next update
+     */
+    private Duration updateBans(ServersDownloader serversDownloader, BansDatabase bansDatabase,
+                                AdaptivePolling polling) {
+
         final Instant lastUpdate = bansDatabase.getLastUpdateSync();
         LOGGER.info("Database is last updated at: {}", lastUpdate);
         final Instant now = Instant.now();
-        if (lastUpdate != null && now.isBefore(lastUpdate.plus(10, ChronoUnit.MINUTES))) {
+        final Instant due = lastUpdate == null ? now : lastUpdate.plus(polling.getInterval());
+        if (now.isBefore(due)) {
             LOGGER.info("Database is up-to-date");
-            return;
+            return Duration.between(now, due);
         }
 
         try {
             LOGGER.info("Updating database ...");
-            final Stream<Ban> banStream = logDownloader.downloadBans();
-            final BansDatabase.Stats stats = bansDatabase.storeBans(now, banStream);
+            final Map<String, List<Ban>> bans = serversDownloader.downloadBans();
+            final BansDatabase.Stats stats = bansDatabase.storeBans(now, bans);
             LOGGER.info("Updated complete. {} bans added, {} bans removed", stats.numAdded(), stats.numRemoved());
+            final Map<String, Set<String>> divergentBans = stats.divergentBans();
+            if (!divergentBans.isEmpty()) {
+                LOGGER.warn("{} bans are missing on some servers, e.g. {}", divergentBans.size(),
+                            divergentBans.entrySet().stream().limit(10).collect(Collectors.toList()));
+            }
+            final Duration interval = polling.onPoll(stats);
+            LOGGER.info("Next update in {}", interval);
+            return interval;
         } catch (IOException e) {
-            LOGGER.warn("Failed to update the database", e);
+            throw new UncheckedIOException("Failed to update the database", e);
+        }
+    }
+
+    private void tailServerLog(String server, LogTailer tailer, ServerLogParser parser, BansDatabase bansDatabase) {
+        final List<String> lines;
+        try {
+            lines = tailer.poll();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to follow the log of " + server, e);
+        }
+
+        for (String line : lines) {
+            final ServerLogParser.Event event = parser.parse(line).orElse(null);
+            if (event == null)
+                continue;
+
+            if (!event.isBan()) {
+                LOGGER.info("{} kicked on {}", event.getPlayerId(), server);
+                continue;
+            }
+
+            final Instant now = Instant.now();
+            final Ban ban = new Ban.Builder()
+                                    .setId(event.getPlayerId())
+                                    .setEnactedTime(now)
+                                    .setPlayerName(event.getPlayerName())
+                                    .setReason(event.getReason())
+                                    .build();
+            if (bansDatabase.addProvisionalBanSync(now, ban))
+                LOGGER.info("Provisional ban of {} on {}", ban.getId(), server);
         }
     }
 
@@ -209,7 +322,7 @@ public class Bot implements Callable<Integer> {
                                    .filter(MessageChannel.class::isInstance)
                                    .cast(MessageChannel.class)
                                    .flatMap(ch -> ch.createEmbed(e -> showStats(e, t2.getT1(), t2.getT2(), conf))))
-            .blockLast();
+            .blockLast(Duration.ofMinutes(5));
     }
 
     private void showStats(EmbedCreateSpec spec, BansDatabase.Stats stats, int offlineBans, Configuration conf) {
@@ -250,6 +363,9 @@ public class Bot implements Callable<Integer> {
                                               return entry.getBan().isShortBan() ? st.mapT4(n -> n + 1)
                                                                                  : st.mapT2(n -> n + 1);
 
+                                          case "provisional":
+                                              return st;
+
                                           default:
                                               LOGGER.error("Unknown log entry action: {}", entry.getAction());
                                               return st;
@@ -283,15 +399,39 @@ public class Bot implements Callable<Integer> {
         };
     }
 
+    /**
+     * Resolve a steam ID offline if possible; only custom URLs are resolved over the network.
+     */
     public static Mono<SteamID> resolveSteamID(String id) {
-        return SteamID.steamID(id)
-                      .map(Mono::just)
-                      .orElseGet(() -> SteamWeb.resolveSteamID(id));
+        return Mono.defer(() -> {
+            final var steamID = SteamID.steamID(id);
+            if (steamID.isPresent()) {
+                Metrics.increment("steamid.resolve.offline");
+                return Mono.just(steamID.get());
+            }
+
+            return SteamID.vanityName(id)
+                          .map(Bot::resolveVanityName)
+                          .orElseGet(() -> {
+                              Metrics.increment("steamid.resolve.invalid");
+                              return Mono.error(new IllegalArgumentException("Cannot resolve steam ID: " + id));
+                          });
+        });
+    }
+
+    /**
+     * Resolve the name of a custom URL ({@code https://steamcommunity.com/id/<name>/}) over the network.
+     */
+    public static Mono<SteamID> resolveVanityName(String name) {
+        return Mono.defer(() -> {
+            Metrics.increment("steamid.resolve.online");
+            return SteamWeb.resolveSteamID("https://steamcommunity.com/id/" + name + "/");
+        });
     }
 
     public static Mono<String> getPlayerName(@NotNull SteamID steamID) {
-        return SteamWeb.playerProfile(steamID.profileUrl())
-                       .map(SteamWeb.Profile::getName)
+        return SteamWeb.playerSummary(steamID)
+                       .flatMap(profile -> Mono.justOrEmpty(profile.getName()))
                        .map(TextUtils::printable)
                        .filter(s -> !s.isBlank())
                        .defaultIfEmpty(steamID.fallbackPlayerName());
@@ -305,7 +445,7 @@ public class Bot implements Callable<Integer> {
         @Option(names = {"--host"}, required = true, description = "The chivalry server IP address.")
         public String hostname;
 
-        @Option(names = {"--log-path"}, defaultValue = "/UDKGame/Config/PCServer-UDKGame.ini",
+        @Option(names = {"--log-path"}, defaultValue = LogDownloader.DEFAULT_LOG_PATH,
                 showDefaultValue = CommandLine.Help.Visibility.ALWAYS,
                 description = "Path to the bans configuration file.")
         public String logPath;
@@ -2,97 +2,375 @@ package cbm.server;
 
 import cbm.server.db.BansDatabase;
 import cbm.server.model.Mention;
+import cbm.server.model.MentionMetadata;
 import discord4j.common.util.Snowflake;
+import discord4j.core.GatewayDiscordClient;
+import discord4j.core.object.entity.Message;
+import discord4j.core.object.entity.User;
 import discord4j.core.object.entity.channel.GuildMessageChannel;
+import discord4j.rest.http.client.ClientException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.UnicastProcessor;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
+import java.util.Optional;
 import java.util.StringJoiner;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Pattern;
 
-public class ChannelWatcher {
+/**
+ * Tracks the Steam profile mentions in a watch-list channel. There is one watcher per channel, for the lifetime of the
+ * bot: live messages are processed straight from the gateway events, in order, and the history is only read to
+ * catch up on the messages posted while the bot was not listening (at startup and after a reconnect). The history
+ * is read oldest first, one page at a time, and checkpointed after each page; the live messages are checkpointed in
+ * batches. A catch-up that fails is retried with backoff, from its last page.
+ */
+public class ChannelWatcher implements Disposable {
     private static final Logger LOGGER = LogManager.getLogger();
-    private static final Pattern STEAM_URL_RX =
-            Pattern.compile("https?://steamcommunity\\.com/(?:profiles|id)/.+", Pattern.CASE_INSENSITIVE);
+    private static final Duration METADATA_MAX_AGE = Duration.ofDays(7);
+    private static final int MAX_REFRESHED_MENTIONS = 500;
+    private static final int CHECKPOINT_BATCH_SIZE = 100;
+    private static final Duration CHECKPOINT_INTERVAL = Duration.ofSeconds(10);
+    private static final int PAGE_SIZE = 100;
+    private static final int PREFETCH_PAGES = 2;
+    private static final int PAGE_CONCURRENCY = 8;
+    private static final Duration FIRST_CATCH_UP_RETRY_DELAY = Duration.ofSeconds(5);
+    private static final Duration MAX_CATCH_UP_RETRY_DELAY = Duration.ofMinutes(10);
 
     private final GuildMessageChannel channel;
     private final BansDatabase bansDatabase;
     private final String channelName;
     private final Snowflake guildId;
+    private final FluxSink<Object> inbox;
+    private final Disposable subscription;
+    private final Duration firstRetryDelay;
+    private final Disposable.Composite catchUpRetries = Disposables.composite();
+
+    /**
+     * The last message processed, only written from the actor's pipeline, and read by {@link #catchUp}.
+     */
+    private volatile @Nullable Snowflake lastMessageId;
+    /**
+     * The catch-ups requested and not done yet, including the ones waiting to be retried. The live messages are not
+     * checkpointed meanwhile, since the messages of the gap before them are not processed yet.
+     */
+    private final AtomicInteger pendingCatchUps = new AtomicInteger();
 
     public ChannelWatcher(GuildMessageChannel channel, BansDatabase bansDatabase) {
+        this(channel, bansDatabase, FIRST_CATCH_UP_RETRY_DELAY);
+    }
+
+    ChannelWatcher(GuildMessageChannel channel, BansDatabase bansDatabase, Duration firstRetryDelay) {
         this.channel = channel;
         this.bansDatabase = bansDatabase;
+        this.firstRetryDelay = firstRetryDelay;
         this.channelName = channel.getName();
         this.guildId = channel.getGuildId();
+
+        final UnicastProcessor<Object> processor = UnicastProcessor.create();
+        this.inbox = processor.sink();
+        this.subscription = processor.concatMap(this::handle)
+                                     .bufferTimeout(CHECKPOINT_BATCH_SIZE, CHECKPOINT_INTERVAL)
+                                     .concatMap(ids -> checkpoint(ids.get(ids.size() - 1)))
+                                     .subscribe();
     }
 
-    public Mono<Stats> updateChannel() {
-        return Mono.justOrEmpty(channel.getLastMessageId())
-                   .flatMap(this::updateChannel);
+    public Snowflake getChannelId() {
+        return channel.getId();
     }
 
-    public Mono<Stats> updateChannel(@NotNull Snowflake latestMessageId) {
-        return bansDatabase.setLastProcessedMessageId(channel.getId(), latestMessageId,
-                                                      lastId -> lastId == null
-                                                                        || lastId.compareTo(latestMessageId) < 0)
-                           .flatMap(o -> process(latestMessageId, o.orElse(null)));
+    /**
+     * Process a message received from the gateway. The message is not downloaded again.
+     */
+    public void onMessage(@NotNull Message message) {
+        inbox.next(message);
     }
 
-    private Mono<Stats> process(@NotNull Snowflake from, @Nullable Snowflake to) {
-        LOGGER.info("Reading channel {} messages from {} back to {}", channelName, from, to);
+    /**
+     * Read the history from the last message processed so far, or from the checkpoint if none was processed yet. The
+     * live messages processed before the history is read don't move that bound, and the messages of the history
+     * processed live already are only processed again, which is harmless. Messages received meanwhile are queued,
+     * and the ones already seen in the history are skipped.
+     */
+    public void catchUp() {
+        pendingCatchUps.incrementAndGet();
+        inbox.next(new CatchUp(lastMessageId));
+    }
+
+    @Override
+    public void dispose() {
+        catchUpRetries.dispose();
+        inbox.complete();
+        subscription.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return subscription.isDisposed();
+    }
+
+    /**
+     * @return The IDs of the live messages processed. The history pages are checkpointed as they are processed.
+     */
+    private Flux<Snowflake> handle(Object command) {
+        if (command instanceof Message) {
+            Metrics.increment("mentions.messages.live");
+            return process((Message) command).flux();
+        }
+
+        final CatchUp catchUp = (CatchUp) command;
         final Stats stats = new Stats();
-        return channel.getMessageById(from)
-                      .concatWith(channel.getMessagesBefore(from))
-                      .takeWhile(to != null ? message -> message.getId().compareTo(to) >= 0
-                                            : message -> true)
-                      .take(1000)
-                      .doOnNext(message -> stats.messagesCount.incrementAndGet())
-                      .filter(message -> message.getAuthor().map(user -> !user.isBot()).orElse(true))
-                      .flatMap(message -> {
-                          final List<String> urls = Utils.extractUrls(message.getContent());
-                          LOGGER.debug("[{}:{}] Found {} URLs. Message: {}", channelName, message.getId(),
-                                       urls.size(), message.getContent());
-                          return Flux.fromIterable(urls)
-                                     .filter(ChannelWatcher::isProfileUrl)
-                                     .flatMap(ChannelWatcher::resolveSteamID)
-                                     .doOnNext(steamID -> stats.mentionsCount.incrementAndGet())
-                                     .map(steamID -> new Mention(steamID, guildId, message))
-                                     .flatMap(bansDatabase::addMention);
-                      })
-                      .then(Mono.just(stats));
-    }
-
-    public static Mono<SteamID> resolveSteamID(String id) {
-        return Bot.resolveSteamID(id)
-                  .onErrorResume(t -> {
-                      if (t instanceof IllegalArgumentException)
-                          LOGGER.info("Failed to resolve {}", id);
-                      else
-                          LOGGER.warn("Failed to resolve " + id, t);
-                      return Mono.empty();
+        return Mono.justOrEmpty(catchUp.from)
+                   .switchIfEmpty(bansDatabase.getLastProcessedMessageId(channel.getId()))
+                   .defaultIfEmpty(Snowflake.of(0))
+                   .doOnNext(from -> LOGGER.info("Reading channel {} messages after {}", channelName, from))
+                   .flatMapMany(channel::getMessagesAfter)
+                   .buffer(PAGE_SIZE)
+                   // The next pages are downloaded while the current one is processed
+                   .concatMap(page -> processPage(page, catchUp, stats), PREFETCH_PAGES)
+                   .doOnComplete(() -> {
+                       LOGGER.info("Caught up with channel {}: {}", channelName, stats);
+                       pendingCatchUps.decrementAndGet();
+                   })
+                   .onErrorResume(t -> {
+                       final Duration delay = retryDelay(catchUp.failures++);
+                       LOGGER.warn("Failed to read the history of channel " + channelName + ", retrying in " + delay
+                                           + ": " + stats, t);
+                       retry(catchUp, delay);
+                       return Mono.empty();
+                   })
+                   .thenMany(Flux.empty());
+    }
+
+    private void retry(@NotNull CatchUp catchUp, @NotNull Duration delay) {
+        final Disposable.Swap retry = Disposables.swap();
+        catchUpRetries.add(retry);
+        retry.update(Mono.delay(delay).subscribe(tick -> {
+            catchUpRetries.remove(retry);
+            inbox.next(catchUp);
+        }));
+    }
+
+    private Duration retryDelay(int failures) {
+        final Duration delay = firstRetryDelay.multipliedBy(1L << Math.min(failures, 16));
+        return delay.compareTo(MAX_CATCH_UP_RETRY_DELAY) < 0 ? delay : MAX_CATCH_UP_RETRY_DELAY;
+    }
+
+    private Mono<Snowflake> process(@NotNull Message message) {
+        final Snowflake messageId = message.getId();
+        if (!isNew(messageId))
+            return Mono.empty();
+        lastMessageId = messageId;
+
+        return processContent(message, new Stats())
+                       .then(Mono.fromSupplier(() -> pendingCatchUps.get() == 0 ? messageId : null));
+    }
+
+    /**
+     * Process the messages of a history page concurrently, then advance the checkpoint to the last one: all the
+     * messages up to the checkpoint are processed, and a restart, or a retry of the catch-up, resumes right after it.
+     */
+    private Mono<Void> processPage(@NotNull List<Message> messages, @NotNull CatchUp catchUp, @NotNull Stats stats) {
+        if (messages.isEmpty())
+            return Mono.empty();
+
+        final Snowflake pageLastMessageId = messages.get(messages.size() - 1).getId();
+        if (isNew(pageLastMessageId))
+            lastMessageId = pageLastMessageId;
+
+        return Flux.fromIterable(messages)
+                   .flatMap(message -> processContent(message, stats), PAGE_CONCURRENCY)
+                   .then(checkpoint(pageLastMessageId))
+                   .doOnSuccess(v -> {
+                       catchUp.from = pageLastMessageId;
+                       stats.pagesCount.incrementAndGet();
+                       stats.messagesCount.addAndGet(messages.size());
+                       Metrics.add("mentions.messages.history", messages.size());
+                       LOGGER.debug("Channel {} checkpointed at {}: {}", channelName, pageLastMessageId, stats);
+                   });
+    }
+
+    private boolean isNew(@NotNull Snowflake messageId) {
+        return lastMessageId == null || isAfter(messageId, lastMessageId);
+    }
+
+    /**
+     * Compares the whole IDs: {@link Snowflake#compareTo} only compares their timestamps, and two messages can be
+     * posted in the same millisecond.
+     */
+    private static boolean isAfter(@NotNull Snowflake messageId, @NotNull Snowflake otherId) {
+        return Long.compareUnsigned(messageId.asLong(), otherId.asLong()) > 0;
+    }
+
+    private Mono<Void> processContent(@NotNull Message message, @NotNull Stats stats) {
+        if (message.getAuthor().map(User::isBot).orElse(false))
+            return Mono.empty();
+
+        final Snowflake messageId = message.getId();
+        final List<SteamUrlScanner.Match> urls = SteamUrlScanner.scan(message.getContent());
+        LOGGER.debug("[{}:{}] Found {} profile URLs. Message: {}", channelName, messageId, urls.size(),
+                     message.getContent());
+        if (urls.isEmpty())
+            return Mono.empty();
+
+        final Mono<Optional<MentionMetadata>> metadata = metadata(message, channelName).map(Optional::of)
+                                                                                      .defaultIfEmpty(Optional.empty())
+                                                                                      .cache();
+        return Flux.fromIterable(urls)
+                   .flatMap(ChannelWatcher::resolveSteamID)
+                   .doOnNext(steamID -> {
+                       stats.mentionsCount.incrementAndGet();
+                       Metrics.increment("mentions.found");
+                   })
+                   .flatMap(steamID -> metadata.map(m -> new Mention(steamID, guildId, message, m.orElse(null))))
+                   .flatMap(bansDatabase::addMention)
+                   .onErrorResume(t -> {
+                       LOGGER.warn("Failed to process message " + messageId + " in channel " + channelName, t);
+                       return Mono.empty();
+                   })
+                   .then();
+    }
+
+    private Mono<Void> checkpoint(@NotNull Snowflake messageId) {
+        return bansDatabase.setLastProcessedMessageId(channel.getId(), messageId,
+                                                      lastId -> lastId == null || isAfter(messageId, lastId))
+                           .onErrorResume(t -> {
+                               LOGGER.warn("Failed to checkpoint channel " + channelName, t);
+                               return Mono.empty();
+                           })
+                           .then();
+    }
+
+    /**
+     * Refresh the metadata of the mentions that don't have it, or have it for longer than
+     * {@link #METADATA_MAX_AGE}.
+     *
+     * @return The number of refreshed messages
+     */
+    public static Mono<Long> refreshMentions(@NotNull GatewayDiscordClient client,
+                                             @NotNull BansDatabase bansDatabase) {
+
+        return bansDatabase.findStaleMentions(Instant.now().minus(METADATA_MAX_AGE), MAX_REFRESHED_MENTIONS)
+                           .distinct(Mention::getMessageId)
+                           .flatMap(mention -> fetchMetadata(client, bansDatabase, mention), 4)
+                           .count();
+    }
+
+    /**
+     * Download the metadata of the mention, and store it for all the mentions in the same message. A deleted
+     * message gets metadata without an author.
+     */
+    public static Mono<MentionMetadata> fetchMetadata(@NotNull GatewayDiscordClient client,
+                                                      @NotNull BansDatabase bansDatabase,
+                                                      @NotNull Mention mention) {
+
+        return client.getChannelById(mention.getChannelId())
+                     .ofType(GuildMessageChannel.class)
+                     .flatMap(channel -> channel.getMessageById(mention.getMessageId())
+                                                .flatMap(message -> metadata(message, channel.getName()))
+                                                .onErrorResume(ClientException.isStatusCode(404),
+                                                               t -> Mono.just(metadataBuilder(channel.getName())
+                                                                                      .build())))
+                     .flatMap(metadata -> bansDatabase.updateMentionMetadata(mention.getMessageId(), metadata)
+                                                      .thenReturn(metadata))
+                     .onErrorResume(t -> {
+                         LOGGER.warn("Failed to fetch the metadata of " + mention, t);
+                         return Mono.empty();
+                     });
+    }
+
+    private static Mono<MentionMetadata> metadata(@NotNull Message message, @NotNull String channelName) {
+        return message.getAuthorAsMember()
+                      .flatMap(author -> author.getColor()
+                                               .map(color -> metadataBuilder(channelName)
+                                                                     .setAuthorId(author.getId())
+                                                                     .setAuthorName(author.getDisplayName())
+                                                                     .setAuthorAvatarUrl(author.getAvatarUrl())
+                                                                     .setAuthorColor(color.getRGB())
+                                                                     .build()))
+                      .switchIfEmpty(Mono.fromSupplier(() -> {
+                          final MentionMetadata.Builder builder = metadataBuilder(channelName);
+                          message.getAuthor()
+                                 .ifPresent(user -> builder.setAuthorId(user.getId())
+                                                           .setAuthorName(user.getUsername())
+                                                           .setAuthorAvatarUrl(user.getAvatarUrl()));
+                          return builder.build();
+                      }))
+                      .onErrorResume(t -> {
+                          // The refresher will try again
+                          LOGGER.warn("Failed to get the author of message " + message.getId(), t);
+                          return Mono.empty();
+                      });
+    }
+
+    private static MentionMetadata.Builder metadataBuilder(@NotNull String channelName) {
+        return new MentionMetadata.Builder()
+                       .setChannelName(channelName)
+                       .setUpdatedAt(Instant.now());
+    }
+
+    private static Mono<SteamID> resolveSteamID(SteamUrlScanner.Match url) {
+        return url.getSteamID()
+                  .map(steamID -> {
+                      Metrics.increment("steamid.resolve.offline");
+                      return Mono.just(steamID);
+                  })
+                  .orElseGet(() -> {
+                      final String name = url.getVanityName().orElseThrow();
+                      return Bot.resolveVanityName(name)
+                                .onErrorResume(t -> {
+                                    if (t instanceof IllegalArgumentException)
+                                        LOGGER.info("Failed to resolve {}", name);
+                                    else
+                                        LOGGER.warn("Failed to resolve " + name, t);
+                                    return Mono.empty();
+                                });
                   });
     }
 
-    static boolean isProfileUrl(@NotNull String url) {
-        return STEAM_URL_RX.matcher(url).matches();
+    /**
+     * A catch-up, only used from the actor's pipeline.
+     */
+    private static final class CatchUp {
+        /**
+         * The last message processed when the catch-up was requested, then the last message of the last page read,
+         * {@code null} to read from the checkpoint.
+         */
+        private @Nullable Snowflake from;
+        private int failures;
+
+        private CatchUp(@Nullable Snowflake from) {
+            this.from = from;
+        }
     }
 
     public static class Stats {
         public final AtomicInteger messagesCount = new AtomicInteger();
         public final AtomicInteger mentionsCount = new AtomicInteger();
+        public final AtomicInteger pagesCount = new AtomicInteger();
+        private final long startedAt = System.nanoTime();
+
+        public double getMessagesPerSecond() {
+            final long elapsed = System.nanoTime() - startedAt;
+            return elapsed > 0 ? messagesCount.get() * 1e9 / elapsed : 0;
+        }
 
         @Override
         public String toString() {
             return new StringJoiner(", ", Stats.class.getSimpleName() + "[", "]")
                            .add("messagesCount=" + messagesCount)
                            .add("mentionsCount=" + mentionsCount)
+                           .add("pagesCount=" + pagesCount)
+                           .add(String.format("messagesPerSecond=%.1f", getMessagesPerSecond()))
                            .toString();
         }
     }
@@ -4,12 +4,14 @@ import discord4j.common.util.Snowflake;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.tomlj.Toml;
 import org.tomlj.TomlArray;
 import org.tomlj.TomlParseResult;
 import org.tomlj.TomlTable;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Path;
@@ -24,17 +26,25 @@ public class Configuration {
     private final String prefix;
     private final String database;
     private final String userGuide;
+    private final String steamApiKey;
     private final Set<Snowflake> watchListChannels;
     private final Set<Snowflake> replyToChannels;
+    private final Set<Snowflake> banNotificationChannels;
     private final Map<Snowflake, Set<Snowflake>> replyToRoles;
+    private final Map<String, Server> servers;
+    private final InetSocketAddress apiAddress;
 
     private Configuration(Builder builder) {
         this.prefix = builder.prefix;
         this.database = builder.database;
         this.userGuide = validateUserGuide(builder.userGuide);
+        this.steamApiKey = builder.steamApiKey == null || builder.steamApiKey.isBlank() ? null : builder.steamApiKey;
         this.watchListChannels = builder.watchListChannels;
         this.replyToChannels = builder.replyToChannels;
+        this.banNotificationChannels = builder.banNotificationChannels;
         this.replyToRoles = builder.replyToRoles;
+        this.servers = builder.servers;
+        this.apiAddress = builder.apiAddress;
     }
 
     private static String validateUserGuide(String userGuide) {
@@ -65,6 +75,13 @@ public class Configuration {
         return userGuide;
     }
 
+    /**
+     * @return The Steam Web API key, or {@code null} if not set
+     */
+    public String getSteamApiKey() {
+        return steamApiKey;
+    }
+
     public Set<Snowflake> getWatchListChannels() {
         return watchListChannels;
     }
@@ -73,18 +90,43 @@ public class Configuration {
         return replyToChannels;
     }
 
+    /**
+     * @return The channels where the new long bans are posted
+     */
+    public Set<Snowflake> getBanNotificationChannels() {
+        return banNotificationChannels;
+    }
+
     public Map<Snowflake, Set<Snowflake>> getReplyToRoles() {
         return replyToRoles;
     }
 
+    /**
+     * @return The address of the HTTP API, or {@code null} if it is disabled
+     */
+    public @Nullable InetSocketAddress getApiAddress() {
+        return apiAddress;
+    }
+
+    /**
+     * @return The Chivalry servers sharing the ban list, by name
+     */
+    public Map<String, Server> getServers() {
+        return servers;
+    }
+
     @Override
     public String toString() {
         return new StringJoiner(", ", Configuration.class.getSimpleName() + "[", "]")
                        .add("prefix='" + prefix + "'")
                        .add("database='" + database + "'")
+                       .add("steamApiKey=" + (steamApiKey == null ? "<not set>" : "<set>"))
                        .add("watchListChannels=" + watchListChannels)
                        .add("replyToChannels=" + replyToChannels)
+                       .add("banNotificationChannels=" + banNotificationChannels)
                        .add("replyToRoles=" + replyToRoles)
+                       .add("servers=" + servers.values())
+                       .add("apiAddress=" + apiAddress)
                        .toString();
     }
 
@@ -98,7 +140,8 @@ public class Configuration {
         final Builder builder = new Builder()
                                         .setPrefix(result.getString("general.prefix"))
                                         .setDatabase(result.getString("general.database-path"))
-                                        .setUserGuide(result.getString("general.user-guide"));
+                                        .setUserGuide(result.getString("general.user-guide"))
+                                        .setSteamApiKey(result.getString("general.steam-api-key"));
 
         final TomlTable guilds = result.getTable("guilds");
 
@@ -108,9 +151,32 @@ public class Configuration {
                 setupGuild(builder, guild);
             }
 
+        final Long apiPort = result.getLong("api.port");
+        if (apiPort != null)
+            builder.setApiAddress(new InetSocketAddress(result.getString("api.address", () -> "127.0.0.1"),
+                                                        Math.toIntExact(apiPort)));
+
+        final TomlTable servers = result.getTable("servers");
+
+        if (servers != null)
+            for (var key : servers.keySet())
+                builder.addServer(setupServer(key, servers.getTableOrEmpty(key)));
+
         return builder.build();
     }
 
+    private static Server setupServer(String name, TomlTable server) {
+        final String hostname = server.getString("host");
+        final String username = server.getString("user");
+        final String password = server.getString("password");
+        if (hostname == null || username == null || password == null)
+            throw new IllegalArgumentException("'host', 'user' and 'password' are required for the server " + name);
+
+        return new Server(name, hostname, server.getString("log-path", () -> LogDownloader.DEFAULT_LOG_PATH),
+                          username, password, server.getString("launch-log-path"),
+                          server.getString("launch-log-pattern", () -> ServerLogParser.DEFAULT_PATTERN));
+    }
+
     private static void setupGuild(Builder builder, TomlTable guild) {
         final TomlArray watchListChannels = guild.getArrayOrEmpty("watch-list-channels");
         for (int i = 0; i < watchListChannels.size(); ++i)
@@ -120,6 +186,10 @@ public class Configuration {
         for (int i = 0; i < replyToChannels.size(); ++i)
             builder.addReplyToChannel(replyToChannels.getString(i));
 
+        final TomlArray banNotificationChannels = guild.getArrayOrEmpty("ban-notification-channels");
+        for (int i = 0; i < banNotificationChannels.size(); ++i)
+            builder.addBanNotificationChannel(banNotificationChannels.getString(i));
+
         final String guildId = guild.getString("guild-id");
 
         final TomlArray replyToRoles = guild.getArrayOrEmpty("reply-to-roles");
@@ -137,9 +207,13 @@ public class Configuration {
         private String prefix;
         private String database;
         private String userGuide;
+        private String steamApiKey;
         private final Set<Snowflake> watchListChannels = new TreeSet<>();
         private final Set<Snowflake> replyToChannels = new TreeSet<>();
+        private final Set<Snowflake> banNotificationChannels = new TreeSet<>();
         private final Map<Snowflake, Set<Snowflake>> replyToRoles = new TreeMap<>();
+        private final Map<String, Server> servers = new TreeMap<>();
+        private InetSocketAddress apiAddress;
 
         public Configuration build() {
             return new Configuration(this);
@@ -160,6 +234,11 @@ public class Configuration {
             return this;
         }
 
+        public Builder setSteamApiKey(String steamApiKey) {
+            this.steamApiKey = steamApiKey;
+            return this;
+        }
+
         public Builder addWatchListChannel(@NotNull String channel) {
             watchListChannels.add(Snowflake.of(channel));
             return this;
@@ -170,10 +249,98 @@ public class Configuration {
             return this;
         }
 
+        public Builder addBanNotificationChannel(@NotNull String channel) {
+            banNotificationChannels.add(Snowflake.of(channel));
+            return this;
+        }
+
         public Builder addReplyToRole(@NotNull String guild, @NotNull String role) {
             replyToRoles.computeIfAbsent(Snowflake.of(guild), g -> new TreeSet<>())
                         .add(Snowflake.of(role));
             return this;
         }
+
+        public Builder setApiAddress(InetSocketAddress apiAddress) {
+            this.apiAddress = apiAddress;
+            return this;
+        }
+
+        public Builder addServer(@NotNull Server server) {
+            if (servers.putIfAbsent(server.getName(), server) != null)
+                throw new IllegalArgumentException("Duplicate server: " + server.getName());
+            return this;
+        }
+    }
+
+    /**
+     * A Chivalry server, whose ban list is downloaded over FTP.
+     */
+    public static class Server {
+        private final String name;
+        private final String hostname;
+        private final String logPath;
+        private final String username;
+        private final String password;
+        private final String launchLogPath;
+        private final String launchLogPattern;
+
+        public Server(@NotNull String name, @NotNull String hostname, @NotNull String logPath,
+                      @NotNull String username, @NotNull String password, @Nullable String launchLogPath,
+                      @NotNull String launchLogPattern) {
+
+            this.name = name;
+            this.hostname = hostname;
+            this.logPath = logPath;
+            this.username = username;
+            this.password = password;
+            this.launchLogPath = launchLogPath;
+            this.launchLogPattern = launchLogPattern;
+        }
+
+        public @NotNull String getName() {
+            return name;
+        }
+
+        public @NotNull String getHostname() {
+            return hostname;
+        }
+
+        public @NotNull String getLogPath() {
+            return logPath;
+        }
+
+        public @NotNull String getUsername() {
+            return username;
+        }
+
+        public @NotNull String getPassword() {
+            return password;
+        }
+
+        /**
+         * @return The path to the server log, followed to detect the bans as they happen, or {@code null} not to
+         * follow it
+         */
+        public @Nullable String getLaunchLogPath() {
+            return launchLogPath;
+        }
+
+        /**
+         * @return The pattern of the kick and ban events in the server log, see {@link ServerLogParser}
+         */
+        public @NotNull String getLaunchLogPattern() {
+            return launchLogPattern;
+        }
+
+        @Override
+        public String toString() {
+            return new StringJoiner(", ", Server.class.getSimpleName() + "[", "]")
+                           .add("name='" + name + "'")
+                           .add("hostname='" + hostname + "'")
+                           .add("logPath='" + logPath + "'")
+                           .add("username='" + username + "'")
+                           .add("launchLogPath='" + launchLogPath + "'")
+                           .toString();
+        }
     }
 }
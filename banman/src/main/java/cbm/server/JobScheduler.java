@@ -0,0 +1,311 @@
+package cbm.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Runs the periodic jobs of the bot, each on its own thread, so a slow or stuck job doesn't delay the others.
+ * <p>
+ * A job runs every {@code period} after its first run, plus a random jitter, or after the delay returned by its
+ * previous run for an adaptive job. A run never overlaps with the
+ * previous one: the runs missed while a job was still running are skipped, and so is a manual {@link #trigger} of a
+ * running job. The outcome of every run is recorded, see {@link #getJobs}, and counted in {@link Metrics} as
+ * {@code jobs.<name>.runs}, {@code jobs.<name>.failures}, {@code jobs.<name>.skipped} and {@code jobs.<name>.millis}.
+ */
+public class JobScheduler implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(30);
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Clock clock;
+
+    public JobScheduler() {
+        this(Clock.systemUTC());
+    }
+
+    JobScheduler(@NotNull Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @param name         The job name, unique
+     * @param initialDelay The delay to the first run
+     * @param period       The time between the starts of two runs
+     * @param jitter       The maximum random delay added to each run
+     * @param task         The job. Its exceptions and errors are logged, and don't stop the later runs.
+     */
+    public void schedule(@NotNull String name, @NotNull Duration initialDelay, @NotNull Duration period,
+                         @NotNull Duration jitter, @NotNull Runnable task) {
+
+        checkPeriod(name, period);
+        add(new Job(name, period, jitter, () -> {
+            task.run();
+            return period;
+        }), initialDelay);
+    }
+
+    /**
+     * @param name         The job name, unique
+     * @param initialDelay The delay to the first run
+     * @param period       The time between the starts of two runs, until a run returns another one
+     * @param jitter       The maximum random delay added to each run
+     * @param task         The job, returning the time between the start of this run and the start of the next one.
+     *                     If it fails, the previous time is used.
+     */
+    public void scheduleAdaptive(@NotNull String name, @NotNull Duration initialDelay, @NotNull Duration period,
+                                 @NotNull Duration jitter, @NotNull Supplier<Duration> task) {
+
+        checkPeriod(name, period);
+        add(new Job(name, period, jitter, () -> checkPeriod(name, task.get())), initialDelay);
+    }
+
+    private void add(Job job, Duration initialDelay) {
+        if (jobs.putIfAbsent(job.name, job) != null) {
+            job.executor.shutdown();
+            throw new IllegalArgumentException("Duplicate job: " + job.name);
+        }
+        job.scheduleAt(clock.instant().plus(initialDelay));
+    }
+
+    private static Duration checkPeriod(String name, Duration period) {
+        if (period.isZero() || period.isNegative())
+            throw new IllegalArgumentException("Invalid period for job " + name + ": " + period);
+        return period;
+    }
+
+    /**
+     * Run a job now, without changing its schedule.
+     *
+     * @return {@code false} if there is no such job, or it is already running
+     */
+    public boolean trigger(@NotNull String name) {
+        final Job job = jobs.get(name);
+        if (job == null || job.running.get())
+            return false;
+
+        job.executor.execute(job::runManually);
+        return true;
+    }
+
+    /**
+     * @return The status of the jobs, by name
+     */
+    public @NotNull List<JobStatus> getJobs() {
+        final List<JobStatus> statuses = new ArrayList<>();
+        for (Job job : jobs.values())
+            statuses.add(job.status());
+        statuses.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return statuses;
+    }
+
+    /**
+     * Interrupt the running jobs, and wait a bit for them to finish, since they likely use resources that are closed
+     * next.
+     */
+    @Override
+    public void close() {
+        jobs.values().forEach(job -> job.executor.shutdownNow());
+        final long deadline = System.nanoTime() + CLOSE_TIMEOUT.toNanos();
+        try {
+            for (Job job : jobs.values()) {
+                if (!job.executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+                    LOGGER.warn("Job {} is still running", job.name);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final class Job {
+        private final String name;
+        private final Duration jitter;
+        private final Supplier<Duration> task;
+        private final ScheduledExecutorService executor;
+        private final AtomicBoolean running = new AtomicBoolean();
+        /**
+         * When the next run is due, without the jitter.
+         */
+        private Instant nominal;
+        private volatile Duration period;
+        private volatile ScheduledFuture<?> next;
+        private volatile Instant lastStart;
+        private volatile Duration lastDuration;
+        private volatile String lastOutcome;
+
+        private Job(String name, Duration period, Duration jitter, Supplier<Duration> task) {
+            this.name = name;
+            this.period = period;
+            this.jitter = jitter;
+            this.task = task;
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                final Thread thread = new Thread(runnable, "job-" + name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            this.executor = executor;
+        }
+
+        /**
+         * Called on the job thread, or before the first run.
+         */
+        private void scheduleAt(Instant nominal) {
+            this.nominal = nominal;
+            final long jitterMillis = jitter.toMillis() > 0 ? ThreadLocalRandom.current().nextLong(jitter.toMillis())
+                                                            : 0;
+            final long delay = Math.max(0, Duration.between(clock.instant(), nominal).toMillis()) + jitterMillis;
+            next = executor.schedule(this::runScheduled, delay, TimeUnit.MILLISECONDS);
+        }
+
+        private void runScheduled() {
+            run();
+
+            // Skip the runs that are already due: they would start right after this one
+            final Instant now = clock.instant();
+            Instant following = nominal.plus(period);
+            while (!following.isAfter(now)) {
+                following = following.plus(period);
+                LOGGER.info("Job {} skipped a run, the previous one was still running", name);
+                Metrics.increment("jobs." + name + ".skipped");
+            }
+            scheduleAt(following);
+        }
+
+        private void runManually() {
+            LOGGER.info("Job {} triggered", name);
+            run();
+        }
+
+        private void run() {
+            if (!running.compareAndSet(false, true)) {
+                Metrics.increment("jobs." + name + ".skipped");
+                return;
+            }
+
+            final Instant start = clock.instant();
+            lastStart = start;
+            String outcome = "ok";
+            try {
+                period = task.get();
+            } catch (Throwable e) {
+                // Errors too, or the job would never be rescheduled
+                LOGGER.warn("Job {} failed", name, e);
+                Metrics.increment("jobs." + name + ".failures");
+                outcome = "failed: " + e;
+            } finally {
+                final Duration duration = Duration.between(start, clock.instant());
+                lastDuration = duration;
+                lastOutcome = outcome;
+                running.set(false);
+                Metrics.increment("jobs." + name + ".runs");
+                Metrics.add("jobs." + name + ".millis", duration.toMillis());
+            }
+        }
+
+        private JobStatus status() {
+            final boolean running = this.running.get();
+            final ScheduledFuture<?> future = next;
+            final Instant nextRun = !running && future != null && !future.isDone()
+                                    ? clock.instant().plusMillis(future.getDelay(TimeUnit.MILLISECONDS))
+                                    : null;
+            return new JobStatus(name, period, running, lastStart, lastDuration, lastOutcome, nextRun);
+        }
+    }
+
+    public static final class JobStatus {
+        private final String name;
+        private final Duration period;
+        private final boolean running;
+        private final @Nullable Instant lastStart;
+        private final @Nullable Duration lastDuration;
+        private final @Nullable String lastOutcome;
+        private final @Nullable Instant nextRun;
+
+        private JobStatus(String name, Duration period, boolean running, @Nullable Instant lastStart,
+                          @Nullable Duration lastDuration, @Nullable String lastOutcome, @Nullable Instant nextRun) {
+
+            this.name = name;
+            this.period = period;
+            this.running = running;
+            this.lastStart = lastStart;
+            this.lastDuration = lastDuration;
+            this.lastOutcome = lastOutcome;
+            this.nextRun = nextRun;
+        }
+
+        public @NotNull String getName() {
+            return name;
+        }
+
+        /**
+         * @return The time between the starts of two runs, as returned by the last run of an adaptive job
+         */
+        public @NotNull Duration getPeriod() {
+            return period;
+        }
+
+        public boolean isRunning() {
+            return running;
+        }
+
+        /**
+         * @return The start of the last run, or {@code null} if the job hasn't run yet
+         */
+        public @Nullable Instant getLastStart() {
+            return lastStart;
+        }
+
+        /**
+         * @return The duration of the last finished run, or {@code null} if the job hasn't run yet
+         */
+        public @Nullable Duration getLastDuration() {
+            return lastDuration;
+        }
+
+        /**
+         * @return {@code ok}, or {@code failed: } and the exception of the last finished run; {@code null} if the
+         * job hasn't run yet
+         */
+        public @Nullable String getLastOutcome() {
+            return lastOutcome;
+        }
+
+        /**
+         * @return The start of the next scheduled run, jitter included, or {@code null} while the job is running
+         */
+        public @Nullable Instant getNextRun() {
+            return nextRun;
+        }
+
+        @Override
+        public String toString() {
+            return new StringJoiner(", ", JobStatus.class.getSimpleName() + "[", "]")
+                           .add("name='" + name + "'")
+                           .add("period=" + period)
+                           .add("running=" + running)
+                           .add("lastStart=" + lastStart)
+                           .add("lastDuration=" + lastDuration)
+                           .add("lastOutcome='" + lastOutcome + "'")
+                           .add("nextRun=" + nextRun)
+                           .toString();
+        }
+    }
+}
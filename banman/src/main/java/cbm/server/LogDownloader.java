@@ -10,26 +10,13 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.time.DateTimeException;
-import java.util.Arrays;
-import java.util.Objects;
-import java.util.regex.Pattern;
+import java.text.ParseException;
 import java.util.stream.Stream;
 
 public class LogDownloader {
+    public static final String DEFAULT_LOG_PATH = "/UDKGame/Config/PCServer-UDKGame.ini";
     private static final Logger LOGGER = LogManager.getLogger();
-
-    private static final Pattern NET_ID_BAN_PATTERN = Pattern.compile("BannedIDs=\\(Uid=\\(A=(\\d+),B=17825793\\)\\)");
-    private static final Pattern BAN_PATTERN =
-            Pattern.compile(
-                    "^Bans=\\(DurationSeconds=(-?\\d+)," +
-                            "EnactedTime=\\(Year=(\\d+),Month=(\\d+),DayOfWeek=(\\d+),Day=(\\d+)," +
-                            "Hour=(\\d+),Min=(\\d+),Sec=(\\d+),MSec=(\\d+)\\)," +
-                            "IPPolicy=(?:|\"([^\"]*)\")," +
-                            "NetId=\\(Uid=\\(A=(\\d+),B=\\d+\\)\\)," +
-                            "PlayerName=(?:|\"(.*)\")," +
-                            "Reason=(?:|\"(.*)\")," +
-                            "NetIDAsString=(?:|\"([^\"]*)\")\\)$");
+    private static final int TIMEOUT_MILLIS = 60_000;
 
     private final String hostname;
     private final String logPath;
@@ -40,6 +27,10 @@ public class LogDownloader {
         this(server.hostname, server.logPath, server.username, server.password);
     }
 
+    public LogDownloader(@NotNull Configuration.Server server) {
+        this(server.getHostname(), server.getLogPath(), server.getUsername(), server.getPassword());
+    }
+
     public LogDownloader(@NotNull String hostname, @NotNull String logPath, @NotNull String username,
                          @NotNull String password) {
 
@@ -50,52 +41,29 @@ public class LogDownloader {
     }
 
     public Stream<Ban> downloadBans() throws IOException {
-        return Arrays.stream(toString(loadFile(logPath)).split("\r\n"))
-                     .filter(s -> s.startsWith("BannedIDs=(") || s.startsWith("Bans=("))
-                     .map(LogDownloader::parseBan)
-                     .filter(Objects::nonNull);
+        return parseBans(toString(loadFile(logPath)));
     }
 
-    private static Ban parseBan(String line) {
-        final var netIdMatcher = NET_ID_BAN_PATTERN.matcher(line);
-        if (netIdMatcher.matches()) {
-            final var id = netIdMatcher.group(1);
-            return SteamID.steamID(id)
-                          .map(steamID -> new Ban.Builder()
-                                  .setSteamID(steamID)
-                                  .build())
-                          .orElseGet(() -> {
-                              LOGGER.warn("Cannot parse steam ID: {}", line);
-                              return null;
-                          });
-        }
+    static Stream<Ban> parseBans(@NotNull String content) {
+        final BanLineParser parser = new BanLineParser();
+        final Stream.Builder<Ban> bans = Stream.builder();
+        final int length = content.length();
+        int lineStart = 0;
+        while (lineStart < length) {
+            final int newLine = content.indexOf('\n', lineStart);
+            final int lineEnd = newLine == -1 ? length : newLine;
+            if (BanLineParser.isBanLine(content, lineStart, lineEnd))
+                try {
+                    bans.add(parser.parse(content, lineStart, lineEnd));
+                } catch (ParseException e) {
+                    LOGGER.warn("Cannot parse line: {} ({})", content.substring(lineStart, lineEnd).strip(),
+                                e.getMessage());
+                }
 
-        final var m = BAN_PATTERN.matcher(line.trim());
-        if (m.matches())
-            try {
-                final var id = m.group(11);
-                return SteamID.steamID(id)
-                              .map(steamID -> new Ban.Builder()
-                                      .setSteamID(steamID)
-                                      .setDurationSeconds(m.group(1))
-                                      .setEnactedTime(m.group(2), m.group(3), m.group(5),
-                                                      m.group(6), m.group(7), m.group(8))
-                                      .setIpPolicy(m.group(10))
-                                      .setPlayerName(m.group(12))
-                                      .setReason(m.group(13))
-                                      .build())
-                              .orElseGet(() -> {
-                                  LOGGER.warn("Cannot parse steam ID: {}", line);
-                                  return null;
-                              });
-
-            } catch (DateTimeException e) {
-                LOGGER.warn("Failed to parse data", e);
-                return null;
-            }
+            lineStart = lineEnd + 1;
+        }
 
-        LOGGER.warn("Cannot parse line: {}", line);
-        return null;
+        return bans.build();
     }
 
     private static String toString(byte[] bytes) throws IOException {
@@ -106,15 +74,30 @@ public class LogDownloader {
     }
 
     private byte[] loadFile(@NotNull String logPath) throws IOException {
+        return withFtpClient(hostname, username, password, ftpClient -> {
+            final var o = new ByteArrayOutputStream();
+            ftpClient.retrieveFile(logPath, o);
+            return o.toByteArray();
+        });
+    }
+
+    /**
+     * Run an action with a connection to an FTP server, logged in, in passive and binary modes.
+     */
+    static <T> T withFtpClient(@NotNull String hostname, @NotNull String username, @NotNull String password,
+                               @NotNull FtpAction<T> action) throws IOException {
+
         final var ftpClient = new FTPClient();
+        // A server not responding must not block the other ones forever
+        ftpClient.setConnectTimeout(TIMEOUT_MILLIS);
+        ftpClient.setDefaultTimeout(TIMEOUT_MILLIS);
+        ftpClient.setDataTimeout(TIMEOUT_MILLIS);
         try {
             ftpClient.connect(hostname);
             ftpClient.login(username, password);
             ftpClient.enterLocalPassiveMode();
             ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
-            final var o = new ByteArrayOutputStream();
-            ftpClient.retrieveFile(logPath, o);
-            return o.toByteArray();
+            return action.apply(ftpClient);
         } finally {
             if (ftpClient.isConnected()) {
                 ftpClient.logout();
@@ -122,4 +105,8 @@ public class LogDownloader {
             }
         }
     }
+
+    interface FtpAction<T> {
+        T apply(@NotNull FTPClient ftpClient) throws IOException;
+    }
 }
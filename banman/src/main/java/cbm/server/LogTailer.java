@@ -0,0 +1,99 @@
+package cbm.server;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Follows a log file of a server over FTP: each {@link #poll} resumes the download where the previous one ended,
+ * with the FTP REST command, so only the appended bytes are transferred.
+ * <p>
+ * The first poll starts at the end of the file, not to replay its history. A file shorter than the offset is
+ * considered rotated, and followed from its start. The log is expected in UTF-8 (or ASCII).
+ */
+public class LogTailer {
+    private final String name;
+    private final String hostname;
+    private final String logPath;
+    private final String username;
+    private final String password;
+    /**
+     * The end of the last poll, negative before the first one.
+     */
+    private long offset = -1;
+    /**
+     * The end of the file after the last complete line.
+     */
+    private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+
+    public LogTailer(@NotNull String name, @NotNull String hostname, @NotNull String logPath,
+                     @NotNull String username, @NotNull String password) {
+
+        this.name = name;
+        this.hostname = hostname;
+        this.logPath = logPath;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * @return The lines appended since the last poll
+     */
+    public synchronized @NotNull List<String> poll() throws IOException {
+        return LogDownloader.withFtpClient(hostname, username, password, ftpClient -> {
+            final String size = ftpClient.getSize(logPath);
+            if (size == null)
+                throw new IOException("Cannot get the size of " + logPath + ": " + ftpClient.getReplyString());
+
+            final long length = Long.parseLong(size.trim());
+            if (offset < 0 || length < offset) {
+                partialLine.reset();
+                if (offset < 0) {
+                    offset = length;
+                    return List.of();
+                }
+                offset = 0;
+            }
+            if (length == offset)
+                return List.of();
+
+            ftpClient.setRestartOffset(offset);
+            final byte[] bytes;
+            try (final InputStream in = ftpClient.retrieveFileStream(logPath)) {
+                if (in == null)
+                    throw new IOException("Cannot download " + logPath + ": " + ftpClient.getReplyString());
+                bytes = in.readAllBytes();
+            }
+            if (!ftpClient.completePendingCommand())
+                throw new IOException("Cannot download " + logPath + ": " + ftpClient.getReplyString());
+
+            offset += bytes.length;
+            Metrics.add("servers." + name + ".tail.bytes", bytes.length);
+            return append(bytes);
+        });
+    }
+
+    /**
+     * @return The lines completed by the bytes
+     */
+    synchronized @NotNull List<String> append(byte[] bytes) {
+        final List<String> lines = new ArrayList<>();
+        int lineStart = 0;
+        for (int i = 0; i < bytes.length; ++i) {
+            if (bytes[i] != '\n')
+                continue;
+
+            partialLine.write(bytes, lineStart, i - lineStart);
+            lines.add(partialLine.toString(StandardCharsets.UTF_8).stripTrailing());
+            partialLine.reset();
+            lineStart = i + 1;
+        }
+        partialLine.write(bytes, lineStart, bytes.length - lineStart);
+        return lines;
+    }
+}
@@ -0,0 +1,118 @@
+package cbm.server;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.StringJoiner;
+
+/**
+ * Streaming parser for the XML form of the Steam community profiles ({@code /profiles/<id>/?xml=1} and
+ * {@code /id/<name>/?xml=1}):
+ * <pre>
+ *     &lt;profile&gt;
+ *         &lt;steamID64&gt;76561198084041050&lt;/steamID64&gt;
+ *         &lt;steamID&gt;&lt;![CDATA[name]]&gt;&lt;/steamID&gt;
+ *         ...
+ *         &lt;avatarFull&gt;&lt;![CDATA[https://...]]&gt;&lt;/avatarFull&gt;
+ *         ...
+ *     &lt;/profile&gt;
+ * </pre>
+ * or {@code <response><error>...</error></response>} if there is no such profile. Parsing stops as soon as all the
+ * fields are found, so the rest of the document (groups, most played games, summary) is never read.
+ */
+final class ProfileXml {
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    private String steamID64;
+    private String name;
+    private String avatar;
+    private String error;
+
+    private ProfileXml() {
+    }
+
+    static @NotNull ProfileXml parse(@NotNull InputStream in) throws XMLStreamException {
+        final ProfileXml profile = new ProfileXml();
+        final XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            int depth = 0;
+            while (reader.hasNext() && !profile.isComplete()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    --depth;
+                } else if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (++depth != 2)
+                        continue;
+
+                    switch (reader.getLocalName()) {
+                        case "steamID64":
+                            profile.steamID64 = reader.getElementText().strip();
+                            break;
+                        case "steamID":
+                            profile.name = reader.getElementText();
+                            break;
+                        case "avatarFull":
+                            profile.avatar = reader.getElementText().strip();
+                            break;
+                        case "error":
+                            profile.error = reader.getElementText().strip();
+                            return profile;
+                        default:
+                            continue;
+                    }
+                    // getElementText() leaves the reader on the end element
+                    --depth;
+                }
+            }
+            return profile;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    private boolean isComplete() {
+        return steamID64 != null && name != null && avatar != null;
+    }
+
+    @Nullable String getSteamID64() {
+        return steamID64;
+    }
+
+    @Nullable String getName() {
+        return name;
+    }
+
+    @Nullable String getAvatar() {
+        return avatar;
+    }
+
+    /**
+     * @return The error message if there is no such profile, {@code null} otherwise
+     */
+    @Nullable String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", ProfileXml.class.getSimpleName() + "[", "]")
+                       .add("steamID64='" + steamID64 + "'")
+                       .add("name='" + name + "'")
+                       .add("avatar='" + avatar + "'")
+                       .add("error='" + error + "'")
+                       .toString();
+    }
+}
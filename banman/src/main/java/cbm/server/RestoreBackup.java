@@ -0,0 +1,63 @@
+package cbm.server;
+
+import cbm.server.db.IncrementalBackup;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+
+/**
+ * Restores a backup made by the bot into an empty directory, which can then be used as the database. The bot must
+ * not be running on the target directory.
+ */
+@Command(name = "RestoreBackup", mixinStandardHelpOptions = true, version = "1.0",
+        description = "Restores a database backup into an empty directory.")
+public class RestoreBackup implements Callable<Integer> {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    @Option(names = {"-b", "--backup"}, description = "The backup to restore. Defaults to the latest one.")
+    private String backup;
+
+    @Option(names = {"-l", "--list"}, description = "Lists the backups instead of restoring one.")
+    private boolean list;
+
+    @Parameters(index = "0", paramLabel = "<path/to/conf.toml>", description = "The Bot configuration.")
+    private Path configurationPath;
+
+    @Parameters(index = "1", arity = "0..1", paramLabel = "<target>",
+            description = "The empty directory to restore the database into.")
+    private Path target;
+
+    public static void main(String[] args) {
+        final CommandLine commandLine = new CommandLine(new RestoreBackup());
+        System.exit(commandLine.execute(args));
+    }
+
+    @Override
+    public Integer call() throws IOException {
+        final Configuration configuration = Configuration.load(configurationPath);
+        final IncrementalBackup backups = new IncrementalBackup(Path.of(configuration.getDatabase(), "backups"),
+                                                                Long.MAX_VALUE,
+                                                                IncrementalBackup.DEFAULT_KEEP);
+        if (list) {
+            backups.list().forEach(System.out::println);
+            return 0;
+        }
+
+        if (target == null) {
+            LOGGER.error("The target directory is missing");
+            return 2;
+        }
+
+        backups.restore(backup, target);
+        LOGGER.info("Restored. Set general.database-path to {} to use it", target.toAbsolutePath());
+        return 0;
+    }
+}
@@ -0,0 +1,100 @@
+package cbm.server;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parser of the kick and ban events of the server log (Launch.log), one line at a time. A line is an event if it
+ * matches the pattern, whose named groups are:
+ * <ul>
+ *     <li>{@code action}, required: a ban if it contains "ban", a kick otherwise</li>
+ *     <li>{@code id}, required: the player ID</li>
+ *     <li>{@code name} and {@code reason}, optional</li>
+ * </ul>
+ * The {@link #DEFAULT_PATTERN default pattern} matches the admin commands as logged by the server, e.g.
+ * <pre>
+ *     [0123.45] ScriptLog: AdminKickBan 76561198084041050 "Robin" reason: "Running away"
+ * </pre>
+ */
+public class ServerLogParser {
+    public static final String DEFAULT_PATTERN =
+            "(?i)(?<action>(?:kick)?ban(?:ned)?|kick(?:ed)?)\\b\\D*?\\b(?<id>7656119\\d{10})\\b"
+            + "(?:\\s+\"(?<name>[^\"]*)\")?(?:.*?\\breason:?\\s*\"?(?<reason>[^\"]*?)\"?\\s*)?$";
+
+    private final Pattern pattern;
+    private final boolean hasName;
+    private final boolean hasReason;
+
+    public ServerLogParser() {
+        this(DEFAULT_PATTERN);
+    }
+
+    public ServerLogParser(@NotNull String pattern) {
+        this.pattern = Pattern.compile(pattern);
+        if (!pattern.contains("(?<action>") || !pattern.contains("(?<id>"))
+            throw new IllegalArgumentException("The pattern needs the named groups 'action' and 'id': " + pattern);
+        this.hasName = pattern.contains("(?<name>");
+        this.hasReason = pattern.contains("(?<reason>");
+    }
+
+    public @NotNull Optional<Event> parse(@NotNull String line) {
+        final Matcher matcher = pattern.matcher(line);
+        if (!matcher.find())
+            return Optional.empty();
+
+        final boolean ban = matcher.group("action").toLowerCase(Locale.ROOT).contains("ban");
+        return Optional.of(new Event(ban,
+                                     matcher.group("id"),
+                                     hasName ? matcher.group("name") : null,
+                                     hasReason ? matcher.group("reason") : null));
+    }
+
+    public static class Event {
+        private final boolean ban;
+        private final String playerId;
+        private final String playerName;
+        private final String reason;
+
+        private Event(boolean ban, @NotNull String playerId, @Nullable String playerName, @Nullable String reason) {
+            this.ban = ban;
+            this.playerId = playerId;
+            this.playerName = playerName;
+            this.reason = reason;
+        }
+
+        /**
+         * @return {@code true} for a ban, {@code false} for a kick
+         */
+        public boolean isBan() {
+            return ban;
+        }
+
+        public @NotNull String getPlayerId() {
+            return playerId;
+        }
+
+        public @Nullable String getPlayerName() {
+            return playerName;
+        }
+
+        public @Nullable String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return new StringJoiner(", ", Event.class.getSimpleName() + "[", "]")
+                           .add("ban=" + ban)
+                           .add("playerId='" + playerId + "'")
+                           .add("playerName='" + playerName + "'")
+                           .add("reason='" + reason + "'")
+                           .toString();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package cbm.server;
+
+import cbm.server.model.Ban;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Downloads the bans of several servers at once, each with its own connection on its own thread, so a slow server
+ * only delays the pass by its own download time.
+ * <p>
+ * The download time and the failures of each server are counted in {@link Metrics} as
+ * {@code servers.<name>.download.millis} and {@code servers.<name>.download.failures}.
+ */
+public class ServersDownloader implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final Map<String, Callable<Stream<Ban>>> downloaders;
+    private final Map<String, ExecutorService> executors = new TreeMap<>();
+
+    /**
+     * @param downloaders The download of the bans of each server, by server name
+     */
+    public ServersDownloader(@NotNull Map<String, Callable<Stream<Ban>>> downloaders) {
+        if (downloaders.isEmpty())
+            throw new IllegalArgumentException("No server to download the bans of");
+
+        this.downloaders = new TreeMap<>(downloaders);
+        for (String server : this.downloaders.keySet())
+            executors.put(server, Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "download-" + server);
+                thread.setDaemon(true);
+                return thread;
+            }));
+    }
+
+    /**
+     * @return The bans of each server, by server name
+     * @throws IOException If the download of any server failed, after all the downloads are done
+     */
+    public @NotNull Map<String, List<Ban>> downloadBans() throws IOException {
+        final Map<String, Future<List<Ban>>> futures = new TreeMap<>();
+        downloaders.forEach((server, downloader) -> futures.put(server, executors.get(server).submit(() -> {
+            final long start = System.nanoTime();
+            try (final Stream<Ban> bans = downloader.call()) {
+                return bans.collect(Collectors.toList());
+            } finally {
+                final Duration duration = Duration.ofNanos(System.nanoTime() - start);
+                LOGGER.info("Downloaded the bans of {} in {} ms", server, duration.toMillis());
+                Metrics.add("servers." + server + ".download.millis", duration.toMillis());
+            }
+        })));
+
+        final Map<String, List<Ban>> bans = new TreeMap<>();
+        IOException failure = null;
+        for (Map.Entry<String, Future<List<Ban>>> entry : futures.entrySet()) {
+            final String server = entry.getKey();
+            try {
+                bans.put(server, entry.getValue().get());
+            } catch (ExecutionException e) {
+                Metrics.increment("servers." + server + ".download.failures");
+                if (failure == null)
+                    failure = new IOException("Failed to download the bans of " + server, e.getCause());
+                else
+                    failure.addSuppressed(new IOException("Failed to download the bans of " + server, e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.values().forEach(future -> future.cancel(true));
+                throw new IOException("Interrupted while downloading the bans", e);
+            }
+        }
+
+        if (failure != null)
+            throw failure;
+        return bans;
+    }
+
+    @Override
+    public void close() {
+        executors.values().forEach(ExecutorService::shutdownNow);
+    }
+}
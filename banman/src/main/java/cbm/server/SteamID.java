@@ -5,41 +5,220 @@ import org.jetbrains.annotations.NotNull;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.StringJoiner;
-import java.util.regex.Pattern;
 
 public final class SteamID {
     private static final long STEAM64 = 0x110000100000000L;
-    private static final Pattern STEAM_ID_PATTERN = Pattern.compile("STEAM_0:([01]):(\\d+)");
-    private static final Pattern PROFILE_URL_PATTERN = Pattern.compile("https?://steamcommunity.com/profiles/(\\d+)/?");
+    private static final long INVALID = -1;
+    private static final String COMMUNITY_HOST = "steamcommunity.com";
+    private static final int MAX_VANITY_NAME_LENGTH = 32;
 
     private final long steamID64;
 
+    /**
+     * Parse any of the textual forms of a Steam ID, without going to the network:
+     * <ul>
+     *     <li>steamID64 or account ID ({@code 76561198084041050}, {@code 123775322})</li>
+     *     <li>steamID ({@code STEAM_0:0:61887661}, any universe)</li>
+     *     <li>steamID3 ({@code [U:1:123775322]}, with or without the brackets)</li>
+     *     <li>NetIDAsString ({@code 0x011000010760A75A})</li>
+     *     <li>profile URL with any of the above ({@code https://steamcommunity.com/profiles/76561198084041050/}),
+     *     with or without the scheme, {@code www.}, trailing slash, query or fragment</li>
+     * </ul>
+     * Custom URLs have to be resolved with {@link SteamWeb#resolveSteamID}, see {@link #vanityName}.
+     */
     public static Optional<SteamID> steamID(@NotNull String id) {
-        try {
-            return Optional.of(new SteamID(id));
-        } catch (NumberFormatException e) {
-            return Optional.empty();
+        final long steamID64 = parse(id.strip());
+        return steamID64 == INVALID ? Optional.empty() : Optional.of(new SteamID(steamID64));
+    }
+
+    /**
+     * @param id Either a steamID64 or an account ID (the {@code A} part of a NetId)
+     */
+    public static SteamID steamID(long id) {
+        return new SteamID(id >= STEAM64 ? id : id + STEAM64);
+    }
+
+    /**
+     * Extract the custom URL name from a custom URL ({@code https://steamcommunity.com/id/robin}) or a bare name
+     * ({@code robin}).
+     *
+     * @return The name, or empty if {@code id} is not a custom URL, or it is one of the forms {@link #steamID}
+     * accepts
+     */
+    public static Optional<String> vanityName(@NotNull String id) {
+        final String s = id.strip();
+        final int length = s.length();
+        final int path = communityPath(s);
+        if (path != -1) {
+            if (!regionMatchesIgnoreCase(s, path, length, "/id/"))
+                return Optional.empty();
+
+            final int from = path + "/id/".length();
+            final int to = segmentEnd(s, from);
+            return isVanityName(s, from, to) && isPathEnd(s, to) ? Optional.of(s.substring(from, to))
+                                                                 : Optional.empty();
+        }
+
+        return isVanityName(s, 0, length) && parse(s) == INVALID ? Optional.of(s) : Optional.empty();
+    }
+
+    private SteamID(long steamID64) {
+        this.steamID64 = steamID64;
+    }
+
+    private static long parse(String s) {
+        final int length = s.length();
+        final int path = communityPath(s);
+        if (path == -1)
+            return parseId(s, 0, length);
+
+        if (!regionMatchesIgnoreCase(s, path, length, "/profiles/"))
+            return INVALID;
+
+        final int from = path + "/profiles/".length();
+        final int to = segmentEnd(s, from);
+        return isPathEnd(s, to) ? parseId(s, from, to) : INVALID;
+    }
+
+    private static long parseId(String s, int from, int to) {
+        if (from >= to)
+            return INVALID;
+
+        if (regionMatchesIgnoreCase(s, from, to, "STEAM_"))
+            return parseSteamID(s, from + "STEAM_".length(), to);
+
+        if (s.charAt(from) == '[') {
+            if (s.charAt(to - 1) != ']')
+                return INVALID;
+            return parseSteamID3(s, from + 1, to - 1);
         }
+
+        if (regionMatchesIgnoreCase(s, from, to, "U:"))
+            return parseSteamID3(s, from, to);
+
+        if (regionMatchesIgnoreCase(s, from, to, "0x"))
+            return parseHex(s, from + 2, to);
+
+        final long id = parseDigits(s, from, to);
+        if (id == INVALID)
+            return INVALID;
+        return id >= STEAM64 ? id : id + STEAM64;
     }
 
-    private SteamID(String id) throws NumberFormatException {
-        steamID64 = steamID64(id);
+    /**
+     * {@code X:Y:Z}, where X is the universe, Y the lowest bit and Z the rest of the account ID.
+     */
+    private static long parseSteamID(String s, int from, int to) {
+        if (to - from < 5
+                || !isDigit(s.charAt(from)) || s.charAt(from) > '5'
+                || s.charAt(from + 1) != ':'
+                || (s.charAt(from + 2) != '0' && s.charAt(from + 2) != '1')
+                || s.charAt(from + 3) != ':')
+            return INVALID;
+
+        final long z = parseDigits(s, from + 4, to);
+        if (z == INVALID || z > Integer.MAX_VALUE)
+            return INVALID;
+        return z * 2 + (s.charAt(from + 2) - '0') + STEAM64;
     }
 
-    private static long steamID64(String id) throws NumberFormatException {
-        final var mp = PROFILE_URL_PATTERN.matcher(id);
-        if (mp.matches())
-            return Long.parseLong(mp.group(1));
+    /**
+     * {@code U:1:Z}, where Z is the account ID.
+     */
+    private static long parseSteamID3(String s, int from, int to) {
+        if (!regionMatchesIgnoreCase(s, from, to, "U:1:"))
+            return INVALID;
 
-        final var m = STEAM_ID_PATTERN.matcher(id);
-        if (m.matches())
-            return Long.parseLong(m.group(2)) * 2 + Integer.parseInt(m.group(1)) + STEAM64;
+        final long accountId = parseDigits(s, from + 4, to);
+        if (accountId == INVALID || accountId > 0xFFFFFFFFL)
+            return INVALID;
+        return accountId + STEAM64;
+    }
+
+    private static long parseHex(String s, int from, int to) {
+        if (to - from < 1 || to - from > 16)
+            return INVALID;
 
-        final var l = Long.parseLong(id);
-        if (l >= STEAM64)
-            return l;
-        else
-            return l + STEAM64;
+        long value = 0;
+        for (int i = from; i < to; ++i) {
+            final int digit = Character.digit(s.charAt(i), 16);
+            if (digit == -1)
+                return INVALID;
+            value = (value << 4) | digit;
+        }
+        return value >= STEAM64 ? value : INVALID;
+    }
+
+    private static long parseDigits(String s, int from, int to) {
+        if (from >= to || to - from > 19)
+            return INVALID;
+
+        long value = 0;
+        for (int i = from; i < to; ++i) {
+            final char ch = s.charAt(i);
+            if (!isDigit(ch) || value > (Long.MAX_VALUE - (ch - '0')) / 10)
+                return INVALID;
+            value = value * 10 + (ch - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return The index of the path in a Steam community URL (the {@code /} after the host), or -1 if {@code s} is
+     * not a Steam community URL. The scheme and the {@code www.} prefix are optional.
+     */
+    private static int communityPath(String s) {
+        final int length = s.length();
+        int i = 0;
+        if (regionMatchesIgnoreCase(s, i, length, "https://"))
+            i += "https://".length();
+        else if (regionMatchesIgnoreCase(s, i, length, "http://"))
+            i += "http://".length();
+
+        if (regionMatchesIgnoreCase(s, i, length, "www."))
+            i += "www.".length();
+
+        if (!regionMatchesIgnoreCase(s, i, length, COMMUNITY_HOST))
+            return -1;
+        i += COMMUNITY_HOST.length();
+
+        return i < length && s.charAt(i) == '/' ? i : -1;
+    }
+
+    private static int segmentEnd(String s, int from) {
+        int i = from;
+        while (i < s.length() && s.charAt(i) != '/' && s.charAt(i) != '?' && s.charAt(i) != '#')
+            ++i;
+        return i;
+    }
+
+    /**
+     * @return {@code true} if there is nothing but an optional slash, query or fragment from {@code i} on.
+     */
+    private static boolean isPathEnd(String s, int i) {
+        if (i < s.length() && s.charAt(i) == '/')
+            ++i;
+        return i == s.length() || s.charAt(i) == '?' || s.charAt(i) == '#';
+    }
+
+    private static boolean isVanityName(String s, int from, int to) {
+        if (to - from < 2 || to - from > MAX_VANITY_NAME_LENGTH)
+            return false;
+
+        for (int i = from; i < to; ++i) {
+            final char ch = s.charAt(i);
+            if (!isDigit(ch) && (ch < 'a' || ch > 'z') && (ch < 'A' || ch > 'Z') && ch != '_' && ch != '-')
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    private static boolean regionMatchesIgnoreCase(String s, int from, int to, String prefix) {
+        return to - from >= prefix.length() && s.regionMatches(true, from, prefix, 0, prefix.length());
     }
 
     @Override
@@ -84,6 +263,10 @@ public final class SteamID {
         return String.format("STEAM_0:%d:%d", parity, id);
     }
 
+    public String steamID3() {
+        return "[U:1:" + uid() + "]";
+    }
+
     public String netIDAsString() {
         return String.format("0x%016X", steamID64());
     }
@@ -0,0 +1,191 @@
+package cbm.server;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.StringJoiner;
+
+/**
+ * Finds the Steam community profile URLs in a text, in a single pass:
+ * <ul>
+ *     <li>{@code https://steamcommunity.com/profiles/76561198084041050}, yielding the steamID64</li>
+ *     <li>{@code https://steamcommunity.com/id/robin}, yielding the custom URL name, to be resolved with
+ *     {@link Bot#resolveVanityName}</li>
+ * </ul>
+ * The scheme and the {@code www.} prefix are optional, and the matching is case-insensitive. Nothing is allocated
+ * for a text without a match.
+ */
+public final class SteamUrlScanner {
+    private static final String HOST = "steamcommunity.com";
+    private static final String PROFILES = "/profiles/";
+    private static final String ID = "/id/";
+    private static final int MAX_DIGITS = 17;
+    private static final int MIN_VANITY_NAME_LENGTH = 2;
+    private static final int MAX_VANITY_NAME_LENGTH = 32;
+
+    private SteamUrlScanner() {
+    }
+
+    public static @NotNull List<Match> scan(@NotNull String text) {
+        List<Match> matches = List.of();
+        final int length = text.length();
+        int i = 0;
+        while (i <= length - HOST.length()) {
+            final char ch = text.charAt(i);
+            if ((ch != 's' && ch != 'S') || !text.regionMatches(true, i, HOST, 0, HOST.length())) {
+                ++i;
+                continue;
+            }
+
+            final Match match = match(text, i);
+            if (match == null) {
+                i += HOST.length();
+                continue;
+            }
+
+            if (matches.isEmpty())
+                matches = new ArrayList<>();
+            matches.add(match);
+            i = match.end;
+        }
+        return matches;
+    }
+
+    /**
+     * @param host The index of the host name in {@code text}
+     */
+    private static @Nullable Match match(String text, int host) {
+        final int start = urlStart(text, host);
+        if (start == -1)
+            return null;
+
+        final int path = host + HOST.length();
+        if (regionMatchesIgnoreCase(text, path, PROFILES)) {
+            final int from = path + PROFILES.length();
+            int to = from;
+            long value = 0;
+            while (to < text.length() && isDigit(text.charAt(to)) && to - from < MAX_DIGITS)
+                value = value * 10 + (text.charAt(to++) - '0');
+            if (to == from || !isTokenEnd(text, to))
+                return null;
+            return new Match(start, to, SteamID.steamID(value), null);
+        }
+
+        if (regionMatchesIgnoreCase(text, path, ID)) {
+            final int from = path + ID.length();
+            int to = from;
+            while (to < text.length() && isVanityNameChar(text.charAt(to)) && to - from <= MAX_VANITY_NAME_LENGTH)
+                ++to;
+            if (to - from < MIN_VANITY_NAME_LENGTH || to - from > MAX_VANITY_NAME_LENGTH || !isTokenEnd(text, to))
+                return null;
+            return new Match(start, to, null, text.substring(from, to));
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The start of the URL with the optional scheme and {@code www.} prefix, or -1 if the host name is part
+     * of a longer word, like {@code mysteamcommunity.com}
+     */
+    private static int urlStart(String text, int host) {
+        int start = host;
+        if (regionMatchesIgnoreCaseBefore(text, start, "www."))
+            start -= "www.".length();
+        if (regionMatchesIgnoreCaseBefore(text, start, "https://"))
+            start -= "https://".length();
+        else if (regionMatchesIgnoreCaseBefore(text, start, "http://"))
+            start -= "http://".length();
+
+        if (start == 0)
+            return start;
+        final char before = text.charAt(start - 1);
+        return isVanityNameChar(before) || before == '.' || before == '/' || before == '@' ? -1 : start;
+    }
+
+    /**
+     * @return {@code true} if the token ending at {@code i} is not followed by more of a word
+     */
+    private static boolean isTokenEnd(String text, int i) {
+        return i == text.length() || !isVanityNameChar(text.charAt(i));
+    }
+
+    private static boolean isVanityNameChar(char ch) {
+        return isDigit(ch) || (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '_' || ch == '-';
+    }
+
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    private static boolean regionMatchesIgnoreCase(String text, int from, String s) {
+        return text.regionMatches(true, from, s, 0, s.length());
+    }
+
+    private static boolean regionMatchesIgnoreCaseBefore(String text, int to, String s) {
+        return to >= s.length() && text.regionMatches(true, to - s.length(), s, 0, s.length());
+    }
+
+    /**
+     * A profile URL, with either a steamID64 or a custom URL name.
+     */
+    public static final class Match {
+        private final int start;
+        private final int end;
+        private final @Nullable SteamID steamID;
+        private final @Nullable String vanityName;
+
+        private Match(int start, int end, @Nullable SteamID steamID, @Nullable String vanityName) {
+            this.start = start;
+            this.end = end;
+            this.steamID = steamID;
+            this.vanityName = vanityName;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public Optional<SteamID> getSteamID() {
+            return Optional.ofNullable(steamID);
+        }
+
+        public Optional<String> getVanityName() {
+            return Optional.ofNullable(vanityName);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Match match = (Match) o;
+            return start == match.start
+                           && end == match.end
+                           && Objects.equals(steamID, match.steamID)
+                           && Objects.equals(vanityName, match.vanityName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(start, end, steamID, vanityName);
+        }
+
+        @Override
+        public String toString() {
+            return new StringJoiner(", ", Match.class.getSimpleName() + "[", "]")
+                           .add("start=" + start)
+                           .add("end=" + end)
+                           .add("steamID=" + steamID)
+                           .add("vanityName='" + vanityName + "'")
+                           .toString();
+        }
+    }
+}
@@ -1,41 +1,206 @@
 package cbm.server;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jsoup.Jsoup;
+import org.jsoup.helper.HttpConnection;
+import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Evaluator;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.FluxSink;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.UnicastProcessor;
+import reactor.netty.ByteBufMono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.HttpClientResponse;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.util.retry.Retry;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
-import static cbm.server.Utils.asyncOne;
-
+/**
+ * Non-blocking access to the Steam community pages and steamid.io.
+ * <p>
+ * Profiles and custom URLs are read from the XML form of the community pages (see {@link ProfileXml}); the HTML
+ * pages and steamid.io are only used as a fallback when that fails.
+ * <p>
+ * When a Steam Web API key is set, {@link #playerSummary} batches the lookups: requests arriving within a
+ * few milliseconds of each other are fetched together, up to {@value MAX_SUMMARIES_PER_REQUEST} at a time, with
+ * {@code ISteamUser/GetPlayerSummaries}, at most {@value MAX_CONCURRENT_SUMMARIES_REQUESTS} batches at once.
+ * <p>
+ * All requests share one connection pool (at most {@value MAX_CONNECTIONS_PER_HOST} connections per host), prefer
+ * HTTP/2, and transient failures (I/O errors, timeouts, 429 and 5xx) are retried with exponential backoff.
+ */
 public class SteamWeb {
 
     private static final Logger LOGGER = LogManager.getLogger();
 
-    private static final LoadingCache<String, Profile> PROFILES_CACHE =
-            Caffeine.newBuilder()
-                    .maximumSize(1_000)
-                    .expireAfterWrite(10, TimeUnit.MINUTES)
-                    .build(SteamWeb::downloadProfile);
+    private static final int MAX_CONNECTIONS_PER_HOST = 8;
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration RESPONSE_TIMEOUT = Duration.ofSeconds(20);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final int MAX_RETRIES = 3;
+    private static final Duration FIRST_BACKOFF = Duration.ofMillis(500);
+    private static final int MAX_SUMMARIES_PER_REQUEST = 100;
+    private static final Duration SUMMARIES_BATCH_DELAY = Duration.ofMillis(50);
+    private static final int MAX_CONCURRENT_SUMMARIES_REQUESTS = 4;
+    private static final int MAX_PENDING_SUMMARIES_BATCHES = 100;
+
+    private static final SteamWeb INSTANCE =
+            new SteamWeb(createHttpClient(), "https://steamcommunity.com", "https://steamid.io/lookup",
+                         "https://api.steampowered.com");
+
+    private final HttpClient httpClient;
+    private final String communityUrl;
+    private final String lookupUrl;
+    private final String apiUrl;
+    private final AsyncLoadingCache<String, Profile> profilesCache;
+    private final AsyncLoadingCache<String, SteamID> steamIdCache;
+    private volatile SummaryBatches summaryBatches;
+    private volatile String apiKey;
+
+    SteamWeb(@NotNull HttpClient httpClient, @NotNull String communityUrl, @NotNull String lookupUrl,
+             @NotNull String apiUrl) {
+
+        this.httpClient = httpClient;
+        this.communityUrl = communityUrl;
+        this.lookupUrl = lookupUrl;
+        this.apiUrl = apiUrl;
+        this.profilesCache =
+                Caffeine.newBuilder()
+                        .maximumSize(1_000)
+                        .expireAfterWrite(10, TimeUnit.MINUTES)
+                        .buildAsync((profileUrl, executor) -> downloadProfile(profileUrl).toFuture());
+        this.steamIdCache =
+                Caffeine.newBuilder()
+                        .maximumSize(1_000)
+                        .expireAfterWrite(10, TimeUnit.MINUTES)
+                        .buildAsync((s, executor) -> lookup(s).toFuture());
+        this.summaryBatches = new SummaryBatches();
+    }
+
+    /**
+     * Set the Steam Web API key used for {@link #playerSummary}. Without it, the profile pages are downloaded one
+     * by one instead.
+     */
+    public static void setApiKey(String apiKey) {
+        INSTANCE.configureApiKey(apiKey);
+    }
+
+    public static Mono<Profile> playerProfile(@NotNull String profileUrl) {
+        return INSTANCE.getProfile(profileUrl);
+    }
+
+    public static Mono<SteamID> resolveSteamID(@NotNull String s) {
+        return INSTANCE.getSteamID(s)
+                       .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("Cannot resolve steam ID: " + s)));
+    }
+
+    /**
+     * Same as {@link #playerProfile} for {@code steamID.profileUrl()}, but batched with other concurrent lookups.
+     */
+    public static Mono<Profile> playerSummary(@NotNull SteamID steamID) {
+        return INSTANCE.getPlayerSummary(steamID);
+    }
+
+    void configureApiKey(String apiKey) {
+        this.apiKey = apiKey;
+    }
+
+    Mono<Profile> getPlayerSummary(@NotNull SteamID steamID) {
+        return Mono.defer(() -> {
+            final String profileUrl = profileUrl(steamID);
+            final CompletableFuture<Profile> cached = profilesCache.getIfPresent(profileUrl);
+            if (apiKey == null || cached != null)
+                return getProfile(profileUrl);
+
+            return Mono.create(sink -> summaryBatches.offer(new SummaryRequest(steamID, sink)));
+        });
+    }
+
+    Mono<Profile> getProfile(@NotNull String profileUrl) {
+        return Mono.defer(() -> Mono.fromFuture(profilesCache.get(profileUrl)));
+    }
+
+    Mono<SteamID> getSteamID(@NotNull String s) {
+        return Mono.defer(() -> Mono.fromFuture(steamIdCache.get(s)));
+    }
+
+    private static HttpClient createHttpClient() {
+        final ConnectionProvider connectionProvider =
+                ConnectionProvider.builder("steam-web")
+                                  .maxConnections(MAX_CONNECTIONS_PER_HOST)
+                                  .pendingAcquireTimeout(REQUEST_TIMEOUT)
+                                  .maxIdleTime(Duration.ofSeconds(30))
+                                  .build();
 
-    private static final LoadingCache<String, SteamID> STEAM_ID_CACHE =
-            Caffeine.newBuilder()
-                    .maximumSize(1_000)
-                    .expireAfterWrite(10, TimeUnit.MINUTES)
-                    .build(s -> resolveId(s).flatMap(SteamID::steamID).orElse(null));
+        return HttpClient.create(connectionProvider)
+                         .protocol(HttpProtocol.H2, HttpProtocol.HTTP11)
+                         .secure()
+                         .tcpConfiguration(tcp -> tcp.option(ChannelOption.CONNECT_TIMEOUT_MILLIS,
+                                                             (int) CONNECT_TIMEOUT.toMillis()))
+                         .responseTimeout(RESPONSE_TIMEOUT)
+                         .followRedirect(true)
+                         .compress(true)
+                         .headers(headers -> headers.set(HttpHeaderNames.USER_AGENT, HttpConnection.DEFAULT_UA));
+    }
 
-    private static @NotNull Profile downloadProfile(@NotNull String profileUrl) throws IOException {
+    private Mono<Profile> downloadProfile(@NotNull String profileUrl) {
+        return downloadProfileXml(xmlUrl(profileUrl))
+                       .<Profile>map(xml -> new SimpleProfile(profileUrl, xml.getName(), xml.getAvatar()))
+                       .onErrorResume(t -> {
+                           LOGGER.debug("Failed to download the XML profile {}, trying HTML: {}", profileUrl,
+                                        t.toString());
+                           Metrics.increment("steamweb.fallbacks");
+                           return downloadProfileHtml(profileUrl);
+                       });
+    }
+
+    private Mono<ProfileXml> downloadProfileXml(@NotNull String url) {
+        LOGGER.debug("Downloading XML profile: {}", url);
+        return get(url)
+                       .flatMap(bytes -> Mono.fromCallable(() -> ProfileXml.parse(new ByteArrayInputStream(bytes))))
+                       .doOnNext(xml -> {
+                           if (xml.getError() != null)
+                               LOGGER.debug("No profile at {}: {}", url, xml.getError());
+                       });
+    }
+
+    private Mono<Profile> downloadProfileHtml(@NotNull String profileUrl) {
         LOGGER.debug("Downloading profile: {}", profileUrl);
-        final var doc = Jsoup.connect(profileUrl).get();
+        return get(profileUrl)
+                       .map(bytes -> parseProfile(profileUrl, Jsoup.parse(new String(bytes, StandardCharsets.UTF_8),
+                                                                          profileUrl)));
+    }
+
+    private static @NotNull Profile parseProfile(@NotNull String profileUrl, @NotNull Document doc) {
         final var name =
                 doc.select(".actual_persona_name").stream()
                    .map(Element::text)
@@ -48,30 +213,103 @@ public class SteamWeb {
                    .findFirst()
                    .orElse(null);
 
-        return new Profile() {
-            @Override
-            public String getUrl() {
-                return profileUrl;
-            }
+        return new SimpleProfile(profileUrl, name, avatar);
+    }
 
-            @Override
-            public String getName() {
-                return name;
-            }
+    private Mono<SteamID> lookup(@NotNull String s) {
+        final Optional<String> vanityName = SteamID.vanityName(s);
+        if (vanityName.isEmpty())
+            return lookupSteamIdIo(s);
 
-            @Override
-            public String getAvatar() {
-                return avatar;
-            }
-        };
+        return downloadProfileXml(communityUrl + "/id/" + vanityName.get() + "/?xml=1")
+                       .flatMap(xml -> Mono.justOrEmpty(xml.getSteamID64()))
+                       .flatMap(id -> Mono.justOrEmpty(SteamID.steamID(id)))
+                       .onErrorResume(t -> {
+                           LOGGER.debug("Failed to resolve {} from the XML profile, trying steamid.io: {}", s,
+                                        t.toString());
+                           Metrics.increment("steamweb.fallbacks");
+                           return lookupSteamIdIo(s);
+                       });
     }
 
-    private static Optional<String> resolveId(@NotNull String s) throws IOException {
+    private Mono<SteamID> lookupSteamIdIo(@NotNull String s) {
         LOGGER.debug("Resolving: {}", s);
-        final var doc = Jsoup.connect("https://steamid.io/lookup")
-                             .data("input", s)
-                             .post();
+        return withRetry(httpClient.post()
+                                   .uri(lookupUrl)
+                                   .sendForm((request, form) -> form.attr("input", s))
+                                   .responseSingle(SteamWeb::body), lookupUrl)
+                       .flatMap(bytes -> Mono.justOrEmpty(parseSteamID64(
+                               Jsoup.parse(new String(bytes, StandardCharsets.UTF_8), lookupUrl))))
+                       .flatMap(id -> Mono.justOrEmpty(SteamID.steamID(id)));
+    }
+
+    private Mono<Void> fetchSummaries(@NotNull List<SummaryRequest> batch) {
+        final String steamIDs = batch.stream()
+                                     .map(request -> request.steamID.s64())
+                                     .distinct()
+                                     .collect(Collectors.joining(","));
+
+        Metrics.increment("steamweb.summaries.batches");
+        Metrics.add("steamweb.summaries.players", batch.size());
+        LOGGER.debug("Fetching {} player summaries", batch.size());
 
+        return get(apiUrl + "/ISteamUser/GetPlayerSummaries/v2/?key=" + apiKey + "&steamids=" + steamIDs)
+                       .map(SteamWeb::parseSummaries)
+                       .doOnNext(summaries -> batch.forEach(request -> {
+                           final Profile profile = summaries.get(request.steamID.s64());
+                           if (profile != null) {
+                               profilesCache.put(profileUrl(request.steamID),
+                                                 CompletableFuture.completedFuture(profile));
+                               request.sink.success(profile);
+                           } else {
+                               request.sink.success();
+                           }
+                       }))
+                       .onErrorResume(t -> {
+                           LOGGER.warn("Failed to get the player summaries, downloading the profiles instead: {}",
+                                       t.toString());
+                           Metrics.increment("steamweb.fallbacks");
+                           batch.forEach(request -> getProfile(profileUrl(request.steamID))
+                                                            .subscribe(request.sink::success,
+                                                                       request.sink::error,
+                                                                       request.sink::success));
+                           return Mono.empty();
+                       })
+                       .then();
+    }
+
+    /**
+     * Parse a {@code GetPlayerSummaries} response:
+     * <pre>
+     *     {"response":{"players":[{"steamid":"76561198084041050","personaname":"name","avatarfull":"url",...}]}}
+     * </pre>
+     *
+     * @return The profiles by steamID64
+     */
+    private static Map<String, Profile> parseSummaries(byte[] bytes) {
+        final JsonArray players = JsonParser.parseString(new String(bytes, StandardCharsets.UTF_8))
+                                            .getAsJsonObject()
+                                            .getAsJsonObject("response")
+                                            .getAsJsonArray("players");
+
+        final Map<String, Profile> summaries = new HashMap<>();
+        for (JsonElement element : players) {
+            final JsonObject player = element.getAsJsonObject();
+            SteamID.steamID(player.get("steamid").getAsString())
+                   .ifPresent(steamID -> summaries.put(steamID.s64(),
+                                                       new SimpleProfile(steamID.profileUrl(),
+                                                                         getString(player, "personaname"),
+                                                                         getString(player, "avatarfull"))));
+        }
+        return summaries;
+    }
+
+    private static String getString(JsonObject object, String member) {
+        final JsonElement element = object.get(member);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+
+    private static Optional<String> parseSteamID64(@NotNull Document doc) {
         final var element = doc.selectFirst(new Evaluator() {
 
             final AtomicBoolean next = new AtomicBoolean(false);
@@ -87,14 +325,135 @@ public class SteamWeb {
                        .map(Element::text);
     }
 
-    public static Mono<Profile> playerProfile(@NotNull String profileUrl) {
-        return asyncOne(() -> PROFILES_CACHE.get(profileUrl));
+    private String profileUrl(@NotNull SteamID steamID) {
+        return communityUrl + "/profiles/" + steamID.s64() + "/";
     }
 
-    public static Mono<SteamID> resolveSteamID(@NotNull String s) {
-        return asyncOne(() -> Optional.ofNullable(STEAM_ID_CACHE.get(s))
-                                      .orElseThrow(() -> new IllegalArgumentException("Cannot resolve steam ID: "
-                                                                                              + s)));
+    private static String xmlUrl(@NotNull String url) {
+        return url + (url.indexOf('?') == -1 ? "?" : "&") + "xml=1";
+    }
+
+    private Mono<byte[]> get(@NotNull String url) {
+        return withRetry(httpClient.get()
+                                   .uri(url)
+                                   .responseSingle(SteamWeb::body), withoutQuery(url));
+    }
+
+    /**
+     * URLs are logged without the query, so that the API key is never logged.
+     */
+    private static String withoutQuery(@NotNull String url) {
+        final int query = url.indexOf('?');
+        return query == -1 ? url : url.substring(0, query);
+    }
+
+    private static Mono<byte[]> body(HttpClientResponse response, ByteBufMono body) {
+        final HttpResponseStatus status = response.status();
+        if (status.code() >= 200 && status.code() < 300)
+            return body.asByteArray()
+                       .defaultIfEmpty(new byte[0]);
+
+        return body.asByteArray()
+                   .then(Mono.error(new HttpStatusException(status.code(), withoutQuery(response.resourceUrl()))));
+    }
+
+    private static <T> Mono<T> withRetry(Mono<T> request, String url) {
+        return request.doOnSubscribe(subscription -> Metrics.increment("steamweb.requests"))
+                      .timeout(REQUEST_TIMEOUT)
+                      .retryWhen(Retry.backoff(MAX_RETRIES, FIRST_BACKOFF)
+                                      .filter(SteamWeb::isTransient)
+                                      .doBeforeRetry(signal -> {
+                                          Metrics.increment("steamweb.retries");
+                                          LOGGER.debug("Retrying {} after: {}", url, signal.failure().toString());
+                                      })
+                                      .onRetryExhaustedThrow((spec, signal) -> signal.failure()))
+                      .doOnError(t -> Metrics.increment("steamweb.errors"));
+    }
+
+    private static boolean isTransient(Throwable t) {
+        if (t instanceof HttpStatusException) {
+            final int status = ((HttpStatusException) t).getStatusCode();
+            return status == 429 || status >= 500;
+        }
+        return t instanceof IOException
+                       || t instanceof TimeoutException
+                       || t instanceof io.netty.handler.timeout.TimeoutException;
+    }
+
+    public static class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int statusCode;
+
+        public HttpStatusException(int statusCode, String url) {
+            super("HTTP " + statusCode + ": " + url);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    /**
+     * The pipeline batching the summary requests. The batches wait in a bounded buffer while
+     * {@value MAX_CONCURRENT_SUMMARIES_REQUESTS} requests are in flight: a batch that doesn't fit fails its requests.
+     * If the pipeline fails, its pending requests fail too, and a new pipeline takes over.
+     */
+    private final class SummaryBatches {
+        private final FluxSink<SummaryRequest> requests;
+        private final Set<SummaryRequest> pending = ConcurrentHashMap.newKeySet();
+        private Throwable failure;
+
+        SummaryBatches() {
+            final UnicastProcessor<SummaryRequest> processor = UnicastProcessor.create();
+            this.requests = processor.sink();
+            processor.bufferTimeout(MAX_SUMMARIES_PER_REQUEST, SUMMARIES_BATCH_DELAY)
+                     .onBackpressureBuffer(MAX_PENDING_SUMMARIES_BATCHES, this::overflow,
+                                           BufferOverflowStrategy.DROP_LATEST)
+                     .flatMap(batch -> fetchSummaries(batch).doFinally(signal -> pending.removeAll(batch)),
+                              MAX_CONCURRENT_SUMMARIES_REQUESTS)
+                     .subscribe(null, this::fail);
+        }
+
+        synchronized void offer(SummaryRequest request) {
+            if (failure != null) {
+                request.sink.error(failure);
+                return;
+            }
+            pending.add(request);
+            requests.next(request);
+        }
+
+        private void overflow(List<SummaryRequest> batch) {
+            LOGGER.warn("Too many pending player summaries, dropping {} of them", batch.size());
+            Metrics.increment("steamweb.summaries.dropped");
+            final Exception e = new IllegalStateException("Too many pending player summaries");
+            for (SummaryRequest request : batch) {
+                pending.remove(request);
+                request.sink.error(e);
+            }
+        }
+
+        private void fail(Throwable t) {
+            LOGGER.error("Player summaries failed, restarting them", t);
+            summaryBatches = new SummaryBatches();
+            synchronized (this) {
+                failure = t;
+            }
+            pending.forEach(request -> request.sink.error(t));
+            pending.clear();
+        }
+    }
+
+    private static class SummaryRequest {
+        final SteamID steamID;
+        final MonoSink<Profile> sink;
+
+        SummaryRequest(SteamID steamID, MonoSink<Profile> sink) {
+            this.steamID = steamID;
+            this.sink = sink;
+        }
     }
 
     @SuppressWarnings("unused")
@@ -105,4 +464,31 @@ public class SteamWeb {
 
         String getAvatar();
     }
+
+    private static class SimpleProfile implements Profile {
+        private final String url;
+        private final String name;
+        private final String avatar;
+
+        SimpleProfile(String url, String name, String avatar) {
+            this.url = url;
+            this.name = name;
+            this.avatar = avatar;
+        }
+
+        @Override
+        public String getUrl() {
+            return url;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getAvatar() {
+            return avatar;
+        }
+    }
 }
@@ -0,0 +1,50 @@
+package cbm.server;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket, which holds up to {@code capacity} tokens and gets a new token every {@code refillPeriod}.
+ * <p>
+ * {@link #reserve()} always takes a token, even if the bucket is empty, and returns how long the caller has to
+ * wait before using it, so reservations are served in order.
+ */
+public class TokenBucket {
+    private final int capacity;
+    private final long refillNanos;
+    private final LongSupplier nanoClock;
+    private long tokensNanos;
+    private long lastRefill;
+
+    public TokenBucket(int capacity, @NotNull Duration refillPeriod) {
+        this(capacity, refillPeriod, System::nanoTime);
+    }
+
+    TokenBucket(int capacity, @NotNull Duration refillPeriod, @NotNull LongSupplier nanoClock) {
+        if (capacity < 1 || refillPeriod.isZero() || refillPeriod.isNegative())
+            throw new IllegalArgumentException("Invalid token bucket: " + capacity + " per " + refillPeriod);
+
+        this.capacity = capacity;
+        this.refillNanos = refillPeriod.toNanos();
+        this.nanoClock = nanoClock;
+        this.tokensNanos = capacity * refillNanos;
+        this.lastRefill = nanoClock.getAsLong();
+    }
+
+    /**
+     * Take a token.
+     *
+     * @return The delay until the token may be used; {@link Duration#ZERO} if it may be used right away
+     */
+    public synchronized @NotNull Duration reserve() {
+        final long now = nanoClock.getAsLong();
+        // The tokens are counted in nanoseconds of refill time, so that partial tokens aren't lost
+        tokensNanos = Math.min(capacity * refillNanos, tokensNanos + (now - lastRefill));
+        lastRefill = now;
+
+        tokensNanos -= refillNanos;
+        return tokensNanos >= 0 ? Duration.ZERO : Duration.ofNanos(-tokensNanos);
+    }
+}
@@ -7,6 +7,7 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
+import java.time.DateTimeException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.EnumSet;
@@ -68,4 +69,44 @@ public class Utils {
             return -1;
         return duration1.compareTo(duration2);
     }
+
+    /**
+     * Compute the epoch second of the given UTC date and time, without going through {@link java.time} objects.
+     * The fields are validated the same way {@link java.time.LocalDateTime#of(int, int, int, int, int, int)} does.
+     *
+     * @throws DateTimeException if any of the fields is out of range
+     */
+    public static long epochSecond(int year, int month, int day, int hour, int minute, int second) {
+        if (month < 1 || month > 12)
+            throw new DateTimeException("Invalid month: " + month);
+        if (day < 1 || day > lengthOfMonth(year, month))
+            throw new DateTimeException("Invalid date: " + year + "-" + month + "-" + day);
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59)
+            throw new DateTimeException("Invalid time: " + hour + ":" + minute + ":" + second);
+
+        // Days from civil, see http://howardhinnant.github.io/date_algorithms.html#days_from_civil
+        final long y = month <= 2 ? year - 1 : year;
+        final long era = Math.floorDiv(y, 400);
+        final long yoe = y - era * 400;
+        final long doy = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        final long epochDay = era * 146097 + doe - 719468;
+
+        return epochDay * 86400 + hour * 3600L + minute * 60L + second;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                final boolean leap = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
 }
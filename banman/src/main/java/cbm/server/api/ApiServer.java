@@ -0,0 +1,254 @@
+package cbm.server.api;
+
+import cbm.server.Metrics;
+import cbm.server.SteamID;
+import cbm.server.db.BansDatabase;
+import cbm.server.model.Ban;
+import cbm.server.model.OfflineBan;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A read-only HTTP API over the bans, for the web dashboard and the server tools:
+ * <ul>
+ *     <li>{@code GET /api/bans}: all the current bans and offline bans</li>
+ *     <li>{@code GET /api/bans?since=<instant>}: the bans added and removed after an update time, as returned in
+ *     {@code lastUpdate}</li>
+ *     <li>{@code GET /api/bans/<player ID>}: whether a player is banned</li>
+ *     <li>{@code GET /api/history/<Steam ID>}: the ban log of a player</li>
+ * </ul>
+ * The bans are answered from an in-memory {@link BansView view}, reloaded when the database changes. Their responses
+ * have an ETag, which only changes when the bans change, so a client polling with {@code If-None-Match} mostly gets
+ * empty {@code 304 Not Modified} responses. The {@code lastUpdate} of a response it has already is older then, and
+ * still valid as {@code since}.
+ */
+public class ApiServer implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String BANS = "/api/bans";
+    private static final String HISTORY = "/api/history/";
+
+    private final BansDatabase bansDatabase;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(4, runnable -> {
+        final Thread thread = new Thread(runnable, "api");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile BansView view;
+
+    public ApiServer(@NotNull InetSocketAddress address, @NotNull BansDatabase bansDatabase) throws IOException {
+        this.bansDatabase = bansDatabase;
+        this.view = BansView.load(bansDatabase);
+        bansDatabase.addChangeListener(this::reload);
+
+        this.server = HttpServer.create(address, 0);
+        server.createContext(BANS, exchange -> handle(exchange, this::bans));
+        server.createContext(HISTORY, exchange -> handle(exchange, this::history));
+        server.setExecutor(executor);
+        server.start();
+        LOGGER.info("API listening on {}", server.getAddress());
+    }
+
+    public @NotNull InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private void reload() {
+        view = BansView.load(bansDatabase);
+    }
+
+    private void bans(HttpExchange exchange) throws IOException {
+        final BansView view = this.view;
+        final URI uri = exchange.getRequestURI();
+        final String path = uri.getPath();
+        if (path.equals(BANS) || path.equals(BANS + "/")) {
+            final String since = getParameter(uri, "since");
+            if (since == null)
+                send(exchange, 200, view.getEtag(), view.getJson());
+            else
+                changes(exchange, view, since);
+            return;
+        }
+
+        if (!path.startsWith(BANS + "/")) {
+            sendError(exchange, 404, "Not found: " + path);
+            return;
+        }
+
+        final String playerId = path.substring(BANS.length() + 1);
+        final Ban ban = view.getCurrentBan(playerId);
+        final OfflineBan offlineBan = view.getOfflineBan(playerId);
+        final JsonObject status = new JsonObject();
+        status.addProperty("id", playerId);
+        status.addProperty("banned", ban != null && ban.getBannedUntil().isAfter(Instant.now()));
+        status.add("ban", ban == null ? null : Json.toJson(ban));
+        status.add("offlineBan", offlineBan == null ? null : Json.toJson(offlineBan));
+        // Whether the ban is over depends on the time too: no ETag
+        send(exchange, 200, null, status);
+    }
+
+    private void changes(HttpExchange exchange, BansView view, String since) throws IOException {
+        final Instant from;
+        try {
+            from = parseInstant(since);
+        } catch (DateTimeParseException | NumberFormatException e) {
+            sendError(exchange, 400, "Invalid since: " + since);
+            return;
+        }
+        if (isNotModified(exchange, view.getEtag())) {
+            send(exchange, 304, view.getEtag(), (byte[]) null);
+            return;
+        }
+
+        // The update times are in seconds: the changes of the update at 'since' were already returned
+        final Instant lastUpdate = view.getLastUpdate();
+        final JsonArray changes = new JsonArray();
+        if (lastUpdate != null)
+            bansDatabase.getBanHistorySync(from.truncatedTo(ChronoUnit.SECONDS).plusSeconds(1),
+                                           lastUpdate.plusSeconds(1))
+                        .stream()
+                        .filter(entry -> !"provisional".equals(entry.getAction()))
+                        .forEach(entry -> changes.add(Json.toJson(entry)));
+
+        final JsonObject response = new JsonObject();
+        response.addProperty("lastUpdate", Json.toString(lastUpdate));
+        response.add("changes", changes);
+        send(exchange, 200, view.getEtag(), response);
+    }
+
+    private void history(HttpExchange exchange) throws IOException {
+        final String id = exchange.getRequestURI().getPath().substring(HISTORY.length());
+        final Optional<SteamID> steamID = SteamID.steamID(id);
+        if (steamID.isEmpty()) {
+            sendError(exchange, 404, "Unknown Steam ID: " + id);
+            return;
+        }
+
+        // Provisional entries are added at any time: no ETag
+        final JsonArray entries = new JsonArray();
+        bansDatabase.getBanHistorySync(steamID.get()).forEach(entry -> entries.add(Json.toJson(entry)));
+        final JsonObject response = new JsonObject();
+        response.addProperty("id", steamID.get().s64());
+        response.add("history", entries);
+        send(exchange, 200, null, response);
+    }
+
+    private static void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try {
+            Metrics.increment("api.requests");
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                sendError(exchange, 405, "Only GET is supported");
+                return;
+            }
+            handler.handle(exchange);
+        } catch (Exception e) {
+            LOGGER.warn("Failed to answer {}", exchange.getRequestURI(), e);
+            Metrics.increment("api.errors");
+            // Unless the response has started already
+            if (exchange.getResponseCode() == -1)
+                sendError(exchange, 500, "Internal error");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static Instant parseInstant(String s) {
+        return s.chars().allMatch(Character::isDigit) ? Instant.ofEpochSecond(Long.parseLong(s)) : Instant.parse(s);
+    }
+
+    private static @Nullable String getParameter(URI uri, String name) {
+        final String query = uri.getQuery();
+        if (query == null)
+            return null;
+
+        for (String parameter : query.split("&")) {
+            final int equals = parameter.indexOf('=');
+            if (equals > 0 && parameter.substring(0, equals).equals(name))
+                return parameter.substring(equals + 1);
+        }
+        return null;
+    }
+
+    private static boolean isNotModified(HttpExchange exchange, String etag) {
+        final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null)
+            return false;
+
+        for (String tag : ifNoneMatch.split(",")) {
+            final String trimmed = tag.strip();
+            if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag))
+                return true;
+        }
+        return false;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        final JsonObject error = new JsonObject();
+        error.addProperty("error", message);
+        send(exchange, status, null, error);
+    }
+
+    private static void send(HttpExchange exchange, int status, @Nullable String etag, JsonObject json)
+            throws IOException {
+
+        send(exchange, status, etag, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Send a response, or {@code 304 Not Modified} if the client has it already.
+     *
+     * @param body The body, {@code null} for none
+     */
+    private static void send(HttpExchange exchange, int status, @Nullable String etag, byte[] body)
+            throws IOException {
+
+        if (etag != null) {
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        }
+        if (status == 304 || etag != null && status == 200 && isNotModified(exchange, etag)) {
+            Metrics.increment("api.not-modified");
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdownNow();
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+}
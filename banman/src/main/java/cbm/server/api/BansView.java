@@ -0,0 +1,110 @@
+package cbm.server.api;
+
+import cbm.server.db.BansDatabase;
+import cbm.server.model.Ban;
+import cbm.server.model.OfflineBan;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable copy of the current bans and the offline bans, indexed by player ID, for the lookups of the API. The
+ * list of all the bans is serialized once, when the view is loaded.
+ */
+class BansView {
+    private final @Nullable Instant lastUpdate;
+    private final Map<String, Ban> currentBans;
+    private final Map<String, OfflineBan> offlineBans;
+    private final String etag;
+    private final byte[] json;
+
+    private BansView(@Nullable Instant lastUpdate, List<Ban> currentBans, List<OfflineBan> offlineBans) {
+        this.lastUpdate = lastUpdate;
+        this.currentBans = new HashMap<>();
+        for (Ban ban : currentBans)
+            this.currentBans.put(ban.getId(), ban);
+        this.offlineBans = new HashMap<>();
+        for (OfflineBan offlineBan : offlineBans)
+            this.offlineBans.put(offlineBan.getId(), offlineBan);
+
+        final JsonArray bans = new JsonArray();
+        this.currentBans.values()
+                        .stream()
+                        .sorted(Comparator.comparing(Ban::getId))
+                        .forEach(ban -> bans.add(Json.toJson(ban)));
+        final JsonArray offline = new JsonArray();
+        this.offlineBans.values()
+                        .stream()
+                        .sorted(Comparator.comparing(OfflineBan::getId))
+                        .forEach(offlineBan -> offline.add(Json.toJson(offlineBan)));
+
+        // Most updates don't change the bans: the tag is a digest of the bans, not of the update time
+        this.etag = "\"" + digest(bans, offline) + "\"";
+
+        final JsonObject root = new JsonObject();
+        root.addProperty("lastUpdate", Json.toString(lastUpdate));
+        root.add("bans", bans);
+        root.add("offlineBans", offline);
+        this.json = root.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String digest(JsonArray bans, JsonArray offlineBans) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(bans.toString().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(offlineBans.toString().getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest.digest(), 12));
+    }
+
+    static @NotNull BansView load(@NotNull BansDatabase bansDatabase) {
+        return new BansView(bansDatabase.getLastUpdateSync(), bansDatabase.getCurrentBansSync(),
+                            bansDatabase.getOfflineBansSync());
+    }
+
+    /**
+     * @return The time of the last update of the current bans, or {@code null} if they were never updated
+     */
+    @Nullable Instant getLastUpdate() {
+        return lastUpdate;
+    }
+
+    /**
+     * @return The entity tag of the view, which changes with the current bans and the offline bans, but not with
+     * the update time
+     */
+    @NotNull String getEtag() {
+        return etag;
+    }
+
+    @Nullable Ban getCurrentBan(@NotNull String playerId) {
+        return currentBans.get(playerId);
+    }
+
+    @Nullable OfflineBan getOfflineBan(@NotNull String playerId) {
+        return offlineBans.get(playerId);
+    }
+
+    /**
+     * @return All the bans, as a JSON object in UTF-8
+     */
+    byte[] getJson() {
+        return json;
+    }
+}
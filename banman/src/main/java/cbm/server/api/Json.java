@@ -0,0 +1,58 @@
+package cbm.server.api;
+
+import cbm.server.db.BansDatabase;
+import cbm.server.model.Ban;
+import cbm.server.model.OfflineBan;
+import com.google.gson.JsonObject;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * The JSON representations of the API.
+ */
+final class Json {
+
+    private Json() {
+    }
+
+    static @NotNull JsonObject toJson(@NotNull Ban ban) {
+        final JsonObject object = new JsonObject();
+        object.addProperty("id", ban.getId());
+        object.addProperty("playerName", ban.getPlayerName());
+        object.addProperty("reason", ban.getReason());
+        object.addProperty("enactedTime", toString(ban.getEnactedTime()));
+        object.addProperty("durationSeconds", toSeconds(ban.getDuration()));
+        final Instant bannedUntil = ban.getBannedUntil();
+        object.addProperty("bannedUntil", Instant.MAX.equals(bannedUntil) ? null : bannedUntil.toString());
+        return object;
+    }
+
+    static @NotNull JsonObject toJson(@NotNull OfflineBan offlineBan) {
+        final JsonObject object = new JsonObject();
+        object.addProperty("id", offlineBan.getId());
+        object.addProperty("playerName", offlineBan.getPlayerName());
+        object.addProperty("reason", offlineBan.getReason());
+        object.addProperty("enactedTime", toString(offlineBan.getEnactedTime()));
+        object.addProperty("durationSeconds", toSeconds(offlineBan.getDuration()));
+        return object;
+    }
+
+    static @NotNull JsonObject toJson(@NotNull BansDatabase.BanLogEntry entry) {
+        final JsonObject object = new JsonObject();
+        object.addProperty("detectedAt", entry.getDetectedAt().toString());
+        object.addProperty("action", entry.getAction());
+        object.add("ban", toJson(entry.getBan()));
+        return object;
+    }
+
+    static @Nullable String toString(@Nullable Instant instant) {
+        return instant == null ? null : instant.toString();
+    }
+
+    private static @Nullable Long toSeconds(@Nullable Duration duration) {
+        return duration == null ? null : duration.toSeconds();
+    }
+}
@@ -0,0 +1,110 @@
+package cbm.server.bot;
+
+import cbm.server.Metrics;
+import cbm.server.TokenBucket;
+import discord4j.common.util.Snowflake;
+import discord4j.core.object.entity.Message;
+import discord4j.core.object.entity.channel.MessageChannel;
+import discord4j.core.spec.EmbedCreateSpec;
+import discord4j.discordjson.json.EmbedAuthorData;
+import discord4j.discordjson.json.EmbedData;
+import discord4j.discordjson.json.EmbedFieldData;
+import discord4j.discordjson.json.EmbedFooterData;
+import discord4j.discordjson.possible.Possible;
+import org.jetbrains.annotations.NotNull;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Sends embeds packed into as few messages as possible: up to {@value MAX_EMBEDS_PER_MESSAGE} embeds per message,
+ * with at most {@value MAX_EMBED_CHARACTERS} characters in total. The messages are sent one after another, in the
+ * order of the embeds, and each channel is limited to {@value MESSAGES_PER_PERIOD} messages per
+ * {@value PERIOD_SECONDS} seconds.
+ */
+public final class EmbedSender {
+    public static final int MAX_EMBEDS_PER_MESSAGE = 10;
+    public static final int MAX_EMBED_CHARACTERS = 6000;
+    private static final int MESSAGES_PER_PERIOD = 5;
+    private static final int PERIOD_SECONDS = 5;
+
+    private static final Map<Snowflake, TokenBucket> CHANNEL_BUCKETS = new ConcurrentHashMap<>();
+
+    private EmbedSender() {
+    }
+
+    public static @NotNull Flux<Message> send(@NotNull MessageChannel channel,
+                                              @NotNull Flux<Consumer<EmbedCreateSpec>> embeds) {
+
+        return pack(embeds, EmbedSender::length)
+                       .concatMap(batch -> Mono.defer(() -> Mono.delay(reserve(channel.getId())))
+                                               .then(channel.createMessage(spec -> batch.forEach(spec::addEmbed)))
+                                               .doOnNext(message -> {
+                                                   Metrics.increment("discord.messages");
+                                                   Metrics.add("discord.embeds", batch.size());
+                                               }));
+    }
+
+    /**
+     * Split {@code embeds} into groups that fit into a message, keeping the order.
+     */
+    static <T> Flux<List<T>> pack(@NotNull Flux<T> embeds, @NotNull ToIntFunction<? super T> length) {
+        return Flux.defer(() -> {
+            final int[] count = {0};
+            final int[] characters = {0};
+            return embeds.bufferUntil(embed -> {
+                final int embedLength = length.applyAsInt(embed);
+                final boolean full = count[0] == MAX_EMBEDS_PER_MESSAGE
+                                             || characters[0] + embedLength > MAX_EMBED_CHARACTERS;
+                if (count[0] > 0 && full) {
+                    count[0] = 1;
+                    characters[0] = embedLength;
+                    return true;
+                }
+
+                ++count[0];
+                characters[0] += embedLength;
+                return false;
+            }, true);
+        });
+    }
+
+    /**
+     * The number of characters Discord counts against the embed limit: the title, description, field names and
+     * values, footer text, and author name.
+     */
+    static int length(@NotNull Consumer<EmbedCreateSpec> embed) {
+        final EmbedCreateSpec spec = new EmbedCreateSpec();
+        embed.accept(spec);
+        final EmbedData data = spec.asRequest();
+
+        int length = length(data.title()) + length(data.description());
+        length += data.footer().toOptional().map(EmbedFooterData::text).map(String::length).orElse(0);
+        length += data.author().toOptional().map(EmbedAuthorData::name).map(EmbedSender::length).orElse(0);
+        for (EmbedFieldData field : data.fields().toOptional().orElse(List.of()))
+            length += field.name().length() + field.value().length();
+        return length;
+    }
+
+    private static int length(Possible<String> s) {
+        return s.toOptional().map(String::length).orElse(0);
+    }
+
+    private static Duration reserve(Snowflake channelId) {
+        final Duration delay =
+                CHANNEL_BUCKETS.computeIfAbsent(channelId,
+                                                id -> new TokenBucket(MESSAGES_PER_PERIOD,
+                                                                      Duration.ofSeconds(PERIOD_SECONDS)
+                                                                              .dividedBy(MESSAGES_PER_PERIOD)))
+                               .reserve();
+        if (!delay.isZero())
+            Metrics.increment("discord.messages.delayed");
+        return delay;
+    }
+}
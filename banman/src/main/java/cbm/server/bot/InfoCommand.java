@@ -1,17 +1,17 @@
 package cbm.server.bot;
 
 import cbm.server.Bot;
+import cbm.server.ChannelWatcher;
 import cbm.server.Utils;
 import cbm.server.db.BansDatabase;
 import cbm.server.db.BansDatabase.BanLogEntry;
 import cbm.server.model.Ban;
 import cbm.server.model.Mention;
+import cbm.server.model.MentionMetadata;
 import cbm.server.model.OfflineBan;
-import discord4j.common.util.Snowflake;
-import discord4j.core.object.entity.Member;
 import discord4j.core.object.entity.Message;
 import discord4j.core.object.entity.channel.MessageChannel;
-import discord4j.core.object.entity.channel.TextChannel;
+import discord4j.core.spec.EmbedCreateSpec;
 import discord4j.rest.util.Color;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -31,6 +31,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Command(name = "info", header = "List player bans and mentions in the watch-list channels",
         synopsisHeading = "%nUsage: ",
@@ -64,13 +65,13 @@ public class InfoCommand implements BotCommand {
                       .flatMapMany(ch -> Bot.resolveSteamID(idOrUrl)
                                             .flatMapMany(steamID -> {
                                                 final var banHistory =
-                                                        bansDatabase.getBanHistory(steamID)
-                                                                    .buffer(2)
-                                                                    .map(this::combine);
+                                                        pairBanHistory(bansDatabase.getBanHistory(steamID))
+                                                                .map(this::combine);
 
                                                 final var mentions =
                                                         bansDatabase.findMentions(steamID)
-                                                                    .map(MentionInfo::new);
+                                                                    .map(mention -> new MentionInfo(mention,
+                                                                                                    bansDatabase));
 
                                                 final var offlineBans =
                                                         bansDatabase.getOfflineBans()
@@ -78,16 +79,29 @@ public class InfoCommand implements BotCommand {
                                                                                                 steamID.s64()))
                                                                     .map(OfflineBanInfo::new);
 
-                                                return Flux.merge(banHistory, mentions, offlineBans)
-                                                           .sort()
-                                                           .doOnNext(info -> LOGGER.debug("message: {} - {}",
-                                                                                          info.sortBy(),
-                                                                                          info.getClass()))
-                                                           .flatMap(e -> e.toMessage(ch))
-                                                           .switchIfEmpty(ch.createMessage("No bans or mentions"));
+                                                final var embeds =
+                                                        Flux.merge(banHistory, mentions, offlineBans)
+                                                            .sort()
+                                                            .doOnNext(info -> LOGGER.debug("message: {} - {}",
+                                                                                           info.sortBy(),
+                                                                                           info.getClass()))
+                                                            .flatMapSequential(info -> info.toEmbed(ch));
+
+                                                final var noResults = ch.createMessage("No bans or mentions");
+                                                return EmbedSender.send(ch, embeds)
+                                                                  .switchIfEmpty(noResults);
                                             }));
     }
 
+    /**
+     * Pair the additions of the bans with their removals. The provisional entries are left out: they are not
+     * removed, and the confirmed ones are followed by the addition of the same ban.
+     */
+    static Flux<List<BanLogEntry>> pairBanHistory(Flux<BanLogEntry> banHistory) {
+        return banHistory.filter(entry -> !entry.getAction().equals("provisional"))
+                         .buffer(2);
+    }
+
     private Info combine(List<BanLogEntry> banLogEntries) {
         assert banLogEntries.size() == 1 || banLogEntries.size() == 2;
         final BanLogEntry start = banLogEntries.get(0);
@@ -113,7 +127,7 @@ public class InfoCommand implements BotCommand {
     private interface Info extends Comparable<Info> {
         @NotNull Instant sortBy();
 
-        Mono<Message> toMessage(MessageChannel channel);
+        Mono<Consumer<EmbedCreateSpec>> toEmbed(MessageChannel channel);
 
         @Override
         default int compareTo(@NotNull Info o) {
@@ -150,8 +164,8 @@ public class InfoCommand implements BotCommand {
         }
 
         @Override
-        public Mono<Message> toMessage(MessageChannel channel) {
-            return channel.createEmbed(spec -> {
+        public Mono<Consumer<EmbedCreateSpec>> toEmbed(MessageChannel channel) {
+            return Mono.just(spec -> {
                 if (playerName != null)
                     spec.addField("Name", playerName, true);
 
@@ -188,9 +202,11 @@ public class InfoCommand implements BotCommand {
     private static class MentionInfo implements Info {
 
         private final @NotNull Mention mention;
+        private final @NotNull BansDatabase bansDatabase;
 
-        private MentionInfo(@NotNull Mention mention) {
+        private MentionInfo(@NotNull Mention mention, @NotNull BansDatabase bansDatabase) {
             this.mention = mention;
+            this.bansDatabase = bansDatabase;
         }
 
         @Override
@@ -199,41 +215,24 @@ public class InfoCommand implements BotCommand {
         }
 
         @Override
-        public Mono<Message> toMessage(MessageChannel channel) {
-            final Snowflake guildId = mention.getGuildId();
-            return channel.getClient()
-                          .getGuildById(guildId)
-                          .flatMap(guild -> guild.getChannelById(mention.getChannelId()))
-                          .filter(TextChannel.class::isInstance)
-                          .cast(TextChannel.class)
-                          .flatMap(ch -> message(channel, mention, ch));
-        }
-
-        @NotNull
-        private Mono<Message> message(MessageChannel channel, Mention mention, TextChannel mentionChannel) {
-            return mentionChannel.getMessageById(mention.getMessageId())
-                                 .flatMap(Message::getAuthorAsMember)
-                                 .flatMap(author -> author.getColor()
-                                                          .flatMap(color -> message(channel, mention, mentionChannel,
-                                                                                    author, color)));
-        }
-
-        private Mono<Message> message(MessageChannel channel, Mention mention, TextChannel mentionChannel,
-                                      Member author, Color color) {
-
-            return channel.createEmbed(e -> e.setColor(color)
-                                             .setTitle("Mention")
-                                             .addField("Channel", "#" + mentionChannel.getName(), true)
-                                             .setUrl(toLink(mention))
-                                             .setAuthor(author.getDisplayName(), null, author.getAvatarUrl())
-                                             .setTimestamp(mention.getMentionedAt()));
+        public Mono<Consumer<EmbedCreateSpec>> toEmbed(MessageChannel channel) {
+            return Mono.justOrEmpty(mention.getMetadata())
+                       .switchIfEmpty(ChannelWatcher.fetchMetadata(channel.getClient(), bansDatabase, mention))
+                       .filter(metadata -> metadata.getAuthorName() != null)
+                       .map(this::embed);
         }
 
-        private String toLink(Mention mention) {
-            return String.format("https://discord.com/channels/%s/%s/%s",
-                                 mention.getGuildId().asString(),
-                                 mention.getChannelId().asString(),
-                                 mention.getMessageId().asString());
+        private Consumer<EmbedCreateSpec> embed(MentionMetadata metadata) {
+            return e -> {
+                e.setTitle("Mention")
+                 .addField("Channel", "#" + metadata.getChannelName(), true)
+                 .setUrl(mention.getLink())
+                 .setAuthor(metadata.getAuthorName(), null, metadata.getAuthorAvatarUrl())
+                 .setTimestamp(mention.getMentionedAt());
+
+                if (metadata.getAuthorColor() != null)
+                    e.setColor(Color.of(metadata.getAuthorColor()));
+            };
         }
     }
 
@@ -254,8 +253,8 @@ public class InfoCommand implements BotCommand {
         }
 
         @Override
-        public Mono<Message> toMessage(MessageChannel channel) {
-            return channel.createEmbed(spec -> {
+        public Mono<Consumer<EmbedCreateSpec>> toEmbed(MessageChannel channel) {
+            return Mono.just(spec -> {
                 spec.setTitle("Pending Offline Ban")
                     .setColor(Color.HOKI)
                     .setTimestamp(enactedTime);
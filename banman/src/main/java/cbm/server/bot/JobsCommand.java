@@ -0,0 +1,72 @@
+package cbm.server.bot;
+
+import cbm.server.JobScheduler;
+import discord4j.core.object.entity.Message;
+import org.jetbrains.annotations.NotNull;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Command(name = "jobs", header = "Show or run the periodic jobs", synopsisHeading = "%nUsage: ", hidden = true,
+        description = {"%nShows the last run and the next run of the periodic jobs of the bot, or runs one now.%n"})
+public class JobsCommand implements BotCommand {
+
+    @Option(names = "--run", paramLabel = "<job>", description = "Run the job now.")
+    private String job;
+
+    private final JobScheduler scheduler;
+
+    public JobsCommand(@NotNull JobScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public @NotNull Flux<String> execute(@NotNull Message message) {
+        if (job != null) {
+            return Flux.just(scheduler.trigger(job)
+                             ? "Job `" + job + "` started."
+                             : "There is no job `" + job + "`, or it is already running.");
+        }
+
+        final List<String> lines = scheduler.getJobs()
+                                            .stream()
+                                            .map(JobsCommand::format)
+                                            .collect(Collectors.toList());
+        final MessageComposer composer = new MessageComposer.Builder()
+                                                 .setHeader("**Jobs:**")
+                                                 .setPrefix("```")
+                                                 .setSuffix("```")
+                                                 .build();
+        return Flux.fromIterable(composer.compose(lines));
+    }
+
+    private static String format(JobScheduler.JobStatus status) {
+        final StringBuilder line = new StringBuilder(status.getName()).append(": ");
+        if (status.isRunning())
+            line.append("running since ").append(truncate(status.getLastStart()));
+        else if (status.getLastStart() == null)
+            line.append("never run");
+        else
+            line.append("last run ").append(truncate(status.getLastStart()))
+                .append(" (").append(format(status.getLastDuration())).append(", ")
+                .append(status.getLastOutcome()).append(')');
+
+        if (status.getNextRun() != null)
+            line.append(", next run ").append(truncate(status.getNextRun()));
+        return line.toString();
+    }
+
+    private static Instant truncate(Instant instant) {
+        return instant.truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    private static String format(Duration duration) {
+        return duration.toMillis() < 1000 ? duration.toMillis() + " ms" : duration.toSeconds() + " s";
+    }
+}
@@ -140,6 +140,10 @@ public class LogCommand implements BotCommand {
             case "remove":
                 sb.append("- ");
                 break;
+
+            case "provisional":
+                sb.append("? ");
+                break;
         }
         final Ban ban = entry.getBan();
         sb.append(entry.getDetectedAt()).append(" [")
@@ -0,0 +1,29 @@
+package cbm.server.bot;
+
+import cbm.server.Metrics;
+import discord4j.core.object.entity.Message;
+import org.jetbrains.annotations.NotNull;
+import picocli.CommandLine.Command;
+import reactor.core.publisher.Flux;
+
+import java.util.stream.Collectors;
+
+@Command(name = "metrics", header = "Show the bot metrics", synopsisHeading = "%nUsage: ", hidden = true,
+        description = {"%nShows the counters collected since the bot was started.%n"})
+public class MetricsCommand implements BotCommand {
+
+    @Override
+    public @NotNull Flux<String> execute(@NotNull Message message) {
+        final MessageComposer composer = new MessageComposer.Builder()
+                                                 .setHeader("**Metrics:**")
+                                                 .setPrefix("```")
+                                                 .setSuffix("```")
+                                                 .build();
+
+        return Flux.fromIterable(composer.compose(Metrics.snapshot()
+                                                         .entrySet()
+                                                         .stream()
+                                                         .map(e -> e.getKey() + " = " + e.getValue())
+                                                         .collect(Collectors.toList())));
+    }
+}
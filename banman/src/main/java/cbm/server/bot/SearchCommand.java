@@ -7,7 +7,6 @@ import cbm.server.model.Ban;
 import discord4j.common.util.Snowflake;
 import discord4j.core.object.MessageReference;
 import discord4j.core.object.entity.Message;
-import discord4j.core.object.entity.channel.MessageChannel;
 import org.jetbrains.annotations.NotNull;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
@@ -47,26 +46,26 @@ public class SearchCommand implements BotCommand {
             return Flux.just("Search syntax tutorial: https://www.lucenetutorial.com/lucene-query-syntax.html");
 
         final String params = query != null ? String.join(" ", query) : "";
-        return message.getMessageReference()
-                      .flatMap(MessageReference::getMessageId)
-                      .map(id -> nextPage(params, message.getChannel(), id))
-                      .orElseGet(() -> bansDatabase.searchBans(new SearchRequest(params))
-                                                   .flatMapIterable(response -> resultsToStrings(params, response)));
+        final Optional<Snowflake> replyTo = message.getMessageReference()
+                                                   .flatMap(MessageReference::getMessageId);
+        if (replyTo.isEmpty())
+            return bansDatabase.searchBans(new SearchRequest(params))
+                               .flatMapIterable(response -> resultsToStrings(params, response));
+
+        // The referenced message usually comes with the event, so fetch it only if it's missing
+        final Mono<Message> previous = Mono.justOrEmpty(message.getReferencedMessage())
+                                           .switchIfEmpty(message.getChannel()
+                                                                 .flatMap(ch -> ch.getMessageById(replyTo.get())));
+        return previous.flatMapMany(msg -> nextPage(params, msg));
     }
 
     @NotNull
-    private Flux<String> nextPage(String params, Mono<MessageChannel> channel, Snowflake id) {
-        return channel.flatMapMany(ch -> ch.getMessageById(id)
-                                           .flatMapMany(msg -> {
-                                               final String content = msg.getContent();
-                                               final SearchRequest request = nextRequest(content);
-                                               if (request == null)
-                                                   return Flux.just("Error");
-                                               return bansDatabase.searchBans(request)
-                                                                  .flatMapIterable(response ->
-                                                                                           resultsToStrings(params,
-                                                                                                            response));
-                                           }));
+    private Flux<String> nextPage(String params, Message previous) {
+        final SearchRequest request = nextRequest(previous.getContent());
+        if (request == null)
+            return Flux.just("Error");
+        return bansDatabase.searchBans(request)
+                           .flatMapIterable(response -> resultsToStrings(params, response));
     }
 
     private SearchRequest nextRequest(String content) {
@@ -1,13 +1,13 @@
 package cbm.server.bot;
 
 import cbm.server.Bot;
+import cbm.server.ChannelWatcher;
 import cbm.server.db.BansDatabase;
 import cbm.server.model.Mention;
-import discord4j.common.util.Snowflake;
-import discord4j.core.object.entity.Member;
+import cbm.server.model.MentionMetadata;
 import discord4j.core.object.entity.Message;
 import discord4j.core.object.entity.channel.MessageChannel;
-import discord4j.core.object.entity.channel.TextChannel;
+import discord4j.core.spec.EmbedCreateSpec;
 import discord4j.rest.util.Color;
 import org.jetbrains.annotations.NotNull;
 import org.reactivestreams.Publisher;
@@ -17,6 +17,7 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 @Command(name = "wanted", header = "List player mentions in the watch-list channels", synopsisHeading = "%nUsage: ",
         description = {"%nShow links to mentions for the given player in the watch-list channels.%n"})
@@ -51,44 +52,27 @@ public class WantedCommand implements BotCommand {
         if (mentions.isEmpty())
             return channel.createMessage("**No mentions found.**");
 
-        return Flux.fromIterable(mentions)
-                   .flatMap(mention -> message(channel, mention));
+        return EmbedSender.send(channel, Flux.fromIterable(mentions)
+                                             .flatMapSequential(mention -> embed(channel, mention)));
     }
 
-    private Mono<Message> message(MessageChannel channel, Mention mention) {
-        final Snowflake guildId = mention.getGuildId();
-        return channel.getClient()
-                      .getGuildById(guildId)
-                      .flatMap(guild -> guild.getChannelById(mention.getChannelId()))
-                      .filter(TextChannel.class::isInstance)
-                      .cast(TextChannel.class)
-                      .flatMap(ch -> message(channel, mention, ch));
+    private Mono<Consumer<EmbedCreateSpec>> embed(MessageChannel channel, Mention mention) {
+        return Mono.justOrEmpty(mention.getMetadata())
+                   .switchIfEmpty(ChannelWatcher.fetchMetadata(channel.getClient(), bansDatabase, mention))
+                   .filter(metadata -> metadata.getAuthorName() != null)
+                   .map(metadata -> embed(mention, metadata));
     }
 
-    @NotNull
-    private Mono<Message> message(MessageChannel channel, Mention mention, TextChannel mentionChannel) {
-        return mentionChannel.getMessageById(mention.getMessageId())
-                             .flatMap(Message::getAuthorAsMember)
-                             .flatMap(author -> author.getColor()
-                                                      .flatMap(color -> message(channel, mention, mentionChannel,
-                                                                                author, color)));
-    }
-
-    private Mono<Message> message(MessageChannel channel, Mention mention, TextChannel mentionChannel, Member author,
-                                  Color color) {
-
-        return channel.createEmbed(e -> e.setColor(color)
-                                         .setTitle("Jump to the mention")
-                                         .setDescription("Mentioned in **#" + mentionChannel.getName() + "**")
-                                         .setUrl(toLink(mention))
-                                         .setAuthor(author.getDisplayName(), null, author.getAvatarUrl())
-                                         .setTimestamp(mention.getMentionedAt()));
-    }
+    private static Consumer<EmbedCreateSpec> embed(Mention mention, MentionMetadata metadata) {
+        return e -> {
+            e.setTitle("Jump to the mention")
+             .setDescription("Mentioned in **#" + metadata.getChannelName() + "**")
+             .setUrl(mention.getLink())
+             .setAuthor(metadata.getAuthorName(), null, metadata.getAuthorAvatarUrl())
+             .setTimestamp(mention.getMentionedAt());
 
-    private String toLink(Mention mention) {
-        return String.format("https://discord.com/channels/%s/%s/%s",
-                             mention.getGuildId().asString(),
-                             mention.getChannelId().asString(),
-                             mention.getMessageId().asString());
+            if (metadata.getAuthorColor() != null)
+                e.setColor(Color.of(metadata.getAuthorColor()));
+        };
     }
 }
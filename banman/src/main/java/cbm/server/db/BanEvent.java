@@ -0,0 +1,73 @@
+package cbm.server.db;
+
+import cbm.server.model.Ban;
+import cbm.server.model.OfflineBan;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Instant;
+import java.util.StringJoiner;
+
+/**
+ * A change of the bans, published by {@link BansDatabase#events} once stored.
+ */
+public final class BanEvent {
+    public enum Type {
+        /**
+         * A ban was added, or changed (after the {@link #REMOVED} event of the previous one).
+         */
+        ADDED,
+        /**
+         * A ban was removed, or changed.
+         */
+        REMOVED,
+        /**
+         * An offline ban was removed, since the ban applies it.
+         */
+        OFFLINE_APPLIED
+    }
+
+    private final Type type;
+    private final Instant timestamp;
+    private final Ban ban;
+    private final OfflineBan offlineBan;
+
+    BanEvent(@NotNull Type type, @NotNull Instant timestamp, @NotNull Ban ban, @Nullable OfflineBan offlineBan) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.ban = ban;
+        this.offlineBan = offlineBan;
+    }
+
+    public @NotNull Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The time of the update which detected the change
+     */
+    public @NotNull Instant getTimestamp() {
+        return timestamp;
+    }
+
+    public @NotNull Ban getBan() {
+        return ban;
+    }
+
+    /**
+     * @return The offline ban applied, for {@link Type#OFFLINE_APPLIED}
+     */
+    public @Nullable OfflineBan getOfflineBan() {
+        return offlineBan;
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", BanEvent.class.getSimpleName() + "[", "]")
+                       .add("type=" + type)
+                       .add("timestamp=" + timestamp)
+                       .add("ban=" + ban)
+                       .add("offlineBan=" + offlineBan)
+                       .toString();
+    }
+}
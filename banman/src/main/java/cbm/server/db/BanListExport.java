@@ -0,0 +1,287 @@
+package cbm.server.db;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * The list of the banned players, exported after each update for the external tools, which can map it in memory and
+ * binary search it, without opening the database.
+ * <p>
+ * {@value #FILE_NAME} is a 32 bytes header, followed by the bans sorted by steamID64, all big-endian:
+ * <pre>
+ *     header: int magic ('CBMB'), int version, int count, int CRC-32 of the bans, long last update which changed
+ *             the bans (epoch seconds), long sequence number of the export
+ *     ban:    long steamID64, long expiry (epoch seconds) << 8 | flags
+ * </pre>
+ * The expiry of a permanent ban is {@link #PERMANENT}. The flags are {@link #SHORT_BAN}, {@link #OFFLINE_BAN} and
+ * {@link #NET_ID_BAN}. Only the bans of Steam IDs are exported.
+ * <p>
+ * {@value #SINCE_FILE_NAME} lists the players whose ban changed since the previous export, to refresh a copy
+ * incrementally, see {@link #readChanges}. It has the same header, with the sequence numbers of the previous export
+ * and of the export instead of the last update and the sequence number ('CBMS' as magic), followed by the sorted
+ * steamID64s. It is written before the list, and both are replaced atomically.
+ */
+public final class BanListExport {
+    private static final Logger LOGGER = LogManager.getLogger();
+    public static final String FILE_NAME = "bans.bin";
+    public static final String SINCE_FILE_NAME = "bans.since";
+    public static final int VERSION = 1;
+    public static final long PERMANENT = 0x00FF_FFFF_FFFF_FFFFL;
+    public static final int SHORT_BAN = 1;
+    public static final int OFFLINE_BAN = 2;
+    public static final int NET_ID_BAN = 4;
+    private static final int BANS_MAGIC = 0x43424D42;
+    private static final int SINCE_MAGIC = 0x43424D53;
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * The last update and the sequence number, or the sequence numbers of the previous export and of the export.
+     */
+    private final long header1;
+    private final long header2;
+    private final LongBuffer entries;
+    private final int count;
+    private final int entrySize;
+
+    private BanListExport(long header1, long header2, LongBuffer entries, int count, int entrySize) {
+        this.header1 = header1;
+        this.header2 = header2;
+        this.entries = entries;
+        this.count = count;
+        this.entrySize = entrySize;
+    }
+
+    /**
+     * Map an export in memory, and check it.
+     *
+     * @param dir The directory of the export
+     */
+    public static @NotNull BanListExport open(@NotNull Path dir) throws IOException {
+        return map(dir.resolve(FILE_NAME), BANS_MAGIC, 2);
+    }
+
+    /**
+     * Read the players whose ban changed between an export and the current one.
+     *
+     * @param dir  The directory of the export
+     * @param from The {@link #getSequence sequence number} of the export to refresh
+     * @return The sorted steamID64s to look up again in the current export, or {@code null} if the changes are not
+     * known, and the whole export has to be read again
+     */
+    public static long @Nullable [] readChanges(@NotNull Path dir, long from) throws IOException {
+        final BanListExport current = open(dir);
+        if (current.getSequence() == from)
+            return new long[0];
+
+        final BanListExport since;
+        try {
+            since = map(dir.resolve(SINCE_FILE_NAME), SINCE_MAGIC, 1);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (since.header1 != from || since.header2 != current.getSequence())
+            return null;
+
+        final long[] steamIDs = new long[since.count];
+        since.entries.get(0, steamIDs);
+        return steamIDs;
+    }
+
+    private static BanListExport map(Path file, int magic, int entrySize) throws IOException {
+        final MappedByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != magic)
+            throw new IOException("Not a ban list export: " + file);
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported version " + buffer.getInt(4) + " of " + file);
+
+        final int count = buffer.getInt(8);
+        if (buffer.capacity() != HEADER_SIZE + (long) count * entrySize * Long.BYTES)
+            throw new IOException("Truncated ban list export: " + file);
+
+        final ByteBuffer entries = buffer.position(HEADER_SIZE).slice();
+        final CRC32 crc = new CRC32();
+        crc.update(entries.duplicate());
+        if ((int) crc.getValue() != buffer.getInt(12))
+            throw new IOException("Corrupt ban list export: " + file);
+
+        return new BanListExport(buffer.getLong(16), buffer.getLong(24), entries.asLongBuffer(), count, entrySize);
+    }
+
+    /**
+     * Write an export, and the players changed since the previous one, if any. Nothing is written if the bans didn't
+     * change: the previous export keeps its last update and its sequence number, so its changes stay readable.
+     *
+     * @param steamIDs The steamID64s, sorted
+     * @param packed   The expiry and flags of each steamID64, see {@link #pack}
+     */
+    static void write(@NotNull Path dir, @NotNull Instant lastUpdate, long[] steamIDs, long[] packed)
+            throws IOException {
+
+        Files.createDirectories(dir);
+        final Path file = dir.resolve(FILE_NAME);
+        long sequence = 0;
+        if (Files.exists(file)) {
+            try {
+                final BanListExport previous = open(dir);
+                final long[] changes = changes(previous, steamIDs, packed);
+                if (changes.length == 0) {
+                    LOGGER.debug("The ban list didn't change, export {} is up to date", previous.getSequence());
+                    return;
+                }
+                sequence = previous.getSequence() + 1;
+                write(dir.resolve(SINCE_FILE_NAME), SINCE_MAGIC, previous.getSequence(), sequence, changes, null);
+            } catch (IOException e) {
+                // Without the previous export, the consumers have to read everything again
+                LOGGER.warn("Cannot read the previous ban list export", e);
+                sequence = System.currentTimeMillis();
+                Files.deleteIfExists(dir.resolve(SINCE_FILE_NAME));
+            }
+        }
+        write(file, BANS_MAGIC, lastUpdate.getEpochSecond(), sequence, steamIDs, packed);
+    }
+
+    /**
+     * @param packed The expiry and flags of each steamID64, {@code null} to write the steamID64s alone
+     */
+    private static void write(Path file, int magic, long header1, long header2, long[] steamIDs, long[] packed)
+            throws IOException {
+
+        final int entrySize = packed == null ? 1 : 2;
+        final ByteBuffer entries = ByteBuffer.allocate(steamIDs.length * entrySize * Long.BYTES);
+        for (int i = 0; i < steamIDs.length; ++i) {
+            entries.putLong(steamIDs[i]);
+            if (packed != null)
+                entries.putLong(packed[i]);
+        }
+        entries.flip();
+        final CRC32 crc = new CRC32();
+        crc.update(entries.duplicate());
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                                            .putInt(magic)
+                                            .putInt(VERSION)
+                                            .putInt(steamIDs.length)
+                                            .putInt((int) crc.getValue())
+                                            .putLong(header1)
+                                            .putLong(header2)
+                                            .flip();
+
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                          StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining() || entries.hasRemaining())
+                channel.write(new ByteBuffer[]{header, entries});
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return The sorted steamID64s added, removed or changed since the previous export
+     */
+    private static long[] changes(BanListExport previous, long[] steamIDs, long[] packed) {
+        final long[] changes = new long[previous.count + steamIDs.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < previous.count || j < steamIDs.length) {
+            final long before = i < previous.count ? previous.getSteamID(i) : Long.MAX_VALUE;
+            final long after = j < steamIDs.length ? steamIDs[j] : Long.MAX_VALUE;
+            if (before < after) {
+                changes[count++] = before;
+                ++i;
+            } else if (after < before) {
+                changes[count++] = after;
+                ++j;
+            } else {
+                if (previous.getPacked(i) != packed[j])
+                    changes[count++] = after;
+                ++i;
+                ++j;
+            }
+        }
+        return Arrays.copyOf(changes, count);
+    }
+
+    static long pack(@Nullable Instant expiry, int flags) {
+        if (expiry == null || expiry.getEpochSecond() >= PERMANENT)
+            return PERMANENT << 8 | flags;
+        return Math.max(0, expiry.getEpochSecond()) << 8 | flags;
+    }
+
+    /**
+     * @return The last update of the bans of the export
+     */
+    public @NotNull Instant getLastUpdate() {
+        return Instant.ofEpochSecond(header1);
+    }
+
+    /**
+     * @return The sequence number of the export, incremented by each export
+     */
+    public long getSequence() {
+        return header2;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long getSteamID(int index) {
+        return entries.get(index * entrySize);
+    }
+
+    /**
+     * @return The expiry in epoch seconds, or {@link #PERMANENT}
+     */
+    public long getExpiry(int index) {
+        return getPacked(index) >>> 8;
+    }
+
+    public int getFlags(int index) {
+        return (int) (getPacked(index) & 0xFF);
+    }
+
+    private long getPacked(int index) {
+        return entries.get(index * entrySize + 1);
+    }
+
+    /**
+     * @return The index of the player, or a negative value if not banned
+     */
+    public int indexOf(long steamID64) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long id = getSteamID(mid);
+            if (id < steamID64)
+                low = mid + 1;
+            else if (id > steamID64)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+}
@@ -1,32 +1,35 @@
 package cbm.server.db;
 
 import cbm.server.Bot;
+import cbm.server.Metrics;
 import cbm.server.SteamID;
 import cbm.server.model.Ban;
 import cbm.server.model.Mention;
+import cbm.server.model.MentionMetadata;
 import cbm.server.model.OfflineBan;
 import discord4j.common.util.Snowflake;
-import jetbrains.exodus.backup.BackupBean;
 import jetbrains.exodus.bindings.BindingUtils;
 import jetbrains.exodus.bindings.ComparableBinding;
 import jetbrains.exodus.entitystore.Entity;
 import jetbrains.exodus.entitystore.EntityIterable;
+import jetbrains.exodus.entitystore.EntityRemovedInDatabaseException;
+import jetbrains.exodus.entitystore.PersistentEntityId;
 import jetbrains.exodus.entitystore.PersistentEntityStore;
 import jetbrains.exodus.entitystore.PersistentEntityStores;
 import jetbrains.exodus.entitystore.StoreTransaction;
-import jetbrains.exodus.util.CompressBackupUtil;
 import jetbrains.exodus.util.LightOutputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.queryparser.classic.ParseException;
-import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.DirectProcessor;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
 import reactor.core.publisher.Mono;
 
 import java.io.ByteArrayInputStream;
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -35,14 +38,21 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -50,19 +60,69 @@ import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import static cbm.server.Utils.asyncMany;
+import static cbm.server.db.EntityCodecs.getPlayerId;
+import static cbm.server.db.EntityCodecs.getProperty;
+import static cbm.server.db.EntityCodecs.getSnowflake;
+import static cbm.server.db.EntityCodecs.playerIdValue;
+import static cbm.server.db.EntityCodecs.readBan;
+import static cbm.server.db.EntityCodecs.readBanLogEntry;
+import static cbm.server.db.EntityCodecs.readMention;
+import static cbm.server.db.EntityCodecs.readOfflineBan;
+import static cbm.server.db.EntityCodecs.setSnowflake;
+import static cbm.server.db.EntityCodecs.writeBan;
+import static cbm.server.db.EntityCodecs.writeBanLogEntry;
+import static cbm.server.db.EntityCodecs.writeMention;
+import static cbm.server.db.EntityCodecs.writeOfflineBan;
 import static cbm.server.Utils.asyncOne;
 import static cbm.server.Utils.compare;
 import static java.util.stream.Collectors.toMap;
-import static jetbrains.exodus.core.crypto.MessageDigestUtil.MD5;
 
 public class BansDatabase implements AutoCloseable {
     private static final Logger LOGGER = LogManager.getLogger();
     private static final String CURRENT_BAN = "CurrentBan";
     private static final String OFFLINE_BAN = "OfflineBan";
     private static final String LOG_ENTRY = "LogEntry";
+    /**
+     * No longer used, deleted when the search index is rebuilt.
+     */
     private static final String UNIQUE_BAN = "UniqueBan";
     private static final String MENTIONS = "Mention";
     private static final String CHANNELS = "Channel";
+    /**
+     * The bans to add to the search index, written in the transaction that adds them to the database.
+     */
+    private static final String INDEX_OUTBOX = "IndexOutbox";
+    private static final int INDEX_OUTBOX_BATCH_SIZE = 1000;
+    /**
+     * How long a provisional log entry waits for the bans of the servers to confirm it.
+     */
+    private static final Duration PROVISIONAL_TIMEOUT = Duration.ofHours(2);
+    /**
+     * How long the player name of a NetID ban is looked up for, before using the fallback name of the player.
+     */
+    private static final Duration PLAYER_NAME_TIMEOUT = Duration.ofMinutes(1);
+    /**
+     * How long the storing of the bans waits for all the player names, the lookups are run concurrently.
+     */
+    private static final Duration PLAYER_NAMES_TIMEOUT = Duration.ofMinutes(5);
+    /**
+     * The events buffered for each subscriber of {@link #events}, before the oldest ones are dropped.
+     */
+    private static final int EVENTS_BUFFER_SIZE = 10_000;
+    private static final String MIGRATIONS = "Migration";
+    private static final String LONG_IDS_MIGRATION = "long-ids";
+    private static final long MIGRATION_DONE = Long.MAX_VALUE;
+    private static final int MIGRATION_BATCH_SIZE = 1000;
+    /**
+     * The properties with a Snowflake or a player ID, by entity type, see {@link #migrateLongIds}.
+     */
+    private static final Map<String, List<String>> ID_PROPERTIES =
+            Map.of(CURRENT_BAN, List.of("player-id"),
+                   OFFLINE_BAN, List.of("player-id"),
+                   LOG_ENTRY, List.of("player-id"),
+                   INDEX_OUTBOX, List.of("player-id"),
+                   MENTIONS, List.of("player-id", "guild-id", "channel-id", "message-id", "author-id"),
+                   CHANNELS, List.of("channel-id", "latest-message-id"));
     private static final ComparableBinding INSTANT_BINDING = new ComparableBinding() {
         @Override
         public Instant readObject(@NotNull ByteArrayInputStream stream) {
@@ -71,6 +131,7 @@ public class BansDatabase implements AutoCloseable {
         }
 
         @Override
+        @SuppressWarnings("rawtypes")
         public void writeObject(@NotNull LightOutputStream output, @NotNull Comparable object) {
             final Instant instant = (Instant) object;
             final long epochSecond = instant.getEpochSecond();
@@ -85,6 +146,7 @@ public class BansDatabase implements AutoCloseable {
         }
 
         @Override
+        @SuppressWarnings("rawtypes")
         public void writeObject(@NotNull LightOutputStream output, @NotNull Comparable object) {
             final Duration duration = (Duration) object;
             final long seconds = duration.toSeconds();
@@ -99,30 +161,64 @@ public class BansDatabase implements AutoCloseable {
         }
 
         @Override
+        @SuppressWarnings("rawtypes")
         public void writeObject(@NotNull LightOutputStream output, @NotNull Comparable object) {
             final Snowflake snowflake = (Snowflake) object;
             output.writeString(snowflake.asString());
         }
     };
 
-    private static final BiConsumer<PersistentEntityStore, StoreTransaction> REGISTRAR = (store, txn) -> {
-        store.registerCustomPropertyType(txn, Instant.class, INSTANT_BINDING);
-        store.registerCustomPropertyType(txn, Duration.class, DURATION_BINDING);
-        store.registerCustomPropertyType(txn, Snowflake.class, SNOWFLAKE_BINDING);
-    };
+    /**
+     * The custom property types of the store, also used by the tests and benchmarks of {@link EntityCodecs}.
+     */
+    static final Map<Class<? extends Comparable<?>>, ComparableBinding> PROPERTY_TYPES =
+            Map.of(Instant.class, INSTANT_BINDING,
+                   Duration.class, DURATION_BINDING,
+                   Snowflake.class, SNOWFLAKE_BINDING);
 
     private final PersistentEntityStore entityStore;
     private final SearchIndex searchIndex;
+    private final Path exportDir;
+    private final ExecutorService background = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "bans-database");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean indexingScheduled = new AtomicBoolean();
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+    private final DirectProcessor<BanEvent> events = DirectProcessor.create();
+    private final FluxSink<BanEvent> eventSink = events.sink();
+    /**
+     * Held for a migration batch, so the background batches and {@link #migrateLongIds} don't overlap.
+     */
+    private final Object migrationLock = new Object();
+    private volatile boolean longIdsMigrated;
+    private volatile boolean closing;
 
     public BansDatabase(String dir) throws IOException {
-        this.entityStore = new CustomTypesPersistentEntityStore(PersistentEntityStores.newInstance(dir), REGISTRAR);
+        final InstrumentedPersistentEntityStore store =
+                new InstrumentedPersistentEntityStore(PersistentEntityStores.newInstance(dir));
+        store.registerCustomPropertyTypes(PROPERTY_TYPES);
+        this.entityStore = store;
+        this.exportDir = Path.of(dir, "export");
         final Path lucene = Path.of(dir, "lucene");
         final boolean isNew = Files.notExists(lucene);
         this.searchIndex = new SearchIndex(lucene);
-        if (isNew) {
+        if (isNew || searchIndex.isOutdated()) {
             LOGGER.info("Indexing all existing bans ...");
             indexBans();
         }
+        // Index what was left over by a crash
+        scheduleIndexing();
+
+        longIdsMigrated = getMigrationProgress(LONG_IDS_MIGRATION) == MIGRATION_DONE;
+        if (!longIdsMigrated) {
+            LOGGER.info("Migrating the IDs to longs ...");
+            scheduleMigration();
+        }
+
+        if (Files.notExists(exportDir.resolve(BanListExport.FILE_NAME)))
+            exportBanList();
     }
 
     public Stats storeBans(Instant timestamp, Stream<Ban> bans) {
@@ -130,19 +226,57 @@ public class BansDatabase implements AutoCloseable {
     }
 
     public Stats storeBans(Instant timestamp, Stream<Ban> bans, boolean historicBans) {
-        final Map<String, Ban> banMap =
-                bans.collect(toMap(Ban::getId,
-                                   Function.identity(),
-                                   (u, v) -> {
-                                       if (Objects.equals(u, v))
-                                           LOGGER.info("Duplicate but equal entries: {} and {}", u, v);
-                                       else
-                                           LOGGER.warn("Duplicate bans: {} and {}", u, v);
-
-                                       return v.getBannedUntil().isAfter(u.getBannedUntil()) ? v : u;
-                                   }));
+        return storeBans(timestamp, bans, historicBans, null, Map.of());
+    }
 
-        return entityStore.computeInTransaction(txn -> {
+    /**
+     * Store the bans of several servers sharing a ban list. The current bans are the bans of all the servers, each
+     * recording the servers it was seen on, see {@link #getBanServersSync}.
+     *
+     * @param bansByServer The bans of each server, by server name
+     * @return The stats, with the bans missing on some of the servers or differing between them, see
+     * {@link Stats#divergentBans}
+     */
+    public Stats storeBans(Instant timestamp, Map<String, List<Ban>> bansByServer) {
+        // The servers have the same copies of most bans: merge them here, only the ones that differ are duplicates
+        final Map<String, Ban> bans = new HashMap<>();
+        final Map<String, Set<String>> servers = new HashMap<>();
+        bansByServer.forEach((server, serverBans) -> {
+            for (Ban ban : serverBans) {
+                servers.computeIfAbsent(ban.getId(), id -> new TreeSet<>()).add(server);
+                bans.merge(ban.getId(), ban, BansDatabase::mergeDuplicateBans);
+            }
+        });
+
+        final Map<String, Set<String>> divergentBans = divergentBans(servers);
+        bansByServer.forEach((server, serverBans) -> {
+            for (Ban ban : serverBans)
+                if (!ban.equals(bans.get(ban.getId())))
+                    divergentBans.computeIfAbsent(ban.getId(), id -> new TreeSet<>()).add(server);
+        });
+
+        return storeBans(timestamp, bans.values().stream(), false, servers, divergentBans);
+    }
+
+    /**
+     * @param servers       The servers of each ban, by player ID, or {@code null} not to record them
+     * @param divergentBans See {@link Stats#divergentBans}
+     */
+    private Stats storeBans(Instant timestamp, Stream<Ban> bans, boolean historicBans,
+                            @Nullable Map<String, Set<String>> servers, Map<String, Set<String>> divergentBans) {
+
+        final Map<String, Ban> banMap = bans.collect(toMap(Ban::getId,
+                                                           Function.identity(),
+                                                           BansDatabase::mergeDuplicateBans));
+
+        // Resolve the player names of the broken NetID bans before the transaction, all at once
+        final Map<String, String> playerNames = historicBans ? Map.of() : resolveNetIDBanPlayerNames(banMap);
+
+        final List<BanEvent> banEvents = new ArrayList<>();
+        final AtomicBoolean firstUpdate = new AtomicBoolean();
+        final Stats stats = entityStore.computeInTransaction(txn -> {
+            // The transaction may be run again
+            banEvents.clear();
             final Map<String, Entity> currentBans = new HashMap<>();
             final AtomicInteger addedLong = new AtomicInteger();
             final AtomicInteger addedShort = new AtomicInteger();
@@ -150,15 +284,13 @@ public class BansDatabase implements AutoCloseable {
             final AtomicInteger removedShort = new AtomicInteger();
 
             for (Entity banned : txn.getAll(CURRENT_BAN)) {
-                final String id = getProperty(banned, "player-id");
+                final String id = getPlayerId(banned);
                 if (banMap.containsKey(id)) {
                     currentBans.put(id, banned);
                 } else {
-                    final Entity removeLog = txn.newEntity(LOG_ENTRY);
-                    setProperty(removeLog, "detected-at", timestamp);
-                    setProperty(removeLog, "action", "remove");
-                    final Ban ban = asBan(banned);
-                    saveBan(ban, removeLog);
+                    final Ban ban = readBan(banned);
+                    writeBanLogEntry(txn.newEntity(LOG_ENTRY), timestamp, "remove", ban);
+                    banEvents.add(new BanEvent(BanEvent.Type.REMOVED, timestamp, ban, null));
 
                     (ban.isShortBan() ? removedShort : removedLong).incrementAndGet();
 
@@ -166,52 +298,58 @@ public class BansDatabase implements AutoCloseable {
                 }
             }
 
-            final Set<UniqueBan> addedBans = new HashSet<>();
+            final List<Ban> addedBans = new ArrayList<>();
             for (Ban ban : banMap.values()) {
-                final Entity entity = currentBans.get(ban.getId());
-                if (isSameBan(ban, entity))
-                    continue;
+                Entity entity = currentBans.get(ban.getId());
+                if (!isSameBan(ban, entity)) {
+                    if (entity != null) {
+                        final Ban previous = readBan(entity);
+                        writeBanLogEntry(txn.newEntity(LOG_ENTRY), timestamp, "remove", previous);
+                        banEvents.add(new BanEvent(BanEvent.Type.REMOVED, timestamp, previous, null));
 
-                if (entity != null) {
-                    final Entity removeLog = txn.newEntity(LOG_ENTRY);
-                    setProperty(removeLog, "detected-at", timestamp);
-                    setProperty(removeLog, "action", "remove");
-                    saveBan(asBan(entity), removeLog);
+                        (ban.isShortBan() ? removedShort : removedLong).incrementAndGet();
 
-                    (ban.isShortBan() ? removedShort : removedLong).incrementAndGet();
+                        entity.delete();
+                        currentBans.remove(ban.getId());
+                    }
 
-                    entity.delete();
-                    currentBans.remove(ban.getId());
-                }
+                    writeBanLogEntry(txn.newEntity(LOG_ENTRY), timestamp, "add", ban);
+                    banEvents.add(new BanEvent(BanEvent.Type.ADDED, timestamp, ban, null));
 
-                final Entity log = txn.newEntity(LOG_ENTRY);
-                setProperty(log, "detected-at", timestamp);
-                setProperty(log, "action", "add");
-                saveBan(ban, log);
+                    (ban.isShortBan() ? addedShort : addedLong).incrementAndGet();
 
-                (ban.isShortBan() ? addedShort : addedLong).incrementAndGet();
+                    entity = txn.newEntity(CURRENT_BAN);
+                    writeBan(entity, ban);
+                    addedBans.add(ban);
+                }
 
-                saveBan(ban, txn.newEntity(CURRENT_BAN));
-                addedBans.add(new UniqueBan(ban));
+                if (servers != null)
+                    setServers(entity, servers.get(ban.getId()));
             }
 
-            // Index the added bans
-            index(txn, addedBans);
+            // Index the added bans once the transaction is committed
+            for (Ban ban : addedBans)
+                writeBan(txn.newEntity(INDEX_OUTBOX), ban);
 
+            firstUpdate.set(getTimestamp(txn) == null);
             setTimestamp(txn, timestamp);
 
+            if (!historicBans)
+                confirmProvisionalBans(txn, timestamp, banMap);
+
             if (!historicBans) {
                 final Set<String> offlineBannedIDs = new HashSet<>();
 
                 // Remove the applied offline bans
                 final EntityIterable entities = txn.getAll(OFFLINE_BAN);
                 for (Entity entity : entities) {
-                    final OfflineBan offlineBan = asOfflineBan(entity);
+                    final OfflineBan offlineBan = readOfflineBan(entity);
                     final Ban ban = banMap.get(offlineBan.getId());
 
-                    if (ban != null && !ban.isNetIDBan() && compare(ban.getDuration(), offlineBan.getDuration()) >= 0)
+                    if (ban != null && !ban.isNetIDBan() && compare(ban.getDuration(), offlineBan.getDuration()) >= 0) {
                         entity.delete();
-                    else
+                        banEvents.add(new BanEvent(BanEvent.Type.OFFLINE_APPLIED, timestamp, ban, offlineBan));
+                    } else
                         offlineBannedIDs.add(offlineBan.getId());
                 }
 
@@ -219,8 +357,8 @@ public class BansDatabase implements AutoCloseable {
                 banMap.values().stream()
                       .filter(Ban::isNetIDBan)
                       .filter(b -> !offlineBannedIDs.contains(b.getId()))
-                      .map(this::convertToOffline)
-                      .forEach(offlineBan -> saveOfflineBan(offlineBan, txn.newEntity(OFFLINE_BAN)));
+                      .map(ban -> convertToOffline(ban, playerNames.get(ban.getId())))
+                      .forEach(offlineBan -> writeOfflineBan(txn.newEntity(OFFLINE_BAN), offlineBan));
             }
 
             return new Stats() {
@@ -243,52 +381,216 @@ public class BansDatabase implements AutoCloseable {
                 public int numRemovedShort() {
                     return removedShort.get();
                 }
+
+                @Override
+                public @NotNull Map<String, Set<String>> divergentBans() {
+                    return divergentBans;
+                }
             };
         });
+
+        scheduleIndexing();
+        if (!historicBans) {
+            exportBanList();
+            if (!firstUpdate.get())
+                publish(banEvents);
+        }
+        fireChanged();
+        return stats;
+    }
+
+    /**
+     * The changes of the current bans, as they are stored, from the bot start. The imports of historic bans are not
+     * published, nor the first bans stored in a new database, which are all new.
+     * <p>
+     * The events are published on the thread storing the bans, which a subscriber must not block. Each subscriber
+     * buffers up to {@value #EVENTS_BUFFER_SIZE} events, then drops the oldest ones, counted as the
+     * {@code bans.events.dropped} metric.
+     */
+    public @NotNull Flux<BanEvent> events() {
+        return events.onBackpressureBuffer(EVENTS_BUFFER_SIZE,
+                                           event -> Metrics.increment("bans.events.dropped"),
+                                           BufferOverflowStrategy.DROP_OLDEST);
+    }
+
+    private void publish(List<BanEvent> banEvents) {
+        for (BanEvent event : banEvents)
+            eventSink.next(event);
+    }
+
+    /**
+     * @param listener Called after the current bans or the offline bans changed, on the thread that changed them
+     */
+    public void addChangeListener(@NotNull Runnable listener) {
+        changeListeners.add(listener);
     }
 
-    private void index(StoreTransaction txn, Set<UniqueBan> addedBans) {
-        final Map<String, Ban> bans =
-                addedBans.stream()
-                         .filter(uniqueBan -> !exists(txn, uniqueBan))
-                         .collect(toMap(uniqueBan -> saveUniqueBan(uniqueBan,
-                                                                   txn.newEntity(UNIQUE_BAN)).getId().toString(),
-                                        UniqueBan::getBan));
+    /**
+     * Export the current bans and the offline bans, see {@link BanListExport}.
+     */
+    private synchronized void exportBanList() {
+        final Map<Long, Long> bans = new TreeMap<>();
+        final Instant lastUpdate = entityStore.computeInReadonlyTransaction(txn -> {
+            for (Entity entity : txn.getAll(OFFLINE_BAN)) {
+                final OfflineBan offlineBan = readOfflineBan(entity);
+                if (playerIdValue(offlineBan.getId()) instanceof Long) {
+                    final Instant expiry = offlineBan.getDuration() == null || offlineBan.getDuration().isZero()
+                                           ? null
+                                           : offlineBan.getEnactedTime().plus(offlineBan.getDuration());
+                    bans.put((Long) playerIdValue(offlineBan.getId()),
+                             BanListExport.pack(expiry, BanListExport.OFFLINE_BAN));
+                }
+            }
+            // A current ban replaces the offline one, keeping the flag
+            for (Entity entity : txn.getAll(CURRENT_BAN)) {
+                final Ban ban = readBan(entity);
+                if (playerIdValue(ban.getId()) instanceof Long) {
+                    final Instant bannedUntil = ban.getBannedUntil();
+                    final int flags = (ban.isShortBan() ? BanListExport.SHORT_BAN : 0)
+                                      | (ban.isNetIDBan() ? BanListExport.NET_ID_BAN : 0);
+                    bans.merge((Long) playerIdValue(ban.getId()),
+                               BanListExport.pack(Instant.MAX.equals(bannedUntil) ? null : bannedUntil, flags),
+                               (offline, current) -> current | offline & BanListExport.OFFLINE_BAN);
+                }
+            }
+            return getTimestamp(txn);
+        });
+
+        final long[] steamIDs = new long[bans.size()];
+        final long[] packed = new long[bans.size()];
+        int i = 0;
+        for (Map.Entry<Long, Long> entry : bans.entrySet()) {
+            steamIDs[i] = entry.getKey();
+            packed[i++] = entry.getValue();
+        }
+
         try {
-            searchIndex.index(bans);
+            BanListExport.write(exportDir, lastUpdate == null ? Instant.EPOCH : lastUpdate, steamIDs, packed);
         } catch (IOException e) {
-            LOGGER.warn("Failed to index bans", e);
+            LOGGER.warn("Failed to export the ban list", e);
         }
     }
 
-    private boolean exists(StoreTransaction txn, UniqueBan uniqueBan) {
-        final EntityIterable entities = txn.find(UNIQUE_BAN, "ban-id", uniqueBan.id);
-        return !entities.isEmpty();
+    private void fireChanged() {
+        for (Runnable listener : changeListeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Change listener failed", e);
+            }
+        }
     }
 
-    private OfflineBan convertToOffline(Ban ban) {
-        final String playerName = Bot.resolveSteamID(ban.getId())
-                                     .flatMap(Bot::getPlayerName)
-                                     .block();
+    /**
+     * Confirm the pending provisional log entries of the stored bans, and delete the ones that were never confirmed.
+     */
+    private static void confirmProvisionalBans(StoreTransaction txn, Instant timestamp, Map<String, Ban> banMap) {
+        final List<Entity> pending = new ArrayList<>();
+        txn.findWithProp(LOG_ENTRY, "pending").forEach(pending::add);
+        for (Entity entity : pending) {
+            if (banMap.containsKey(getPlayerId(entity))) {
+                entity.deleteProperty("pending");
+                Metrics.increment("bans.provisional.confirmed");
+            } else {
+                final Instant detectedAt = getProperty(entity, "detected-at");
+                if (detectedAt == null || detectedAt.plus(PROVISIONAL_TIMEOUT).isBefore(timestamp)) {
+                    LOGGER.info("Provisional ban never confirmed: {}", readBanLogEntry(entity).getBan());
+                    entity.delete();
+                    Metrics.increment("bans.provisional.expired");
+                }
+            }
+        }
+    }
 
+    /**
+     * @return The ban which lasts longer
+     */
+    private static Ban mergeDuplicateBans(Ban u, Ban v) {
+        if (Objects.equals(u, v))
+            LOGGER.info("Duplicate but equal entries: {} and {}", u, v);
+        else
+            LOGGER.warn("Duplicate bans: {} and {}", u, v);
+
+        return v.getBannedUntil().isAfter(u.getBannedUntil()) ? v : u;
+    }
+
+    /**
+     * @return The servers missing each ban seen on only some of the servers, by player ID
+     */
+    private static Map<String, Set<String>> divergentBans(Map<String, Set<String>> servers) {
+        final Set<String> allServers = new TreeSet<>();
+        servers.values().forEach(allServers::addAll);
+
+        final Map<String, Set<String>> divergentBans = new TreeMap<>();
+        servers.forEach((id, banServers) -> {
+            if (banServers.size() < allServers.size()) {
+                final Set<String> missing = new TreeSet<>(allServers);
+                missing.removeAll(banServers);
+                divergentBans.put(id, missing);
+            }
+        });
+        return divergentBans;
+    }
+
+    private static void setServers(Entity entity, Set<String> servers) {
+        final String value = String.join(",", servers);
+        if (!value.equals(getProperty(entity, "servers")))
+            entity.setProperty("servers", value);
+    }
+
+    /**
+     * @return The player names of the NetID bans, which don't have an offline ban yet, by player ID
+     */
+    private Map<String, String> resolveNetIDBanPlayerNames(Map<String, Ban> banMap) {
+        final Set<String> offlineBannedIDs = getOfflineBansSync().stream()
+                                                                 .map(OfflineBan::getId)
+                                                                 .collect(Collectors.toSet());
+
+        final Map<String, String> playerNames =
+                Flux.fromIterable(banMap.values())
+                    .filter(Ban::isNetIDBan)
+                    .filter(ban -> !offlineBannedIDs.contains(ban.getId()))
+                    .flatMap(ban -> Bot.resolveSteamID(ban.getId())
+                                       .flatMap(Bot::getPlayerName)
+                                       .map(name -> Map.entry(ban.getId(), name))
+                                       .timeout(PLAYER_NAME_TIMEOUT)
+                                       .onErrorResume(t -> {
+                                           LOGGER.warn("Failed to resolve the player name of " + ban.getId(), t);
+                                           return Mono.empty();
+                                       }))
+                    .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                    .block(PLAYER_NAMES_TIMEOUT);
+
+        return playerNames == null ? Map.of() : playerNames;
+    }
+
+    private OfflineBan convertToOffline(Ban ban, @Nullable String playerName) {
         return new OfflineBan.Builder()
                        .setId(ban.getId())
                        .setEnactedTime(Instant.now())
                        .setDuration(Duration.ofDays(7))
-                       .setPlayerName(playerName)
+                       .setPlayerName(Optional.ofNullable(playerName)
+                                              .or(() -> SteamID.steamID(ban.getId())
+                                                               .map(SteamID::fallbackPlayerName))
+                                              .orElse(null))
                        .setReason("Converted from broken NetID ban.")
                        .build();
     }
 
     public boolean removeOfflineBanSync(SteamID steamID) {
-        return entityStore.computeInTransaction(txn -> {
+        final boolean removed = entityStore.computeInTransaction(txn -> {
             boolean deleted = false;
-            final EntityIterable entities = txn.find(OFFLINE_BAN, "player-id", steamID.s64());
+            final EntityIterable entities = findPlayer(txn, OFFLINE_BAN, steamID.s64());
             for (Entity entity : entities)
                 deleted = entity.delete() || deleted;
 
             return deleted;
         });
+        if (removed) {
+            exportBanList();
+            fireChanged();
+        }
+        return removed;
     }
 
     public List<OfflineBan> getOfflineBansSync() {
@@ -296,23 +598,30 @@ public class BansDatabase implements AutoCloseable {
             final List<OfflineBan> offlineBans = new ArrayList<>();
             final EntityIterable entities = txn.getAll(OFFLINE_BAN);
             for (Entity entity : entities)
-                offlineBans.add(asOfflineBan(entity));
+                offlineBans.add(readOfflineBan(entity));
             return offlineBans;
         });
     }
 
     public Mono<Boolean> addOfflineBan(OfflineBan offlineBan, boolean replace) {
-        return asyncOne(() -> entityStore.computeInTransaction(txn -> {
-            final EntityIterable entities = txn.find(OFFLINE_BAN, "player-id", offlineBan.getId());
-            if (replace)
-                for (var entity : entities)
-                    entity.delete();
-            else if (!entities.isEmpty())
-                return false;
+        return asyncOne(() -> {
+            final boolean added = entityStore.computeInTransaction(txn -> {
+                final EntityIterable entities = findPlayer(txn, OFFLINE_BAN, offlineBan.getId());
+                if (replace)
+                    for (var entity : entities)
+                        entity.delete();
+                else if (!entities.isEmpty())
+                    return false;
 
-            saveOfflineBan(offlineBan, txn.newEntity(OFFLINE_BAN));
-            return true;
-        }));
+                writeOfflineBan(txn.newEntity(OFFLINE_BAN), offlineBan);
+                return true;
+            });
+            if (added) {
+                exportBanList();
+                fireChanged();
+            }
+            return added;
+        });
     }
 
     public Mono<Boolean> removeOfflineBan(SteamID steamID) {
@@ -324,31 +633,40 @@ public class BansDatabase implements AutoCloseable {
     }
 
     public SearchResponse<Ban> searchBansSync(SearchRequest request) throws ParseException, IOException {
-        final SearchResponse<String> idsResponse = searchIndex.search(request);
-        return entityStore.computeInReadonlyTransaction(txn -> {
-            final List<Ban> results = idsResponse.results
-                                              .stream()
-                                              .map(txn::toEntityId)
-                                              .map(txn::getEntity)
-                                              .map(this::asBan)
-                                              .collect(Collectors.toList());
-            return new SearchResponse<>(idsResponse.getFrom(),
-                                        idsResponse.getTotal(),
-                                        results,
-                                        idsResponse.getContinueAfter());
-        });
+        return searchIndex.search(request);
     }
 
     public Mono<SearchResponse<Ban>> searchBans(SearchRequest request) {
         return asyncOne(() -> searchBansSync(request));
     }
 
+    /**
+     * Add a provisional entry to the ban log, for a ban detected as it happens, e.g. in the server log. It is pending
+     * until the ban is stored, see {@link #storeBans}, and deleted if that doesn't happen soon enough.
+     *
+     * @return {@code false} if the player is already banned, or has a pending provisional entry
+     */
+    public boolean addProvisionalBanSync(@NotNull Instant detectedAt, @NotNull Ban ban) {
+        return entityStore.computeInTransaction(txn -> {
+            if (!findPlayer(txn, CURRENT_BAN, ban.getId()).isEmpty())
+                return false;
+            if (!findPlayer(txn, LOG_ENTRY, ban.getId()).intersect(txn.findWithProp(LOG_ENTRY, "pending")).isEmpty())
+                return false;
+
+            final Entity entity = txn.newEntity(LOG_ENTRY);
+            writeBanLogEntry(entity, detectedAt, "provisional", ban);
+            entity.setProperty("pending", true);
+            Metrics.increment("bans.provisional");
+            return true;
+        });
+    }
+
     public List<BanLogEntry> getBanHistorySync(SteamID steamID) {
         return entityStore.computeInReadonlyTransaction(txn -> {
             final List<BanLogEntry> entries = new ArrayList<>();
-            final EntityIterable entities = txn.find(LOG_ENTRY, "player-id", steamID.s64());
+            final EntityIterable entities = findPlayer(txn, LOG_ENTRY, steamID.s64());
             for (Entity entity : entities) {
-                final BanLogEntry banLogEntry = asBanLogEntry(entity);
+                final BanLogEntry banLogEntry = readBanLogEntry(entity);
                 entries.add(banLogEntry);
             }
             return entries;
@@ -368,7 +686,7 @@ public class BansDatabase implements AutoCloseable {
             // The search here is inclusive on both ends
             final EntityIterable entities = txn.find(LOG_ENTRY, "detected-at", from, to);
             for (Entity entity : entities) {
-                final BanLogEntry banLogEntry = asBanLogEntry(entity);
+                final BanLogEntry banLogEntry = readBanLogEntry(entity);
                 // Make the search exclusive on the right end
                 if (banLogEntry.getDetectedAt().isBefore(to))
                     entries.add(banLogEntry);
@@ -385,187 +703,299 @@ public class BansDatabase implements AutoCloseable {
     }
 
     public @Nullable Instant getLastUpdateSync() {
-        return entityStore.computeInReadonlyTransaction(txn -> {
-            final var iterable = txn.find("TIMESTAMP", "for", "current-bans");
-            return Optional.ofNullable(iterable.getFirst())
-                           .map(e -> getProperty(e, "timestamp"))
-                           .filter(Instant.class::isInstance)
-                           .map(Instant.class::cast)
-                           .orElse(null);
-        });
+        return entityStore.computeInReadonlyTransaction(this::getTimestamp);
     }
 
     public List<Ban> getCurrentBansSync() {
         return entityStore.computeInReadonlyTransaction(txn -> {
             final List<Ban> currentBans = new ArrayList<>();
             for (Entity entity : txn.getAll(CURRENT_BAN)) {
-                final Ban ban = asBan(entity);
+                final Ban ban = readBan(entity);
                 currentBans.add(ban);
             }
             return currentBans;
         });
     }
 
-    private void indexBans() {
-        entityStore.executeInTransaction(txn -> {
-            // Reset the unique bans
-            for (Entity entity : txn.getAll(UNIQUE_BAN))
-                entity.delete();
+    private void scheduleIndexing() {
+        if (indexingScheduled.compareAndSet(false, true))
+            background.execute(() -> {
+                indexingScheduled.set(false);
+                drainIndexOutbox();
+            });
+    }
 
-            final EntityIterable entities = txn.getAll(LOG_ENTRY);
-            final Set<UniqueBan> uniqueBans =
-                    StreamSupport.stream(entities::spliterator, 0, false)
-                                 .map(this::asBanLogEntry)
-                                 .filter(banLogEntry -> "add".equals(banLogEntry.getAction()))
-                                 .map(BanLogEntry::getBan)
-                                 .map(UniqueBan::new)
-                                 .collect(Collectors.toSet());
-
-            final Map<String, Ban> bans = new HashMap<>();
-            for (UniqueBan uniqueBan : uniqueBans) {
-                final Entity entity = saveUniqueBan(uniqueBan, txn.newEntity(UNIQUE_BAN));
-                bans.put(entity.getId().toString(), uniqueBan.ban);
-            }
+    /**
+     * Index the bans in the outbox, and remove them from it. Indexing is idempotent, so a crash in between only
+     * indexes them again. On failure the bans stay in the outbox until the next time. Synchronized, so there is only
+     * one drainer at a time.
+     */
+    synchronized void drainIndexOutbox() {
+        while (true) {
+            final Map<String, Ban> bans = entityStore.computeInReadonlyTransaction(txn -> {
+                final Map<String, Ban> batch = new LinkedHashMap<>();
+                for (Entity entity : txn.getAll(INDEX_OUTBOX).take(INDEX_OUTBOX_BATCH_SIZE))
+                    batch.put(entity.toIdString(), readBan(entity));
+                return batch;
+            });
+            if (bans.isEmpty())
+                return;
 
             try {
-                searchIndex.index(bans);
+                searchIndex.index(bans.values());
             } catch (IOException e) {
                 LOGGER.warn("Failed to index bans", e);
+                return;
             }
-        });
+
+            entityStore.executeInExclusiveTransaction(txn -> {
+                for (String id : bans.keySet())
+                    txn.getEntity(txn.toEntityId(id)).delete();
+            });
+            Metrics.add("index.outbox.drained", bans.size());
+            LOGGER.debug("Indexed {} bans from the outbox", bans.size());
+        }
     }
 
-    public Flux<Ban> getCurrentBans() {
-        return asyncMany(this::getCurrentBansSync);
+    /**
+     * Rewrite the Snowflakes and the player IDs stored as strings by older versions as {@link Long}s, which are
+     * smaller, and faster to find and compare. The migration runs in the background, a batch per transaction queued
+     * behind the other background tasks, and records its progress, so it resumes where it stopped after a restart.
+     * Until it is done, the lookups by these properties look for both forms.
+     */
+    private void scheduleMigration() {
+        try {
+            background.execute(() -> {
+                if (!closing && !migrateLongIdsBatch())
+                    scheduleMigration();
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.info("Closing, the migration will resume on the next start");
+        }
     }
 
-    public File backup() throws Exception {
-        final BackupBean backupBean = new BackupBean(entityStore);
-        backupBean.setBackupToZip(true);
-        backupBean.setBackupPath(new File(entityStore.getLocation(), "backups").getAbsolutePath());
-        backupBean.setBackupNamePrefix("bans_daily_backup-");
-        return CompressBackupUtil.backup(backupBean);
+    /**
+     * Run the whole migration now.
+     */
+    void migrateLongIds() {
+        boolean done = false;
+        while (!done && !closing)
+            done = migrateLongIdsBatch();
     }
 
-    private void setTimestamp(StoreTransaction txn, Instant timestamp) {
-        final var iterable = txn.find("TIMESTAMP", "for", "current-bans");
-        final var entity = Optional.ofNullable(iterable.getFirst())
-                                   .orElseGet(() -> {
-                                       final Entity e = txn.newEntity("TIMESTAMP");
-                                       e.setProperty("for", "current-bans");
-                                       return e;
-                                   });
+    /**
+     * @return {@code true} if the migration is done
+     */
+    private boolean migrateLongIdsBatch() {
+        synchronized (migrationLock) {
+            if (longIdsMigrated)
+                return true;
+
+            for (Map.Entry<String, List<String>> entry : ID_PROPERTIES.entrySet()) {
+                final String name = LONG_IDS_MIGRATION + ":" + entry.getKey();
+                final long progress = getMigrationProgress(name);
+                if (progress != MIGRATION_DONE) {
+                    migrateLongIds(name, entry.getKey(), entry.getValue(), progress);
+                    return false;
+                }
+            }
 
-        entity.setProperty("timestamp", timestamp);
+            entityStore.executeInExclusiveTransaction(txn -> setMigrationProgress(txn, LONG_IDS_MIGRATION,
+                                                                                  MIGRATION_DONE));
+            longIdsMigrated = true;
+            LOGGER.info("Migrated the IDs to longs");
+            return true;
+        }
     }
 
-    private BanLogEntry asBanLogEntry(Entity entity) {
-        final Instant detectedAt = Objects.requireNonNull(getProperty(entity, "detected-at"));
-        final String action = Objects.requireNonNull(getProperty(entity, "action"));
-        final Ban ban = asBan(entity);
+    /**
+     * Migrate the next {@value #MIGRATION_BATCH_SIZE} local IDs, looking the entities up directly, and skipping the
+     * deleted ones.
+     */
+    private void migrateLongIds(String name, String entityType, List<String> propertyNames, long after) {
+        entityStore.executeInExclusiveTransaction(txn -> {
+            final Entity last = txn.getAll(entityType).getLast();
+            final long lastId = last != null ? last.getId().getLocalId() : -1;
+            final int entityTypeId = last != null ? last.getId().getTypeId() : -1;
+            final long to = Math.min(lastId, after + MIGRATION_BATCH_SIZE);
+            int migrated = 0;
+            for (long localId = after + 1; localId <= to; ++localId) {
+                final Entity entity;
+                try {
+                    entity = txn.getEntity(new PersistentEntityId(entityTypeId, localId));
+                } catch (EntityRemovedInDatabaseException e) {
+                    continue;
+                }
 
-        return new BanLogEntry() {
-            @Override
-            public @NotNull Instant getDetectedAt() {
-                return detectedAt;
+                for (String propertyName : propertyNames) {
+                    final Comparable<?> value = entity.getProperty(propertyName);
+                    if (value instanceof Snowflake)
+                        entity.setProperty(propertyName, ((Snowflake) value).asLong());
+                    else if (value instanceof String)
+                        entity.setProperty(propertyName, playerIdValue((String) value));
+                }
+                ++migrated;
             }
 
-            @Override
-            public @NotNull String getAction() {
-                return action;
-            }
+            // The entities added since then are already written as longs
+            setMigrationProgress(txn, name, to < lastId ? to : MIGRATION_DONE);
+            Metrics.add("db.migration.entities", migrated);
+        });
+    }
 
-            @Override
-            public @NotNull Ban getBan() {
-                return ban;
-            }
+    private long getMigrationProgress(String name) {
+        return entityStore.computeInReadonlyTransaction(txn -> {
+            final Entity entity = txn.find(MIGRATIONS, "name", name).getFirst();
+            final Long progress = entity != null ? getProperty(entity, "progress") : null;
+            return progress != null ? progress : -1L;
+        });
+    }
 
-            @Override
-            public String toString() {
-                return new StringJoiner(", ", BanLogEntry.class.getSimpleName() + "[", "]")
-                        .add("detectedAt='" + detectedAt + "'")
-                        .add("action=" + action)
-                        .add("ban=" + ban)
-                        .toString();
-            }
-        };
+    private void setMigrationProgress(StoreTransaction txn, String name, long progress) {
+        Entity entity = txn.find(MIGRATIONS, "name", name).getFirst();
+        if (entity == null) {
+            entity = txn.newEntity(MIGRATIONS);
+            entity.setProperty("name", name);
+        }
+        entity.setProperty("progress", progress);
     }
 
-    private Ban asBan(Entity entity) {
-        return new Ban.Builder()
-                       .setId(getProperty(entity, "player-id"))
-                       .setEnactedTime(getProperty(entity, "enacted-time"))
-                       .setDuration(getProperty(entity, "duration"))
-                       .setIpPolicy(getProperty(entity, "ip-policy"))
-                       .setPlayerName(getProperty(entity, "player-name"))
-                       .setReason(getProperty(entity, "reason"))
-                       .build();
+    private void indexBans() {
+        // The index used to point at copies of the bans, it has its own copy now. The rebuild covers the outbox.
+        entityStore.executeInExclusiveTransaction(txn -> {
+            removeAllEntities(txn, UNIQUE_BAN);
+            removeAllEntities(txn, INDEX_OUTBOX);
+        });
+
+        final List<Ban> bans = entityStore.computeInReadonlyTransaction(txn -> {
+            final EntityIterable entities = txn.getAll(LOG_ENTRY);
+            return StreamSupport.stream(entities::spliterator, 0, false)
+                                .map(EntityCodecs::readBanLogEntry)
+                                .filter(banLogEntry -> "add".equals(banLogEntry.getAction()))
+                                .map(BanLogEntry::getBan)
+                                .collect(Collectors.toList());
+        });
+
+        try {
+            searchIndex.rebuild(bans);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to index bans", e);
+        }
     }
 
-    private OfflineBan asOfflineBan(Entity entity) {
-        return new OfflineBan.Builder()
-                       .setId(getProperty(entity, "player-id"))
-                       .setEnactedTime(getProperty(entity, "enacted-time"))
-                       .setDuration(getProperty(entity, "duration"))
-                       .setPlayerName(getProperty(entity, "player-name"))
-                       .setReason(getProperty(entity, "reason"))
-                       .build();
+    public Flux<Ban> getCurrentBans() {
+        return asyncMany(this::getCurrentBansSync);
     }
 
-    private boolean isSameBan(Ban ban, Entity entity) {
-        if (entity == null)
-            return false;
+    /**
+     * @return The servers the current ban of a player was last seen on, empty if there is none, or the servers were
+     * not recorded
+     */
+    public @NotNull Set<String> getBanServersSync(@NotNull String playerId) {
+        return entityStore.computeInReadonlyTransaction(txn -> {
+            final Entity entity = findPlayer(txn, CURRENT_BAN, playerId).getFirst();
+            final String servers = entity == null ? null : getProperty(entity, "servers");
+            return servers == null || servers.isEmpty() ? Set.of()
+                                                        : new TreeSet<>(List.of(servers.split(",")));
+        });
+    }
 
-        final String id = getProperty(entity, "player-id");
-        final Instant enactedTime = getProperty(entity, "enacted-time");
-        final Duration duration = getProperty(entity, "duration");
+    /**
+     * Back up the database and the search index incrementally, see {@link IncrementalBackup}.
+     *
+     * @return The manifest of the backup
+     */
+    public Path backup(IncrementalBackup backups) throws Exception {
+        return backups.backup(entityStore, searchIndex);
+    }
 
-        return Objects.equals(id, ban.getId())
-                       && Objects.equals(enactedTime, ban.getEnactedTime())
-                       && Objects.equals(duration, ban.getDuration());
+    private @Nullable Instant getTimestamp(StoreTransaction txn) {
+        final var iterable = txn.find("TIMESTAMP", "for", "current-bans");
+        return Optional.ofNullable(iterable.getFirst())
+                       .map(e -> getProperty(e, "timestamp"))
+                       .filter(Instant.class::isInstance)
+                       .map(Instant.class::cast)
+                       .orElse(null);
     }
 
-    @Contract("_, !null -> param2")
-    private Entity saveBan(Ban ban, Entity entity) {
-        setProperty(entity, "player-id", ban.getId());
-        setProperty(entity, "enacted-time", ban.getEnactedTime());
-        setProperty(entity, "duration", ban.getDuration());
-        setProperty(entity, "ip-policy", ban.getIpPolicy());
-        setProperty(entity, "player-name", ban.getPlayerName());
-        setProperty(entity, "reason", ban.getReason());
-        return entity;
+    private void setTimestamp(StoreTransaction txn, Instant timestamp) {
+        final var iterable = txn.find("TIMESTAMP", "for", "current-bans");
+        final var entity = Optional.ofNullable(iterable.getFirst())
+                                   .orElseGet(() -> {
+                                       final Entity e = txn.newEntity("TIMESTAMP");
+                                       e.setProperty("for", "current-bans");
+                                       return e;
+                                   });
+
+        entity.setProperty("timestamp", timestamp);
     }
 
-    private void saveOfflineBan(OfflineBan ban, Entity entity) {
-        setProperty(entity, "player-id", ban.getId());
-        setProperty(entity, "enacted-time", ban.getEnactedTime());
-        setProperty(entity, "duration", ban.getDuration());
-        setProperty(entity, "player-name", ban.getPlayerName());
-        setProperty(entity, "reason", ban.getReason());
+    private boolean isSameBan(Ban ban, Entity entity) {
+        if (entity == null)
+            return false;
+
+        final Ban saved = readBan(entity);
+        return Objects.equals(saved.getId(), ban.getId())
+                       && Objects.equals(saved.getEnactedTime(), ban.getEnactedTime())
+                       && Objects.equals(saved.getDuration(), ban.getDuration());
     }
 
     public boolean addMentionSync(@NotNull Mention mention) {
         LOGGER.debug("Adding mention: {}", mention);
         return entityStore.computeInExclusiveTransaction(txn -> {
-            final EntityIterable entities =
-                    txn.find(MENTIONS, "message-id", mention.getMessageId());
+            final EntityIterable entities = find(txn, MENTIONS, "message-id", mention.getMessageId());
 
             for (var entity : entities) {
-                final String playerId = getProperty(entity, "player-id");
+                final String playerId = getPlayerId(entity);
                 if (mention.getPlayerId().s64().equals(playerId))
                     return false;
             }
 
-            final Entity entity = txn.newEntity(MENTIONS);
-            entity.setProperty("player-id", mention.getPlayerId().s64());
-            entity.setProperty("guild-id", mention.getGuildId());
-            entity.setProperty("channel-id", mention.getChannelId());
-            entity.setProperty("message-id", mention.getMessageId());
-            entity.setProperty("mentioned-at", mention.getMentionedAt());
+            writeMention(txn.newEntity(MENTIONS), mention);
             return true;
         });
     }
 
+    /**
+     * Find the mentions whose metadata is missing, or was last updated before {@code staleBefore}.
+     *
+     * @param limit The maximum number of mentions
+     */
+    public Flux<Mention> findStaleMentions(@NotNull Instant staleBefore, int limit) {
+        return asyncMany(() -> entityStore.computeInReadonlyTransaction(txn -> {
+            final EntityIterable missing = txn.getAll(MENTIONS)
+                                              .minus(txn.findWithProp(MENTIONS, "metadata-updated-at"));
+            final EntityIterable stale = txn.find(MENTIONS, "metadata-updated-at", Instant.EPOCH, staleBefore);
+
+            final List<Mention> mentions = new ArrayList<>();
+            for (var entity : missing.concat(stale).take(limit)) {
+                final String playerId = Objects.requireNonNull(getPlayerId(entity));
+                SteamID.steamID(playerId)
+                       .ifPresent(steamID -> mentions.add(readMention(steamID, entity)));
+            }
+            return mentions;
+        }));
+    }
+
+    /**
+     * Replace the metadata of all the mentions in the message.
+     */
+    public Mono<Void> updateMentionMetadata(@NotNull Snowflake messageId, @NotNull MentionMetadata metadata) {
+        return asyncOne(() -> {
+            entityStore.executeInTransaction(txn -> {
+                for (var entity : find(txn, MENTIONS, "message-id", messageId)) {
+                    final String playerId = Objects.requireNonNull(getPlayerId(entity));
+                    SteamID.steamID(playerId).ifPresent(steamID -> {
+                        final Mention mention = readMention(steamID, entity);
+                        writeMention(entity, new Mention(steamID, mention.getMentionedAt(), mention.getGuildId(),
+                                                         mention.getChannelId(), messageId, metadata));
+                    });
+                }
+            });
+            return null;
+        });
+    }
+
     public Mono<Boolean> addMention(@NotNull Mention mention) {
         return asyncOne(() -> addMentionSync(mention));
     }
@@ -573,48 +1003,53 @@ public class BansDatabase implements AutoCloseable {
     public Flux<Mention> findMentions(@NotNull SteamID steamID) {
         return asyncMany(() -> entityStore.computeInReadonlyTransaction(txn -> {
             final List<Mention> mentions = new ArrayList<>();
-            final EntityIterable entities = txn.find(MENTIONS, "player-id", steamID.s64());
+            final EntityIterable entities = findPlayer(txn, MENTIONS, steamID.s64());
             for (var entity : entities) {
-                final Mention mention = asMention(steamID, entity);
+                final Mention mention = readMention(steamID, entity);
                 mentions.add(mention);
             }
             return mentions;
         }));
     }
 
-    @NotNull
-    private Mention asMention(@NotNull SteamID steamID, @NotNull Entity entity) {
-        final Instant mentionedAt = Objects.requireNonNull(getProperty(entity, "mentioned-at"));
-        final Snowflake guildId = Objects.requireNonNull(getProperty(entity, "guild-id"));
-        final Snowflake channelId = Objects.requireNonNull(getProperty(entity, "channel-id"));
-        final Snowflake messageId = Objects.requireNonNull(getProperty(entity, "message-id"));
-        return new Mention(steamID, mentionedAt, guildId, channelId, messageId);
-    }
-
-    @Contract("_, !null -> param2")
-    private Entity saveUniqueBan(UniqueBan uniqueBan, Entity entity) {
-        setProperty(entity, "ban-id", uniqueBan.id);
-        return saveBan(uniqueBan.ban, entity);
-    }
-
-    @SuppressWarnings("unchecked")
-    private <T extends Comparable<?>> T getProperty(Entity entity, String propertyName) {
-        if (!entity.getPropertyNames().contains(propertyName))
-            return null;
-        return (T) entity.getProperty(propertyName);
+    private EntityIterable find(StoreTransaction txn, String entityType, String propertyName, Snowflake value) {
+        final EntityIterable entities = txn.find(entityType, propertyName, value.asLong());
+        return longIdsMigrated ? entities : entities.union(txn.find(entityType, propertyName, value));
     }
 
-    private void setProperty(Entity entity, String propertyName, Comparable<?> value) {
-        if (value != null)
-            entity.setProperty(propertyName, value);
+    private EntityIterable findPlayer(StoreTransaction txn, String entityType, String playerId) {
+        final Comparable<?> value = playerIdValue(playerId);
+        final EntityIterable entities = txn.find(entityType, "player-id", value);
+        return longIdsMigrated || value instanceof String ? entities
+                                                          : entities.union(txn.find(entityType, "player-id", playerId));
     }
 
     @Override
     public void close() throws IOException {
+        closing = true;
+        eventSink.complete();
+        background.shutdown();
+        try {
+            if (!background.awaitTermination(1, TimeUnit.MINUTES))
+                LOGGER.warn("Timed out waiting for the background tasks, they will resume on the next start");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         entityStore.close();
         searchIndex.close();
     }
 
+    public @Nullable Snowflake getLastProcessedMessageIdSync(@NotNull Snowflake channelId) {
+        return entityStore.computeInReadonlyTransaction(txn -> {
+            final Entity entity = find(txn, CHANNELS, "channel-id", channelId).getFirst();
+            return entity != null ? getSnowflake(entity, "latest-message-id") : null;
+        });
+    }
+
+    public Mono<Snowflake> getLastProcessedMessageId(@NotNull Snowflake channelId) {
+        return asyncOne(() -> getLastProcessedMessageIdSync(channelId));
+    }
+
     /**
      * Set the last message ID of the specified channel if the predicate isNewerThan returns {@code true} for the
      * old ID.
@@ -631,10 +1066,10 @@ public class BansDatabase implements AutoCloseable {
 
         return asyncOne(() -> entityStore.computeInExclusiveTransaction(txn -> {
             LOGGER.info("setLastProcessedMessageId({}, {})", channelId, messageId);
-            final Entity first = txn.find(CHANNELS, "channel-id", channelId).getFirst();
+            final Entity first = find(txn, CHANNELS, "channel-id", channelId).getFirst();
             final Optional<Snowflake> oldMessageIdOpt =
                     Optional.ofNullable(first)
-                            .map(entity -> getProperty(entity, "latest-message-id"));
+                            .map(entity -> getSnowflake(entity, "latest-message-id"));
 
             final boolean isNewer = isNewerThan.test(oldMessageIdOpt.orElse(null));
             LOGGER.info("isNewerThan {} returned {}", oldMessageIdOpt, isNewer);
@@ -645,8 +1080,8 @@ public class BansDatabase implements AutoCloseable {
                 first.delete();
 
             final var entity = txn.newEntity(CHANNELS);
-            setProperty(entity, "channel-id", channelId);
-            setProperty(entity, "latest-message-id", messageId);
+            setSnowflake(entity, "channel-id", channelId);
+            setSnowflake(entity, "latest-message-id", messageId);
 
             LOGGER.info("Set the last processed message for channel {} to {}", channelId, messageId);
             return oldMessageIdOpt;
@@ -690,45 +1125,13 @@ public class BansDatabase implements AutoCloseable {
         default int numRemoved() {
             return numRemovedLong() + numRemovedShort();
         }
-    }
-
-    static class UniqueBan {
-        private final @NotNull String id;
-        private final @NotNull Ban ban;
-
-        public UniqueBan(@NotNull Ban ban) {
-            this.id = MD5(String.format("%s|%s|%s|%s|%s", ban.getId(), ban.getEnactedTime(), ban.getDuration(),
-                                        ban.getPlayerName(), ban.getReason()));
-            this.ban = ban;
-        }
-
-        public @NotNull String getId() {
-            return id;
-        }
-
-        public @NotNull Ban getBan() {
-            return ban;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            final UniqueBan uniqueBan = (UniqueBan) o;
-            return id.equals(uniqueBan.id);
-        }
 
-        @Override
-        public int hashCode() {
-            return id.hashCode();
-        }
-
-        @Override
-        public String toString() {
-            return new StringJoiner(", ", UniqueBan.class.getSimpleName() + "[", "]")
-                           .add("id='" + id + "'")
-                           .add("ban=" + ban)
-                           .toString();
+        /**
+         * @return The servers missing each ban seen on only some of the servers, or having another copy of a ban
+         * than the stored one, by player ID. Empty when the bans of a single server are stored.
+         */
+        default @NotNull Map<String, Set<String>> divergentBans() {
+            return Map.of();
         }
     }
 }
@@ -0,0 +1,428 @@
+package cbm.server.db;
+
+import cbm.server.SteamID;
+import cbm.server.model.Ban;
+import cbm.server.model.Mention;
+import cbm.server.model.MentionMetadata;
+import cbm.server.model.OfflineBan;
+import discord4j.common.util.Snowflake;
+import jetbrains.exodus.entitystore.Entity;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.StringJoiner;
+
+/**
+ * Reads and writes the bans, offline bans, ban log entries and mentions stored in entities.
+ * <p>
+ * Each entity has a {@code record} blob with all the fields, written and read back in one go, next to the properties
+ * it is looked up by. The entities written by older versions have no record, their fields are read from the
+ * properties in one pass.
+ */
+final class EntityCodecs {
+    static final String RECORD = "record";
+
+    private static final int HAS_ID = 1;
+    private static final int HAS_ENACTED_TIME = 1 << 1;
+    private static final int HAS_DURATION = 1 << 2;
+    private static final int HAS_IP_POLICY = 1 << 3;
+    private static final int HAS_PLAYER_NAME = 1 << 4;
+    private static final int HAS_REASON = 1 << 5;
+
+    private static final int HAS_METADATA = 1;
+    private static final int HAS_AUTHOR_ID = 1 << 1;
+    private static final int HAS_AUTHOR_NAME = 1 << 2;
+    private static final int HAS_AUTHOR_AVATAR_URL = 1 << 3;
+    private static final int HAS_AUTHOR_COLOR = 1 << 4;
+    private static final int HAS_CHANNEL_NAME = 1 << 5;
+
+    private static final List<String> LEGACY_MENTION_PROPERTIES =
+            List.of("mentioned-at", "guild-id", "channel-id", "author-id", "author-name", "author-avatar-url",
+                    "author-color", "channel-name");
+
+    private EntityCodecs() {
+    }
+
+    static @NotNull Ban readBan(@NotNull Entity entity) {
+        final byte[] record = getRecord(entity);
+        if (record != null)
+            return decode(record, EntityCodecs::readBan);
+
+        return new Ban.Builder()
+                       .setId(getPlayerId(entity))
+                       .setEnactedTime(getProperty(entity, "enacted-time"))
+                       .setDuration(getProperty(entity, "duration"))
+                       .setIpPolicy(getProperty(entity, "ip-policy"))
+                       .setPlayerName(getProperty(entity, "player-name"))
+                       .setReason(getProperty(entity, "reason"))
+                       .build();
+    }
+
+    static void writeBan(@NotNull Entity entity, @NotNull Ban ban) {
+        setPlayerId(entity, ban.getId());
+        setRecord(entity, encode(output -> writeBan(output, ban)));
+    }
+
+    static @NotNull OfflineBan readOfflineBan(@NotNull Entity entity) {
+        final byte[] record = getRecord(entity);
+        if (record != null)
+            return decode(record, EntityCodecs::readOfflineBan);
+
+        return new OfflineBan.Builder()
+                       .setId(getPlayerId(entity))
+                       .setEnactedTime(getProperty(entity, "enacted-time"))
+                       .setDuration(getProperty(entity, "duration"))
+                       .setPlayerName(getProperty(entity, "player-name"))
+                       .setReason(getProperty(entity, "reason"))
+                       .build();
+    }
+
+    static void writeOfflineBan(@NotNull Entity entity, @NotNull OfflineBan offlineBan) {
+        setPlayerId(entity, offlineBan.getId());
+        setRecord(entity, encode(output -> writeOfflineBan(output, offlineBan)));
+    }
+
+    static @NotNull BansDatabase.BanLogEntry readBanLogEntry(@NotNull Entity entity) {
+        final byte[] record = getRecord(entity);
+        if (record != null)
+            return decode(record, input -> banLogEntry(Instant.ofEpochSecond(input.readZLong()),
+                                                       input.readString(),
+                                                       readBan(input)));
+
+        final Instant detectedAt = Objects.requireNonNull(getProperty(entity, "detected-at"));
+        final String action = Objects.requireNonNull(getProperty(entity, "action"));
+        return banLogEntry(detectedAt, action, readBan(entity));
+    }
+
+    /**
+     * The detection time is also a property, to find the entries by time.
+     */
+    static void writeBanLogEntry(@NotNull Entity entity, @NotNull Instant detectedAt, @NotNull String action,
+                                 @NotNull Ban ban) {
+
+        setPlayerId(entity, ban.getId());
+        entity.setProperty("detected-at", detectedAt);
+        setRecord(entity, encode(output -> {
+            output.writeZLong(detectedAt.getEpochSecond());
+            output.writeString(action);
+            writeBan(output, ban);
+        }));
+    }
+
+    static @NotNull Mention readMention(@NotNull SteamID steamID, @NotNull Entity entity) {
+        final byte[] record = getRecord(entity);
+        if (record != null)
+            return decode(record, input -> readMention(steamID, input));
+
+        final Instant mentionedAt = Objects.requireNonNull(getProperty(entity, "mentioned-at"));
+        final Snowflake guildId = Objects.requireNonNull(getSnowflake(entity, "guild-id"));
+        final Snowflake channelId = Objects.requireNonNull(getSnowflake(entity, "channel-id"));
+        final Snowflake messageId = Objects.requireNonNull(getSnowflake(entity, "message-id"));
+        return new Mention(steamID, mentionedAt, guildId, channelId, messageId, readMentionMetadata(entity));
+    }
+
+    private static @Nullable MentionMetadata readMentionMetadata(Entity entity) {
+        final Instant updatedAt = getProperty(entity, "metadata-updated-at");
+        if (updatedAt == null)
+            return null;
+
+        return new MentionMetadata.Builder()
+                       .setAuthorId(getSnowflake(entity, "author-id"))
+                       .setAuthorName(getProperty(entity, "author-name"))
+                       .setAuthorAvatarUrl(getProperty(entity, "author-avatar-url"))
+                       .setAuthorColor(getProperty(entity, "author-color"))
+                       .setChannelName(getProperty(entity, "channel-name"))
+                       .setUpdatedAt(updatedAt)
+                       .build();
+    }
+
+    /**
+     * The player and message IDs, and the time the metadata was updated, are also properties, to find the mentions
+     * by them. The other properties of a mention written by an older version are deleted, the record replaces them.
+     */
+    static void writeMention(@NotNull Entity entity, @NotNull Mention mention) {
+        setPlayerId(entity, mention.getPlayerId().s64());
+        setSnowflake(entity, "message-id", mention.getMessageId());
+        final MentionMetadata metadata = mention.getMetadata();
+        setOrDeleteProperty(entity, "metadata-updated-at", metadata != null ? metadata.getUpdatedAt() : null);
+        if (entity.getProperty("mentioned-at") != null)
+            for (String propertyName : LEGACY_MENTION_PROPERTIES)
+                entity.deleteProperty(propertyName);
+        setRecord(entity, encode(output -> writeMention(output, mention)));
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T extends Comparable<?>> @Nullable T getProperty(@NotNull Entity entity, @NotNull String propertyName) {
+        return (T) entity.getProperty(propertyName);
+    }
+
+    static void setProperty(@NotNull Entity entity, @NotNull String propertyName, @Nullable Comparable<?> value) {
+        if (value != null)
+            entity.setProperty(propertyName, value);
+    }
+
+    static void setOrDeleteProperty(@NotNull Entity entity, @NotNull String propertyName,
+                                    @Nullable Comparable<?> value) {
+
+        if (value != null)
+            entity.setProperty(propertyName, value);
+        else
+            entity.deleteProperty(propertyName);
+    }
+
+    /**
+     * Snowflakes are stored as {@link Long}s, older versions stored them as strings, see
+     * {@link BansDatabase#migrateLongIds}.
+     */
+    static @Nullable Snowflake getSnowflake(@NotNull Entity entity, @NotNull String propertyName) {
+        final Comparable<?> value = getProperty(entity, propertyName);
+        return value instanceof Long ? Snowflake.of((Long) value) : (Snowflake) value;
+    }
+
+    static void setSnowflake(@NotNull Entity entity, @NotNull String propertyName, @NotNull Snowflake value) {
+        entity.setProperty(propertyName, value.asLong());
+    }
+
+    /**
+     * Player IDs are stored as {@link Long} steamID64s, older versions stored them as strings, see
+     * {@link BansDatabase#migrateLongIds}.
+     */
+    static @Nullable String getPlayerId(@NotNull Entity entity) {
+        final Comparable<?> value = getProperty(entity, "player-id");
+        return value instanceof Long ? value.toString() : (String) value;
+    }
+
+    static void setPlayerId(@NotNull Entity entity, @Nullable String playerId) {
+        if (playerId != null)
+            entity.setProperty("player-id", playerIdValue(playerId));
+    }
+
+    /**
+     * @return The steamID64 of the player ID, or the ID itself if it is not one
+     */
+    static @NotNull Comparable<?> playerIdValue(@NotNull String playerId) {
+        final Optional<SteamID> steamID = SteamID.steamID(playerId);
+        return steamID.isPresent() && steamID.get().s64().equals(playerId) ? steamID.get().steamID64() : playerId;
+    }
+
+    /**
+     * Write a ban as a flags byte for the fields present, followed by the fields. The times are in seconds, like in
+     * the properties.
+     */
+    static void writeBan(@NotNull DataOutput output, @NotNull Ban ban) throws IOException {
+        final int flags = (ban.getId() != null ? HAS_ID : 0)
+                                  | (ban.getEnactedTime() != null ? HAS_ENACTED_TIME : 0)
+                                  | (ban.getDuration() != null ? HAS_DURATION : 0)
+                                  | (ban.getIpPolicy() != null ? HAS_IP_POLICY : 0)
+                                  | (ban.getPlayerName() != null ? HAS_PLAYER_NAME : 0)
+                                  | (ban.getReason() != null ? HAS_REASON : 0);
+
+        output.writeByte((byte) flags);
+        if (ban.getId() != null)
+            output.writeString(ban.getId());
+        if (ban.getEnactedTime() != null)
+            output.writeZLong(ban.getEnactedTime().getEpochSecond());
+        if (ban.getDuration() != null)
+            output.writeZLong(ban.getDuration().toSeconds());
+        if (ban.getIpPolicy() != null)
+            output.writeString(ban.getIpPolicy());
+        if (ban.getPlayerName() != null)
+            output.writeString(ban.getPlayerName());
+        if (ban.getReason() != null)
+            output.writeString(ban.getReason());
+    }
+
+    static @NotNull Ban readBan(@NotNull DataInput input) throws IOException {
+        final int flags = input.readByte();
+        final Ban.Builder builder = new Ban.Builder();
+        if ((flags & HAS_ID) != 0)
+            builder.setId(input.readString());
+        if ((flags & HAS_ENACTED_TIME) != 0)
+            builder.setEnactedTime(Instant.ofEpochSecond(input.readZLong()));
+        if ((flags & HAS_DURATION) != 0)
+            builder.setDuration(Duration.ofSeconds(input.readZLong()));
+        if ((flags & HAS_IP_POLICY) != 0)
+            builder.setIpPolicy(input.readString());
+        if ((flags & HAS_PLAYER_NAME) != 0)
+            builder.setPlayerName(input.readString());
+        if ((flags & HAS_REASON) != 0)
+            builder.setReason(input.readString());
+        return builder.build();
+    }
+
+    /**
+     * Offline bans are written like bans, without an IP policy.
+     */
+    private static void writeOfflineBan(DataOutput output, OfflineBan offlineBan) throws IOException {
+        final int flags = (offlineBan.getId() != null ? HAS_ID : 0)
+                                  | (offlineBan.getEnactedTime() != null ? HAS_ENACTED_TIME : 0)
+                                  | (offlineBan.getDuration() != null ? HAS_DURATION : 0)
+                                  | (offlineBan.getPlayerName() != null ? HAS_PLAYER_NAME : 0)
+                                  | (offlineBan.getReason() != null ? HAS_REASON : 0);
+
+        output.writeByte((byte) flags);
+        if (offlineBan.getId() != null)
+            output.writeString(offlineBan.getId());
+        if (offlineBan.getEnactedTime() != null)
+            output.writeZLong(offlineBan.getEnactedTime().getEpochSecond());
+        if (offlineBan.getDuration() != null)
+            output.writeZLong(offlineBan.getDuration().toSeconds());
+        if (offlineBan.getPlayerName() != null)
+            output.writeString(offlineBan.getPlayerName());
+        if (offlineBan.getReason() != null)
+            output.writeString(offlineBan.getReason());
+    }
+
+    private static OfflineBan readOfflineBan(DataInput input) throws IOException {
+        final int flags = input.readByte();
+        final OfflineBan.Builder builder = new OfflineBan.Builder();
+        if ((flags & HAS_ID) != 0)
+            builder.setId(input.readString());
+        if ((flags & HAS_ENACTED_TIME) != 0)
+            builder.setEnactedTime(Instant.ofEpochSecond(input.readZLong()));
+        if ((flags & HAS_DURATION) != 0)
+            builder.setDuration(Duration.ofSeconds(input.readZLong()));
+        if ((flags & HAS_PLAYER_NAME) != 0)
+            builder.setPlayerName(input.readString());
+        if ((flags & HAS_REASON) != 0)
+            builder.setReason(input.readString());
+        return builder.build();
+    }
+
+    private static void writeMention(DataOutput output, Mention mention) throws IOException {
+        final MentionMetadata metadata = mention.getMetadata();
+        final int flags = metadata == null ? 0
+                                           : HAS_METADATA
+                                                     | (metadata.getAuthorId() != null ? HAS_AUTHOR_ID : 0)
+                                                     | (metadata.getAuthorName() != null ? HAS_AUTHOR_NAME : 0)
+                                                     | (metadata.getAuthorAvatarUrl() != null ? HAS_AUTHOR_AVATAR_URL
+                                                                                              : 0)
+                                                     | (metadata.getAuthorColor() != null ? HAS_AUTHOR_COLOR : 0)
+                                                     | (metadata.getChannelName() != null ? HAS_CHANNEL_NAME : 0);
+
+        output.writeByte((byte) flags);
+        output.writeZLong(mention.getMentionedAt().getEpochSecond());
+        output.writeLong(mention.getGuildId().asLong());
+        output.writeLong(mention.getChannelId().asLong());
+        output.writeLong(mention.getMessageId().asLong());
+        if (metadata == null)
+            return;
+
+        output.writeZLong(metadata.getUpdatedAt().getEpochSecond());
+        if (metadata.getAuthorId() != null)
+            output.writeLong(metadata.getAuthorId().asLong());
+        if (metadata.getAuthorName() != null)
+            output.writeString(metadata.getAuthorName());
+        if (metadata.getAuthorAvatarUrl() != null)
+            output.writeString(metadata.getAuthorAvatarUrl());
+        if (metadata.getAuthorColor() != null)
+            output.writeInt(metadata.getAuthorColor());
+        if (metadata.getChannelName() != null)
+            output.writeString(metadata.getChannelName());
+    }
+
+    private static Mention readMention(SteamID steamID, DataInput input) throws IOException {
+        final int flags = input.readByte();
+        final Instant mentionedAt = Instant.ofEpochSecond(input.readZLong());
+        final Snowflake guildId = Snowflake.of(input.readLong());
+        final Snowflake channelId = Snowflake.of(input.readLong());
+        final Snowflake messageId = Snowflake.of(input.readLong());
+        if ((flags & HAS_METADATA) == 0)
+            return new Mention(steamID, mentionedAt, guildId, channelId, messageId, null);
+
+        final MentionMetadata.Builder builder = new MentionMetadata.Builder()
+                                                        .setUpdatedAt(Instant.ofEpochSecond(input.readZLong()));
+        if ((flags & HAS_AUTHOR_ID) != 0)
+            builder.setAuthorId(Snowflake.of(input.readLong()));
+        if ((flags & HAS_AUTHOR_NAME) != 0)
+            builder.setAuthorName(input.readString());
+        if ((flags & HAS_AUTHOR_AVATAR_URL) != 0)
+            builder.setAuthorAvatarUrl(input.readString());
+        if ((flags & HAS_AUTHOR_COLOR) != 0)
+            builder.setAuthorColor(input.readInt());
+        if ((flags & HAS_CHANNEL_NAME) != 0)
+            builder.setChannelName(input.readString());
+        return new Mention(steamID, mentionedAt, guildId, channelId, messageId, builder.build());
+    }
+
+    private static BansDatabase.BanLogEntry banLogEntry(Instant detectedAt, String action, Ban ban) {
+        return new BansDatabase.BanLogEntry() {
+            @Override
+            public @NotNull Instant getDetectedAt() {
+                return detectedAt;
+            }
+
+            @Override
+            public @NotNull String getAction() {
+                return action;
+            }
+
+            @Override
+            public @NotNull Ban getBan() {
+                return ban;
+            }
+
+            @Override
+            public String toString() {
+                return new StringJoiner(", ", BansDatabase.BanLogEntry.class.getSimpleName() + "[", "]")
+                        .add("detectedAt='" + detectedAt + "'")
+                        .add("action=" + action)
+                        .add("ban=" + ban)
+                        .toString();
+            }
+        };
+    }
+
+    private static byte @Nullable [] getRecord(Entity entity) {
+        try (final InputStream blob = entity.getBlob(RECORD)) {
+            return blob != null ? blob.readAllBytes() : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void setRecord(Entity entity, byte[] record) {
+        entity.setBlob(RECORD, new ByteArrayInputStream(record));
+    }
+
+    private static byte[] encode(Writer writer) {
+        final ByteBuffersDataOutput output = new ByteBuffersDataOutput();
+        try {
+            writer.write(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toArrayCopy();
+    }
+
+    private static <T> T decode(byte[] record, Reader<T> reader) {
+        try {
+            return reader.read(new ByteArrayDataInput(record));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Writer {
+        void write(DataOutput output) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Reader<T> {
+        T read(DataInput input) throws IOException;
+    }
+}
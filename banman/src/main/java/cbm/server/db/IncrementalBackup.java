@@ -0,0 +1,414 @@
+package cbm.server.db;
+
+import cbm.server.Metrics;
+import cbm.server.TokenBucket;
+import jetbrains.exodus.backup.BackupStrategy;
+import jetbrains.exodus.backup.VirtualFileDescriptor;
+import jetbrains.exodus.entitystore.PersistentEntityStore;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Incremental backups of the database and its search index.
+ * <p>
+ * The Xodus log files are append-only, and a Lucene file never changes once written, so each file is copied once to
+ * {@code files/}, and a backup is a manifest listing the files it is made of, with their SHA-256:
+ * <ul>
+ *     <li>{@code files/xodus/<path>@<length>}: the first {@code length} bytes of a Xodus file. Only the last log file
+ *     grows, so a new backup copies it again, and the log files written since the previous backup.</li>
+ *     <li>{@code files/lucene/<name>@<length>@<checksum>}: a file of a Lucene commit, pinned while it is copied.
+ *     The names of the files are reused when the index is created again, hence the length and the checksum of
+ *     the Lucene footer.</li>
+ *     <li>{@code <yyyyMMdd-HHmmss>.manifest}: one line per file, {@code <area> <path> <length> <sha256>}, and
+ *     {@code <checksum>} for Lucene. The Lucene files of older backups have no checksum, and are stored by name.</li>
+ * </ul>
+ * The copies are throttled, so a backup doesn't starve the bot of disk bandwidth. Only the latest backups are kept,
+ * the files no backup refers to any more are deleted.
+ */
+public class IncrementalBackup {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String XODUS = "xodus";
+    private static final String LUCENE = "lucene";
+    private static final String FILES = "files";
+    private static final String MANIFEST_SUFFIX = ".manifest";
+    private static final DateTimeFormatter BACKUP_NAME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    public static final long DEFAULT_BYTES_PER_SECOND = 16L * 1024 * 1024;
+    public static final int DEFAULT_KEEP = 14;
+
+    private final Path dir;
+    private final int keep;
+    private final TokenBucket throttle;
+
+    /**
+     * @param dir            The backups directory
+     * @param bytesPerSecond The maximum copy rate
+     * @param keep           The number of backups to keep
+     */
+    public IncrementalBackup(@NotNull Path dir, long bytesPerSecond, int keep) {
+        if (keep < 1)
+            throw new IllegalArgumentException("Invalid number of backups to keep: " + keep);
+
+        this.dir = dir;
+        this.keep = keep;
+        // One token per chunk, and a burst of a second's worth
+        final long chunksPerSecond = Math.max(1, bytesPerSecond / CHUNK_SIZE);
+        final long refillNanos = Math.max(1, Duration.ofSeconds(1).toNanos() / chunksPerSecond);
+        this.throttle = new TokenBucket((int) Math.min(Integer.MAX_VALUE, chunksPerSecond),
+                                        Duration.ofNanos(refillNanos));
+    }
+
+    /**
+     * Back up the files of {@code store} and {@code index} that are not in the backups directory yet, then apply the
+     * retention policy.
+     *
+     * @return The manifest of the new backup
+     */
+    public @NotNull Path backup(@NotNull PersistentEntityStore store, @NotNull SearchIndex index) throws Exception {
+        final Map<String, ManifestEntry> known = readManifests().stream()
+                                                                .flatMap(this::entries)
+                                                                .collect(Collectors.toMap(ManifestEntry::storedPath,
+                                                                                          entry -> entry,
+                                                                                          (u, v) -> u));
+        final List<ManifestEntry> entries = new ArrayList<>();
+        final Stats stats = new Stats();
+
+        final BackupStrategy strategy = store.getBackupStrategy();
+        strategy.beforeBackup();
+        try {
+            for (VirtualFileDescriptor file : strategy.getContents()) {
+                if (strategy.isInterrupted())
+                    throw new IOException("The backup of the database was interrupted");
+                if (!file.hasContent())
+                    continue;
+
+                final long length = Math.min(file.getFileSize(), strategy.acceptFile(file));
+                if (length <= 0)
+                    continue;
+
+                final String path = file.getPath() + file.getName();
+                entries.add(copy(XODUS, path, length, null, known, stats, () -> file.getInputStream()));
+            }
+        } catch (Exception e) {
+            strategy.onError(e);
+            throw e;
+        } finally {
+            strategy.afterBackup();
+        }
+
+        final IndexCommit commit = index.snapshot();
+        try {
+            for (String name : commit.getFileNames()) {
+                final Path file = index.getPath().resolve(name);
+                final String checksum;
+                try (final IndexInput input = commit.getDirectory().openInput(name, IOContext.READONCE)) {
+                    checksum = Long.toHexString(CodecUtil.retrieveChecksum(input));
+                }
+                entries.add(copy(LUCENE, name, Files.size(file), checksum, known, stats,
+                                 () -> Files.newInputStream(file)));
+            }
+        } finally {
+            index.release(commit);
+        }
+
+        final Path manifest = writeManifest(entries);
+        LOGGER.info("Backup {}: {} files, {} copied ({} bytes), {} already backed up",
+                    manifest.getFileName(), entries.size(), stats.copied, stats.copiedBytes, stats.skipped);
+        Metrics.add("backup.bytes", stats.copiedBytes);
+
+        applyRetention();
+        return manifest;
+    }
+
+    /**
+     * @return The names of the backups, oldest first
+     */
+    public @NotNull List<String> list() throws IOException {
+        return readManifests().stream()
+                              .map(manifest -> backupName(manifest.getFileName().toString()))
+                              .collect(Collectors.toList());
+    }
+
+    /**
+     * Restore a backup into an empty directory, checking the SHA-256 of every file. The database is then opened from
+     * {@code target}.
+     *
+     * @param name The backup name, or {@code null} for the latest one
+     * @throws IOException If {@code target} is not empty, there is no such backup, or a file doesn't match its
+     *                     checksum
+     */
+    public void restore(String name, @NotNull Path target) throws IOException {
+        if (Files.isDirectory(target))
+            try (final Stream<Path> files = Files.list(target)) {
+                if (files.findAny().isPresent())
+                    throw new IOException("Not restoring into a non-empty directory: " + target);
+            }
+
+        final List<Path> manifests = readManifests();
+        final Path manifest;
+        if (name == null) {
+            if (manifests.isEmpty())
+                throw new IOException("No backups in " + dir);
+            manifest = manifests.get(manifests.size() - 1);
+        } else {
+            manifest = dir.resolve(name + MANIFEST_SUFFIX);
+            if (!manifests.contains(manifest))
+                throw new IOException("No such backup: " + name);
+        }
+
+        LOGGER.info("Restoring {} into {}", manifest.getFileName(), target);
+        final List<ManifestEntry> entries = entries(manifest).collect(Collectors.toList());
+        for (ManifestEntry entry : entries) {
+            final Path to = target.resolve(entry.area.equals(LUCENE) ? LUCENE + "/" + entry.path : entry.path);
+            Files.createDirectories(to.getParent());
+            final String sha256;
+            try (final InputStream input = Files.newInputStream(dir.resolve(entry.storedPath()));
+                 final OutputStream output = Files.newOutputStream(to)) {
+                sha256 = copy(input, output, entry.length);
+            }
+            if (!sha256.equals(entry.sha256))
+                throw new IOException("Checksum mismatch for " + entry.storedPath() + ", the backup is corrupt");
+        }
+        LOGGER.info("Restored {} files", entries.size());
+    }
+
+    @FunctionalInterface
+    private interface InputStreamSupplier {
+        InputStream open() throws IOException;
+    }
+
+    private ManifestEntry copy(String area, String path, long length, String checksum,
+                               Map<String, ManifestEntry> known, Stats stats, InputStreamSupplier source)
+            throws IOException {
+
+        final ManifestEntry entry = new ManifestEntry(area, path, length, null, checksum);
+        final Path stored = dir.resolve(entry.storedPath());
+        final ManifestEntry previous = known.get(entry.storedPath());
+        if (previous != null && Files.exists(stored)) {
+            ++stats.skipped;
+            return previous;
+        }
+
+        Files.createDirectories(stored.getParent());
+        final Path temp = stored.resolveSibling(stored.getFileName() + ".tmp");
+        final String sha256;
+        try (final InputStream input = source.open();
+             final OutputStream output = Files.newOutputStream(temp)) {
+            sha256 = copy(input, output, length);
+        }
+        Files.move(temp, stored, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        ++stats.copied;
+        stats.copiedBytes += length;
+        return new ManifestEntry(area, path, length, sha256, checksum);
+    }
+
+    /**
+     * Copy {@code length} bytes, at the throttled rate.
+     *
+     * @return The SHA-256 of the bytes
+     */
+    private String copy(InputStream input, OutputStream output, long length) throws IOException {
+        final MessageDigest digest = sha256();
+        final byte[] buffer = new byte[CHUNK_SIZE];
+        long remaining = length;
+        while (remaining > 0) {
+            sleep(throttle.reserve());
+            final int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1)
+                throw new IOException("Unexpected end of file, " + remaining + " bytes missing");
+            output.write(buffer, 0, read);
+            digest.update(buffer, 0, read);
+            remaining -= read;
+        }
+        return hex(digest.digest());
+    }
+
+    private Path writeManifest(List<ManifestEntry> entries) throws IOException {
+        final String name = BACKUP_NAME.format(ZonedDateTime.now(ZoneOffset.UTC));
+        Path manifest = dir.resolve(name + MANIFEST_SUFFIX);
+        for (int i = 1; Files.exists(manifest); ++i)
+            manifest = dir.resolve(name + "_" + i + MANIFEST_SUFFIX);
+
+        final Path temp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        Files.write(temp, entries.stream().map(ManifestEntry::toLine).collect(Collectors.toList()),
+                    StandardCharsets.UTF_8);
+        Files.move(temp, manifest, StandardCopyOption.ATOMIC_MOVE);
+        return manifest;
+    }
+
+    /**
+     * Delete the oldest backups beyond {@link #keep}, then the files none of the remaining ones refers to.
+     */
+    private void applyRetention() throws IOException {
+        final List<Path> manifests = readManifests();
+        for (Path manifest : manifests.subList(0, Math.max(0, manifests.size() - keep))) {
+            LOGGER.info("Deleting backup {}", manifest.getFileName());
+            Files.delete(manifest);
+        }
+
+        final Set<Path> referenced = new HashSet<>();
+        for (Path manifest : readManifests())
+            entries(manifest).forEach(entry -> referenced.add(dir.resolve(entry.storedPath())));
+
+        final Path files = dir.resolve(FILES);
+        if (Files.notExists(files))
+            return;
+
+        final List<Path> unreferenced;
+        try (final Stream<Path> stream = Files.walk(files)) {
+            unreferenced = stream.filter(Files::isRegularFile)
+                                 .filter(file -> !referenced.contains(file))
+                                 .collect(Collectors.toList());
+        }
+        for (Path file : unreferenced)
+            Files.delete(file);
+        if (!unreferenced.isEmpty())
+            LOGGER.info("Deleted {} files no backup refers to", unreferenced.size());
+    }
+
+    /**
+     * @return The manifests, oldest first
+     */
+    private List<Path> readManifests() throws IOException {
+        if (Files.notExists(dir))
+            return List.of();
+
+        try (final Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(MANIFEST_SUFFIX))
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+    }
+
+    private Stream<ManifestEntry> entries(Path manifest) {
+        try {
+            return Files.readAllLines(manifest, StandardCharsets.UTF_8)
+                        .stream()
+                        .filter(line -> !line.isBlank())
+                        .map(ManifestEntry::parse);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read the backup manifest {}", manifest, e);
+            return Stream.empty();
+        }
+    }
+
+    private static String backupName(String manifestFileName) {
+        return manifestFileName.substring(0, manifestFileName.length() - MANIFEST_SUFFIX.length());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+
+    private static void sleep(Duration delay) throws IOException {
+        if (delay.isZero())
+            return;
+
+        try {
+            Thread.sleep(delay.toMillis(), delay.toNanosPart() % 1_000_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+    }
+
+    private static final class Stats {
+        private int copied;
+        private int skipped;
+        private long copiedBytes;
+    }
+
+    private static final class ManifestEntry {
+        private final String area;
+        private final String path;
+        private final long length;
+        private final String sha256;
+        /**
+         * The checksum of the Lucene footer, {@code null} for the Xodus files and the Lucene files of older backups.
+         */
+        private final String checksum;
+
+        private ManifestEntry(String area, String path, long length, String sha256, String checksum) {
+            this.area = area;
+            this.path = path;
+            this.length = length;
+            this.sha256 = sha256;
+            this.checksum = checksum;
+        }
+
+        static ManifestEntry parse(String line) {
+            final String[] fields = line.split(" ");
+            if (fields.length != 4 && (fields.length != 5 || !fields[0].equals(LUCENE))
+                || (!fields[0].equals(XODUS) && !fields[0].equals(LUCENE)))
+                throw new IllegalArgumentException("Invalid manifest line: " + line);
+            return new ManifestEntry(fields[0], fields[1], Long.parseLong(fields[2]), fields[3],
+                                     fields.length == 5 ? fields[4] : null);
+        }
+
+        String toLine() {
+            final String line = String.join(" ", area, path, Long.toString(length), sha256);
+            return checksum == null ? line : line + " " + checksum;
+        }
+
+        /**
+         * @return The path of the copy, relative to the backups directory
+         */
+        String storedPath() {
+            if (area.equals(XODUS))
+                return FILES + "/" + XODUS + "/" + path + "@" + length;
+            return checksum == null ? FILES + "/" + LUCENE + "/" + path
+                                    : FILES + "/" + LUCENE + "/" + path + "@" + length + "@" + checksum;
+        }
+
+        @Override
+        public String toString() {
+            return new StringJoiner(", ", ManifestEntry.class.getSimpleName() + "[", "]")
+                           .add("area='" + area + "'")
+                           .add("path='" + path + "'")
+                           .add("length=" + length)
+                           .add("sha256='" + sha256 + "'")
+                           .add("checksum='" + checksum + "'")
+                           .toString();
+        }
+    }
+}
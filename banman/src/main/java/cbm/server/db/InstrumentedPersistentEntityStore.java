@@ -0,0 +1,341 @@
+package cbm.server.db;
+
+import cbm.server.Metrics;
+import jetbrains.exodus.backup.BackupStrategy;
+import jetbrains.exodus.bindings.ComparableBinding;
+import jetbrains.exodus.bindings.ComparableValueType;
+import jetbrains.exodus.core.execution.MultiThreadDelegatingJobProcessor;
+import jetbrains.exodus.entitystore.BlobVault;
+import jetbrains.exodus.entitystore.Entity;
+import jetbrains.exodus.entitystore.EntityId;
+import jetbrains.exodus.entitystore.PersistentEntityStore;
+import jetbrains.exodus.entitystore.PersistentEntityStoreConfig;
+import jetbrains.exodus.entitystore.PersistentEntityStoreImpl;
+import jetbrains.exodus.entitystore.StoreTransaction;
+import jetbrains.exodus.entitystore.StoreTransactionalComputable;
+import jetbrains.exodus.entitystore.StoreTransactionalExecutable;
+import jetbrains.exodus.env.Environment;
+import jetbrains.exodus.management.Statistics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PersistentEntityStore wrapper, that delegates all its methods to its base instance, and counts the transactions
+ * run through {@code executeIn*} and {@code computeIn*} in {@link Metrics}, per type ({@code read}, {@code write}
+ * or {@code exclusive}): {@code db.txn.<type>}, {@code db.txn.<type>.micros}, {@code db.txn.<type>.errors}, the
+ * transactions that threw, and {@code db.txn.<type>.retries}, the number of times Xodus ran a transaction again
+ * after a conflict. Transactions started with {@code begin*} are only counted.
+ * <p>
+ * The custom property types are registered once, with {@link #registerCustomPropertyTypes}.
+ */
+class InstrumentedPersistentEntityStore implements PersistentEntityStore {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String PROPERTY_TYPE = "PropertyType";
+    private static final Duration SLOW_TRANSACTION = Duration.ofSeconds(1);
+
+    private final PersistentEntityStoreImpl base;
+    private final Map<String, Integer> propertyTypeIds = new ConcurrentHashMap<>();
+
+    public InstrumentedPersistentEntityStore(PersistentEntityStoreImpl base) {
+        this.base = base;
+    }
+
+    /**
+     * Register the custom property types for the lifetime of the store, and check that each one still has the type
+     * id it was given the first time: the values are stored with that id, a type registered under another one
+     * could not read them back.
+     *
+     * @param types The bindings, by class
+     * @throws IllegalStateException If a type id changed since the previous startup
+     */
+    public void registerCustomPropertyTypes(@NotNull Map<Class<? extends Comparable<?>>, ComparableBinding> types) {
+        base.executeInExclusiveTransaction(txn -> {
+            for (Map.Entry<Class<? extends Comparable<?>>, ComparableBinding> type : types.entrySet()) {
+                final Class<? extends Comparable<?>> clazz = type.getKey();
+                base.registerCustomPropertyType(txn, clazz, type.getValue());
+
+                final ComparableValueType valueType = base.getPropertyTypes().getPropertyType(clazz);
+                if (valueType == null || valueType.getBinding() != type.getValue())
+                    throw new IllegalStateException("Property type not registered: " + clazz.getName());
+
+                final int typeId = valueType.getTypeId();
+                final Entity recorded = txn.find(PROPERTY_TYPE, "class", clazz.getName()).getFirst();
+                if (recorded == null) {
+                    final Entity entity = txn.newEntity(PROPERTY_TYPE);
+                    entity.setProperty("class", clazz.getName());
+                    entity.setProperty("type-id", typeId);
+                } else if (!Objects.equals(recorded.getProperty("type-id"), typeId)) {
+                    throw new IllegalStateException(String.format("Property type %s is now %d, was %s",
+                                                                  clazz.getName(),
+                                                                  typeId,
+                                                                  recorded.getProperty("type-id")));
+                }
+                propertyTypeIds.put(clazz.getName(), typeId);
+            }
+        });
+        LOGGER.debug("Property types: {}", propertyTypeIds);
+    }
+
+    /**
+     * @return The type ids of the custom property types, by class name
+     */
+    public @NotNull Map<String, Integer> getPropertyTypeIds() {
+        return Map.copyOf(propertyTypeIds);
+    }
+
+    @NotNull
+    @Override
+    public Environment getEnvironment() {
+        return base.getEnvironment();
+    }
+
+    @Override
+    public void clear() {
+        base.clear();
+    }
+
+    @Override
+    public void executeInTransaction(@NotNull StoreTransactionalExecutable executable) {
+        final Attempts attempts = new Attempts("write");
+        try {
+            base.executeInTransaction(txn -> {
+                attempts.next();
+                executable.execute(txn);
+            });
+            attempts.succeeded();
+        } finally {
+            attempts.done();
+        }
+    }
+
+    @Override
+    public void executeInExclusiveTransaction(@NotNull StoreTransactionalExecutable executable) {
+        final Attempts attempts = new Attempts("exclusive");
+        try {
+            base.executeInExclusiveTransaction(txn -> {
+                attempts.next();
+                executable.execute(txn);
+            });
+            attempts.succeeded();
+        } finally {
+            attempts.done();
+        }
+    }
+
+    @Override
+    public void executeInReadonlyTransaction(@NotNull StoreTransactionalExecutable executable) {
+        final Attempts attempts = new Attempts("read");
+        try {
+            base.executeInReadonlyTransaction(txn -> {
+                attempts.next();
+                executable.execute(txn);
+            });
+            attempts.succeeded();
+        } finally {
+            attempts.done();
+        }
+    }
+
+    @Override
+    public <T> T computeInTransaction(@NotNull StoreTransactionalComputable<T> computable) {
+        final Attempts attempts = new Attempts("write");
+        try {
+            final T result = base.computeInTransaction(txn -> {
+                attempts.next();
+                return computable.compute(txn);
+            });
+            attempts.succeeded();
+            return result;
+        } finally {
+            attempts.done();
+        }
+    }
+
+    @Override
+    public <T> T computeInExclusiveTransaction(@NotNull StoreTransactionalComputable<T> computable) {
+        final Attempts attempts = new Attempts("exclusive");
+        try {
+            final T result = base.computeInExclusiveTransaction(txn -> {
+                attempts.next();
+                return computable.compute(txn);
+            });
+            attempts.succeeded();
+            return result;
+        } finally {
+            attempts.done();
+        }
+    }
+
+    @Override
+    public <T> T computeInReadonlyTransaction(@NotNull StoreTransactionalComputable<T> computable) {
+        final Attempts attempts = new Attempts("read");
+        try {
+            final T result = base.computeInReadonlyTransaction(txn -> {
+                attempts.next();
+                return computable.compute(txn);
+            });
+            attempts.succeeded();
+            return result;
+        } finally {
+            attempts.done();
+        }
+    }
+
+    @NotNull
+    @Override
+    public BlobVault getBlobVault() {
+        return base.getBlobVault();
+    }
+
+    /**
+     * Prefer {@link #registerCustomPropertyTypes}, once at startup.
+     */
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void registerCustomPropertyType(@NotNull StoreTransaction txn, @NotNull Class<? extends Comparable> clazz,
+                                           @NotNull ComparableBinding binding) {
+
+        base.registerCustomPropertyType(txn, clazz, binding);
+    }
+
+    @Override
+    public Entity getEntity(@NotNull EntityId id) {
+        return base.getEntity(id);
+    }
+
+    @Override
+    public int getEntityTypeId(@NotNull String entityType) {
+        return base.getEntityTypeId(entityType);
+    }
+
+    @NotNull
+    @Override
+    public String getEntityType(int entityTypeId) {
+        return base.getEntityType(entityTypeId);
+    }
+
+    @Override
+    public void renameEntityType(@NotNull String oldEntityTypeName, @NotNull String newEntityTypeName) {
+        base.renameEntityType(oldEntityTypeName, newEntityTypeName);
+    }
+
+    @Override
+    public long getUsableSpace() {
+        return base.getUsableSpace();
+    }
+
+    @NotNull
+    @Override
+    public PersistentEntityStoreConfig getConfig() {
+        return base.getConfig();
+    }
+
+    @NotNull
+    @Override
+    public MultiThreadDelegatingJobProcessor getAsyncProcessor() {
+        return base.getAsyncProcessor();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @NotNull
+    @Override
+    public Statistics getStatistics() {
+        return base.getStatistics();
+    }
+
+    @NotNull
+    @Override
+    public BackupStrategy getBackupStrategy() {
+        return base.getBackupStrategy();
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return base.getName();
+    }
+
+    @NotNull
+    @Override
+    public String getLocation() {
+        return base.getLocation();
+    }
+
+    @NotNull
+    @Override
+    public StoreTransaction beginTransaction() {
+        Metrics.increment("db.txn.write");
+        return base.beginTransaction();
+    }
+
+    @NotNull
+    @Override
+    public StoreTransaction beginExclusiveTransaction() {
+        Metrics.increment("db.txn.exclusive");
+        return base.beginExclusiveTransaction();
+    }
+
+    @NotNull
+    @Override
+    public StoreTransaction beginReadonlyTransaction() {
+        Metrics.increment("db.txn.read");
+        return base.beginReadonlyTransaction();
+    }
+
+    @Nullable
+    @Override
+    public StoreTransaction getCurrentTransaction() {
+        return base.getCurrentTransaction();
+    }
+
+    @Override
+    public void close() {
+        base.close();
+    }
+
+    /**
+     * The runs of one transaction.
+     */
+    private static final class Attempts {
+        private final String type;
+        private final long startedAt = System.nanoTime();
+        private int count;
+        private boolean succeeded;
+
+        Attempts(String type) {
+            this.type = type;
+        }
+
+        void next() {
+            ++count;
+        }
+
+        void succeeded() {
+            succeeded = true;
+        }
+
+        /**
+         * Record the transaction, whether it succeeded or threw.
+         */
+        void done() {
+            final long elapsed = System.nanoTime() - startedAt;
+            Metrics.increment("db.txn." + type);
+            Metrics.add("db.txn." + type + ".micros", TimeUnit.NANOSECONDS.toMicros(elapsed));
+            if (!succeeded)
+                Metrics.increment("db.txn." + type + ".errors");
+            if (count > 1)
+                Metrics.add("db.txn." + type + ".retries", count - 1);
+            if (elapsed > SLOW_TRANSACTION.toNanos())
+                LOGGER.info("Slow {} transaction: {} ms, {} run(s)",
+                            type, TimeUnit.NANOSECONDS.toMillis(elapsed), count);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package cbm.server.db;
 
+import cbm.server.SteamID;
 import cbm.server.model.Ban;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -8,139 +9,270 @@ import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.SearcherLifetimeManager;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteBuffersDataOutput;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import reactor.util.function.Tuple2;
-import reactor.util.function.Tuples;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static jetbrains.exodus.core.crypto.MessageDigestUtil.MD5;
+
 public class SearchIndex implements Closeable {
 
     private static final Logger LOGGER = LogManager.getLogger();
     private static final Analyzer analyzer = new StandardAnalyzer(EnglishAnalyzer.ENGLISH_STOP_WORDS_SET);
+
+    /**
+     * The version of the document layout, stored in the commit user data. Bump it whenever {@link #toDocument}
+     * changes, so that existing indexes get rebuilt.
+     */
+    private static final String INDEX_VERSION = "3";
+    private static final String VERSION_KEY = "version";
+
+    /**
+     * Sort by relevance, and break the ties with the (unique and stable) document ID, so that a page boundary
+     * doesn't depend on the Lucene internal doc numbers.
+     */
+    private static final Sort SORT = new Sort(SortField.FIELD_SCORE, new SortField("id", SortField.Type.STRING));
+
+    /**
+     * How long a searcher stays pinned for the follow-up pages of a search.
+     */
+    private static final double MAX_SEARCHER_AGE_SECONDS = 3600;
+
+    /**
+     * The stored field with the whole ban, see {@link #encode}, so that the results are served from the index alone.
+     */
+    private static final String BAN_FIELD = "ban";
+    private static final Set<String> BAN_FIELDS = Set.of(BAN_FIELD);
+
+    private final Path path;
     private final Directory directory;
+    /**
+     * Keeps the commits being backed up, see {@link #snapshot}.
+     */
+    private final SnapshotDeletionPolicy snapshots =
+            new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+    private final IndexWriter writer;
+    private final SearcherManager searcherManager;
+    private final SearcherLifetimeManager lifetimeManager = new SearcherLifetimeManager();
 
     public SearchIndex(Path path) throws IOException {
+        this.path = path;
         this.directory = new MMapDirectory(path);
+        final boolean exists = DirectoryReader.indexExists(directory);
+        this.writer = new IndexWriter(directory, new IndexWriterConfig(analyzer).setIndexDeletionPolicy(snapshots));
+        if (!exists)
+            writeIndex(writer -> {
+            });
+        this.searcherManager = new SearcherManager(directory, null);
     }
 
     @Override
     public void close() throws IOException {
+        lifetimeManager.close();
+        searcherManager.close();
+        writer.close();
         directory.close();
     }
 
-    public void index(Map<String, Ban> bans) throws IOException {
-        final IndexWriterConfig indexWriterConfig = new IndexWriterConfig(analyzer);
-
-        try (final IndexWriter writer = new IndexWriter(directory, indexWriterConfig)) {
-            bans.forEach((id, ban) -> {
-                if (ban.getPlayerName() == null && ban.getReason() == null)
-                    return;
-                LOGGER.debug("Indexing {}", ban);
-                final Document document = toDocument(id, ban);
-                try {
-                    writer.addDocument(document);
-                } catch (IOException e) {
-                    LOGGER.warn("Failed to index ban: " + ban, e);
-                }
-            });
+    public @NotNull Path getPath() {
+        return path;
+    }
+
+    /**
+     * Pin the latest commit, so that its files stay in {@link #getPath} while they are copied, even if the index
+     * changes in the meantime. The commit has to be released with {@link #release}.
+     */
+    public @NotNull IndexCommit snapshot() throws IOException {
+        return snapshots.snapshot();
+    }
+
+    public void release(@NotNull IndexCommit commit) throws IOException {
+        snapshots.release(commit);
+        writer.deleteUnusedFiles();
+    }
+
+    /**
+     * @return {@code true} if the index was created with a different document layout and has to be rebuilt.
+     */
+    public boolean isOutdated() throws IOException {
+        final Map<String, String> userData = SegmentInfos.readLatestCommit(directory).getUserData();
+        return !INDEX_VERSION.equals(userData.get(VERSION_KEY));
+    }
+
+    /**
+     * Index {@code bans}. A ban that is already indexed (same player, enacted time, duration, name and reason) replaces
+     * the existing document.
+     */
+    public void index(Collection<Ban> bans) throws IOException {
+        writeIndex(writer -> {
+            for (Ban ban : bans)
+                if (isSearchable(ban))
+                    writer.updateDocument(new Term("id", documentId(ban)), toDocument(ban));
+        });
+    }
+
+    /**
+     * Drop all documents and index {@code bans} instead.
+     */
+    public void rebuild(Collection<Ban> bans) throws IOException {
+        final Map<String, Ban> unique = new LinkedHashMap<>();
+        for (Ban ban : bans)
+            if (isSearchable(ban))
+                unique.put(documentId(ban), ban);
+
+        writeIndex(writer -> {
+            writer.deleteAll();
+            for (Ban ban : unique.values())
+                writer.addDocument(toDocument(ban));
+        });
+    }
+
+    /**
+     * Apply {@code action} and commit, even if it fails half-way, like closing a writer would.
+     */
+    private synchronized void writeIndex(IndexWriterAction action) throws IOException {
+        try {
+            action.apply(writer);
+        } finally {
+            writer.setLiveCommitData(Map.of(VERSION_KEY, INDEX_VERSION).entrySet());
+            writer.commit();
         }
+
+        if (searcherManager != null)
+            searcherManager.maybeRefreshBlocking();
     }
 
-    public @NotNull SearchResponse<String> search(@NotNull SearchRequest request) throws ParseException, IOException {
+    private static boolean isSearchable(Ban ban) {
+        return ban.getPlayerName() != null || ban.getReason() != null;
+    }
+
+    /**
+     * Search the index. The first page is searched on the latest searcher, which is then pinned, and the follow-up
+     * pages are searched on the same searcher (the one from {@link SearchRequest#getContinueAfter()}), so all pages
+     * see the same snapshot of the index. Once the pinned searcher is released, after
+     * {@value MAX_SEARCHER_AGE_SECONDS} seconds, its cursors are rejected: the scores on a newer searcher differ, so
+     * the page boundary would skip or repeat results, and the search must be restarted.
+     */
+    public @NotNull SearchResponse<Ban> search(@NotNull SearchRequest request) throws ParseException, IOException {
         LOGGER.info("Request: {}", request);
 
         final Query query = new QueryParser("_text", analyzer)
                                     .parse(request.getQueryString());
         LOGGER.debug("Parsed query: {}", query);
 
-        try (IndexReader indexReader = DirectoryReader.open(directory)) {
-            final ScoreDoc after;
-            final long from;
-            if (request.getContinueAfter() != null) {
-                final Tuple2<ScoreDoc, Long> tuple = parseContinueAfter(request.getContinueAfter());
-                after = tuple.getT1();
-                from = tuple.getT2();
-            } else {
-                after = null;
-                from = 0;
-            }
-            final IndexSearcher searcher = new IndexSearcher(indexReader);
-            final TopDocs topDocs = searcher.searchAfter(after, query, SearchRequest.PAGE_SIZE);
-            final List<String> ids = new ArrayList<>(SearchRequest.PAGE_SIZE);
-            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
-                final Document doc = searcher.doc(scoreDoc.doc);
-                final String id = doc.get("id");
-                ids.add(id);
-            }
+        final Cursor cursor = request.getContinueAfter() != null ? Cursor.parse(request.getContinueAfter()) : null;
+        final long from = cursor != null ? cursor.from : 0;
+
+        lifetimeManager.prune(new SearcherLifetimeManager.PruneByAge(MAX_SEARCHER_AGE_SECONDS));
+        final IndexSearcher pinned = cursor != null ? lifetimeManager.acquire(cursor.version) : null;
+        if (cursor != null && pinned == null)
+            throw new ParseException("Search cursor expired, restart the search");
+        final IndexSearcher searcher = pinned != null ? pinned : searcherManager.acquire();
+        try {
+            final long version = cursor != null ? cursor.version : lifetimeManager.record(searcher);
+            final int maxDoc = searcher.getIndexReader().maxDoc();
+            if (maxDoc == 0)
+                return new SearchResponse<>(from, 0, List.of(), null);
+
+            final FieldDoc after = cursor != null ? cursor.toFieldDoc(maxDoc - 1) : null;
+            final TopFieldDocs topDocs = searcher.searchAfter(after, query, SearchRequest.PAGE_SIZE, SORT, true);
+            final List<Ban> bans = new ArrayList<>(SearchRequest.PAGE_SIZE);
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs)
+                bans.add(decode(searcher.doc(scoreDoc.doc, BAN_FIELDS).getBinaryValue(BAN_FIELD)));
 
-            final String continueAfter = continueAfter(from, topDocs);
+            final String continueAfter = continueAfter(from, version, topDocs);
 
-            final SearchResponse<String> response =
-                    new SearchResponse<>(from, topDocs.totalHits.value, ids, continueAfter);
+            final SearchResponse<Ban> response =
+                    new SearchResponse<>(from, topDocs.totalHits.value, bans, continueAfter);
 
             LOGGER.debug("Response: {}", response);
 
             return response;
+        } finally {
+            if (pinned != null)
+                lifetimeManager.release(pinned);
+            else
+                searcherManager.release(searcher);
         }
     }
 
     @Nullable
-    private String continueAfter(long from, TopDocs topDocs) {
+    private String continueAfter(long from, long version, TopFieldDocs topDocs) {
         final long nextFrom = from + topDocs.scoreDocs.length;
         if (topDocs.scoreDocs.length == 0 || nextFrom >= topDocs.totalHits.value)
             return null;
 
-        final ScoreDoc last = topDocs.scoreDocs[topDocs.scoreDocs.length - 1];
-        return String.format("%d:%d:%f", nextFrom, last.doc, last.score);
+        final FieldDoc last = (FieldDoc) topDocs.scoreDocs[topDocs.scoreDocs.length - 1];
+        return new Cursor(nextFrom, version, (Float) last.fields[0], ((BytesRef) last.fields[1]).utf8ToString())
+                       .toString();
     }
 
-    private @NotNull Tuple2<ScoreDoc, Long> parseContinueAfter(@NotNull String string) throws ParseException {
-        final String[] split = string.split(":");
-        if (split.length != 3)
-            throw new ParseException();
-
-        try {
-            final long from = Long.parseLong(split[0]);
-            final int doc = Integer.parseInt(split[1]);
-            final float score = Float.parseFloat(split[2]);
-            return Tuples.of(new ScoreDoc(doc, score), from);
-        } catch (NumberFormatException e) {
-            throw new ParseException(e.getMessage());
-        }
+    /**
+     * The ID of the document of a ban, the same for the same ban downloaded again.
+     */
+    static String documentId(Ban ban) {
+        return MD5(String.format("%s|%s|%s|%s|%s", ban.getId(), ban.getEnactedTime(), ban.getDuration(),
+                                 ban.getPlayerName(), ban.getReason()));
     }
 
-    private static Document toDocument(String id, Ban ban) {
+    private static Document toDocument(Ban ban) throws IOException {
+        LOGGER.debug("Indexing {}", ban);
+        final String id = documentId(ban);
         final String text = Stream.of(ban.getPlayerName(), ban.getReason())
                                   .filter(Objects::nonNull)
                                   .collect(Collectors.joining(" "));
 
         final Document document = new Document();
 
-        document.add(new StringField("id", id, Field.Store.YES));
+        document.add(new StringField("id", id, Field.Store.NO));
+        document.add(new SortedDocValuesField("id", new BytesRef(id)));
+        document.add(new StoredField(BAN_FIELD, encode(ban)));
+        if (ban.getId() != null)
+            SteamID.steamID(ban.getId())
+                   .ifPresent(steamID -> document.add(new NumericDocValuesField("player-id", steamID.steamID64())));
+        if (ban.getEnactedTime() != null)
+            document.add(new NumericDocValuesField("enacted-time", ban.getEnactedTime().getEpochSecond()));
         if (ban.getPlayerName() != null)
             document.add(new TextField("name", ban.getPlayerName(), Field.Store.NO));
         if (ban.getReason() != null)
@@ -149,4 +281,69 @@ public class SearchIndex implements Closeable {
 
         return document;
     }
+
+    /**
+     * Encode a ban like in the database records, see {@link EntityCodecs#writeBan}.
+     */
+    static BytesRef encode(Ban ban) throws IOException {
+        final ByteBuffersDataOutput output = new ByteBuffersDataOutput();
+        EntityCodecs.writeBan(output, ban);
+        return new BytesRef(output.toArrayCopy());
+    }
+
+    static Ban decode(BytesRef bytes) throws IOException {
+        return EntityCodecs.readBan(new ByteArrayDataInput(bytes.bytes, bytes.offset, bytes.length));
+    }
+
+    @FunctionalInterface
+    private interface IndexWriterAction {
+        void apply(IndexWriter writer) throws IOException;
+    }
+
+    /**
+     * The position after the last result of a page in the form {@code from:version:score:id}, where {@code version}
+     * identifies the searcher of the first page.
+     */
+    private static class Cursor {
+        private final long from;
+        private final long version;
+        private final float score;
+        private final @NotNull String id;
+
+        private Cursor(long from, long version, float score, @NotNull String id) {
+            this.from = from;
+            this.version = version;
+            this.score = score;
+            this.id = id;
+        }
+
+        static @NotNull Cursor parse(@NotNull String string) throws ParseException {
+            final String[] split = string.split(":", 4);
+            if (split.length != 4 || split[3].isEmpty())
+                throw new ParseException("Invalid search cursor: " + string);
+
+            try {
+                final long from = Long.parseLong(split[0]);
+                final long version = Long.parseLong(split[1]);
+                final float score = Float.parseFloat(split[2]);
+                return new Cursor(from, version, score, split[3]);
+            } catch (NumberFormatException e) {
+                throw new ParseException(e.getMessage());
+            }
+        }
+
+        /**
+         * @param doc The doc to break ties with. Since the IDs are unique, a tie means it's the same document,
+         *            which should be skipped, so any doc number not less than the actual one will do.
+         */
+        FieldDoc toFieldDoc(int doc) {
+            return new FieldDoc(doc, score, new Object[]{score, new BytesRef(id)});
+        }
+
+        @Override
+        public String toString() {
+            // Float.toString is locale independent and round-trips exactly
+            return from + ":" + version + ":" + score + ":" + id;
+        }
+    }
 }
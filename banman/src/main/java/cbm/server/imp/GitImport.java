@@ -20,11 +20,11 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.stream.Stream;
 
 public class GitImport {
 
@@ -48,15 +48,16 @@ public class GitImport {
                 final BanFile banFile = listIterator.previous();
                 LOGGER.info("Commit {}", banFile.timestamp());
                 final ObjectLoader loader = repo.open(banFile.objectId);
-                final byte[] bytes = loader.getBytes();
 
-                if (bytes.length == 0)
+                if (loader.getSize() == 0)
                     continue;
 
-                final String s = new String(bytes, StandardCharsets.UTF_8);
-                final List<Ban> bans = ParseBan.parseBans(s);
-                final BansDatabase.Stats stats = bansDatabase.storeBans(banFile.timestamp(), bans.stream(), true);
-                LOGGER.info("Added {}, removed {} bans", stats.numAdded(), stats.numRemoved());
+                // Large blobs are streamed, the rest are parsed in parallel from the cached bytes
+                try (final Stream<Ban> bans = loader.isLarge() ? ParseBan.streamBans(loader.openStream())
+                                                               : ParseBan.parseBans(loader.getCachedBytes(), true)) {
+                    final BansDatabase.Stats stats = bansDatabase.storeBans(banFile.timestamp(), bans, true);
+                    LOGGER.info("Added {}, removed {} bans", stats.numAdded(), stats.numRemoved());
+                }
             }
 
             LOGGER.info("Processed {} commits", banFileIds.size());
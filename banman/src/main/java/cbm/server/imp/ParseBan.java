@@ -1,41 +1,41 @@
 package cbm.server.imp;
 
 import cbm.server.SteamID;
+import cbm.server.Utils;
 import cbm.server.model.Ban;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
-import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
 
-import java.lang.reflect.Type;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
 import java.time.Duration;
 import java.time.Instant;
-import java.time.OffsetDateTime;
-import java.time.Period;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
+import java.util.NoSuchElementException;
 import java.util.Optional;
-import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 public class ParseBan {
     private static final Logger logger = LogManager.getLogger();
 
-    private static final Gson gson = new GsonBuilder()
-            .registerTypeAdapter(OffsetDateTime.class,
-                                 new FromStringDeserializer<>(OffsetDateTime::parse, ParseBan::fixInstantFormat))
-            .registerTypeAdapter(Instant.class,
-                                 new FromStringDeserializer<>(Instant::parse, ParseBan::fixInstantFormat))
-            .registerTypeAdapter(Period.class, new FromStringDeserializer<>(Period::parse))
-            .registerTypeAdapter(Duration.class, new FromStringDeserializer<>(Duration::parse))
-            .create();
+    /**
+     * The approximate size of the chunks, which are parsed in parallel.
+     */
+    private static final int CHUNK_SIZE = 256 * 1024;
 
     private static final Pattern BAN_PATTERN =
             Pattern.compile("https?://steamcommunity.com/profiles/\\d+ - " +
@@ -44,14 +44,59 @@ public class ParseBan {
 
     public static List<Ban> parseBans(String s) {
         final List<Ban> bans = new ArrayList<>();
-        final var lines = s.split("\n");
-        for (var line : lines)
-            parseBan(line).ifPresentOrElse(bans::add,
-                                           () -> logger.warn("Can't parse line: {}", line));
-
+        try (final Stream<Ban> stream = streamBans(new StringReader(s))) {
+            stream.forEach(bans::add);
+        }
         return bans;
     }
 
+    /**
+     * Parse the bans in {@code bytes} (UTF-8). If {@code parallel} is set, the content is split on line boundaries
+     * into chunks of about {@value CHUNK_SIZE} bytes, which are parsed in parallel. The order of the bans is preserved.
+     */
+    public static Stream<Ban> parseBans(byte[] bytes, boolean parallel) {
+        if (!parallel || bytes.length <= CHUNK_SIZE)
+            return streamBans(new ByteArrayInputStream(bytes));
+
+        final List<int[]> chunks = new ArrayList<>();
+        int start = 0;
+        while (start < bytes.length) {
+            int end = Math.min(start + CHUNK_SIZE, bytes.length);
+            while (end < bytes.length && bytes[end - 1] != '\n')
+                ++end;
+            chunks.add(new int[]{start, end});
+            start = end;
+        }
+
+        return chunks.parallelStream()
+                     .flatMap(chunk -> streamBans(new ByteArrayInputStream(bytes, chunk[0], chunk[1] - chunk[0])));
+    }
+
+    /**
+     * Lazily parse the bans from {@code in} (UTF-8), one per line. A line that can't be parsed is logged and
+     * skipped. Closing the returned stream closes {@code in}.
+     */
+    public static Stream<Ban> streamBans(InputStream in) {
+        return streamBans(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    private static Stream<Ban> streamBans(Reader r) {
+        final BufferedReader reader = new BufferedReader(r);
+        return reader.lines()
+                     .map(line -> parseBan(line).or(() -> {
+                         logger.warn("Can't parse line: {}", line);
+                         return Optional.empty();
+                     }))
+                     .flatMap(Optional::stream)
+                     .onClose(() -> {
+                         try {
+                             reader.close();
+                         } catch (IOException e) {
+                             throw new UncheckedIOException(e);
+                         }
+                     });
+    }
+
     public static Optional<Ban> parseBan(String line) {
         if (line.startsWith("{"))
             return parseJsonBan(line);
@@ -60,8 +105,73 @@ public class ParseBan {
     }
 
     private static Optional<Ban> parseJsonBan(String line) {
-        final LoggedBan loggedBan = gson.fromJson(line, LoggedBan.class);
-        return Optional.of(loggedBan.builder().build());
+        try {
+            return readJsonBan(new JsonReader(new StringReader(line)));
+        } catch (IOException | IllegalStateException e) {
+            // Malformed JSON, or a value of the wrong type
+            logger.warn("Can't parse ban: {}", e.toString());
+            return Optional.empty();
+        }
+    }
+
+    private static Optional<Ban> readJsonBan(JsonReader reader) throws IOException {
+        String profileUrl = null;
+        String enactedTime = null;
+        String duration = null;
+        String ipPolicy = null;
+        String playerName = null;
+        String reason = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+
+            switch (name) {
+                case "profile-url":
+                    profileUrl = reader.nextString();
+                    break;
+                case "enacted-time":
+                    enactedTime = reader.nextString();
+                    break;
+                case "duration":
+                    duration = reader.nextString();
+                    break;
+                case "ip-policy":
+                    ipPolicy = reader.nextString();
+                    break;
+                case "player-name":
+                    playerName = reader.nextString();
+                    break;
+                case "reason":
+                    reason = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        try {
+            final String id = SteamID.steamID(Optional.ofNullable(profileUrl).orElseThrow())
+                                     .map(SteamID::s64)
+                                     .orElseThrow();
+            return Optional.of(new Ban.Builder()
+                                       .setId(id)
+                                       .setEnactedTime(enactedTime != null ? parseInstant(enactedTime) : null)
+                                       .setDuration(duration != null ? Duration.parse(duration) : null)
+                                       .setIpPolicy(ipPolicy)
+                                       .setPlayerName(playerName)
+                                       .setReason(reason)
+                                       .build());
+        } catch (NoSuchElementException | DateTimeException e) {
+            logger.warn("Can't parse ban: profile-url={}, enacted-time={}, duration={}: {}",
+                        profileUrl, enactedTime, duration, e.toString());
+            return Optional.empty();
+        }
     }
 
     private static Optional<Ban> parseOldBan(String line) {
@@ -82,7 +192,7 @@ public class ParseBan {
         if (!duration.equals("null"))
             builder.setDuration(Duration.parse(duration));
         if (!enactedTime.equals("null"))
-            builder.setEnactedTime(Instant.parse(fixInstantFormat(enactedTime)));
+            builder.setEnactedTime(parseInstant(enactedTime));
         if (!ipPolicy.equals("null"))
             builder.setIpPolicy(ipPolicy);
         if (!playerName.equals("null"))
@@ -93,62 +203,65 @@ public class ParseBan {
         return Optional.of(builder.build());
     }
 
-    private static String fixInstantFormat(String s) {
-        if (s.length() == "2013-09-10T11:35".length())
-            return s + ":00Z";
-
-        if (s.length() == "2013-09-10T11:35Z".length())
-            return s.substring(0, s.length() - 1) + ":00Z";
-
-        if (s.length() == "2013-09-10T11:35:00".length())
-            return s + "Z";
-
-        return s;
-    }
-
-    public static class FromStringDeserializer<T> implements JsonDeserializer<T> {
-        private final Function<String, T> deserializerFn;
+    /**
+     * Parse the logged instants, which are in one of the forms {@code 2013-09-10T11:35}, {@code 2013-09-10T11:35Z},
+     * {@code 2013-09-10T11:35:00} or {@code 2013-09-10T11:35:00[.000]Z}. Anything else goes to {@link Instant#parse}.
+     */
+    static @NotNull Instant parseInstant(@NotNull String s) {
+        final int length = s.length();
+        final boolean hasSeconds = length >= 19 && s.charAt(16) == ':';
+        if (length < 16 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T' || s.charAt(13) != ':')
+            return Instant.parse(s);
 
-        public FromStringDeserializer(Function<String, T> deserializerFn) {
-            this(deserializerFn, Function.identity());
+        int end = hasSeconds ? 19 : 16;
+        if (hasSeconds && end < length && s.charAt(end) == '.') {
+            ++end;
+            while (end < length && Character.isDigit(s.charAt(end)))
+                ++end;
         }
+        if (end < length && s.charAt(end) == 'Z')
+            ++end;
+        if (end != length)
+            return Instant.parse(s);
 
-        public FromStringDeserializer(Function<String, T> deserializerFn, Function<String, String> fixer) {
-            this.deserializerFn = fixer.andThen(deserializerFn);
-        }
+        final int year = digits(s, 0, 4);
+        final int month = digits(s, 5, 7);
+        final int day = digits(s, 8, 10);
+        final int hour = digits(s, 11, 13);
+        final int minute = digits(s, 14, 16);
+        final int second = hasSeconds ? digits(s, 17, 19) : 0;
+        if ((year | month | day | hour | minute | second) < 0)
+            return Instant.parse(s);
 
-        @Override
-        public T deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
-                throws JsonParseException {
+        final long epochSecond = Utils.epochSecond(year, month, day, hour, minute, second);
+        if (!hasSeconds || s.length() <= 20 || s.charAt(19) != '.')
+            return Instant.ofEpochSecond(epochSecond);
 
-            final String s = json.getAsString();
-            return deserializerFn.apply(s);
-        }
+        return Instant.ofEpochSecond(epochSecond, nanos(s, 20));
     }
 
-    public static class LoggedBan {
-        @SerializedName("profile-url")
-        public String profileUrl;
-        @SerializedName("enacted-time")
-        public Instant enactedTime;
-        public Duration duration;
-        @SerializedName("ip-policy")
-        public String ipPolicy;
-        @SerializedName("player-name")
-        public String playerName;
-        public String reason;
-
-        public Ban.Builder builder() {
-            final String id = SteamID.steamID(profileUrl).map(SteamID::steamID64)
-                                     .map(Objects::toString)
-                                     .orElseThrow();
-            return new Ban.Builder()
-                    .setId(id)
-                    .setEnactedTime(enactedTime)
-                    .setDuration(duration)
-                    .setIpPolicy(ipPolicy)
-                    .setPlayerName(playerName)
-                    .setReason(reason);
+    /**
+     * @return The value of the decimal digits between {@code from} and {@code to}, or -1 if there's a non-digit.
+     */
+    private static int digits(String s, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; ++i) {
+            final char ch = s.charAt(i);
+            if (ch < '0' || ch > '9')
+                return -1;
+            value = value * 10 + (ch - '0');
         }
+        return value;
+    }
+
+    private static long nanos(String s, int from) {
+        long nanos = 0;
+        int digits = 0;
+        for (int i = from; i < s.length() && Character.isDigit(s.charAt(i)); ++i, ++digits)
+            if (digits < 9)
+                nanos = nanos * 10 + (s.charAt(i) - '0');
+        for (; digits < 9; ++digits)
+            nanos *= 10;
+        return nanos;
     }
 }
@@ -4,6 +4,7 @@ import cbm.server.SteamID;
 import discord4j.common.util.Snowflake;
 import discord4j.core.object.entity.Message;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.time.Instant;
 import java.util.StringJoiner;
@@ -14,18 +15,23 @@ public class Mention {
     private final @NotNull Snowflake guildId;
     private final @NotNull Snowflake channelId;
     private final @NotNull Snowflake messageId;
+    private final @Nullable MentionMetadata metadata;
 
-    public Mention(@NotNull SteamID playerId, @NotNull Snowflake guildId, @NotNull Message message) {
-        this(playerId, message.getTimestamp(), guildId, message.getChannelId(), message.getId());
+    public Mention(@NotNull SteamID playerId, @NotNull Snowflake guildId, @NotNull Message message,
+                   @Nullable MentionMetadata metadata) {
+
+        this(playerId, message.getTimestamp(), guildId, message.getChannelId(), message.getId(), metadata);
     }
 
     public Mention(@NotNull SteamID playerId, @NotNull Instant mentionedAt, @NotNull Snowflake guildId,
-                   @NotNull Snowflake channelId, @NotNull Snowflake messageId) {
+                   @NotNull Snowflake channelId, @NotNull Snowflake messageId, @Nullable MentionMetadata metadata) {
+
         this.playerId = playerId;
         this.mentionedAt = mentionedAt;
         this.guildId = guildId;
         this.channelId = channelId;
         this.messageId = messageId;
+        this.metadata = metadata;
     }
 
     public @NotNull SteamID getPlayerId() {
@@ -48,6 +54,18 @@ public class Mention {
         return messageId;
     }
 
+    /**
+     * @return The metadata, or {@code null} for the mentions recorded before it was captured
+     */
+    public @Nullable MentionMetadata getMetadata() {
+        return metadata;
+    }
+
+    public @NotNull String getLink() {
+        return String.format("https://discord.com/channels/%s/%s/%s",
+                             guildId.asString(), channelId.asString(), messageId.asString());
+    }
+
     @Override
     public String toString() {
         return new StringJoiner(", ", Mention.class.getSimpleName() + "[", "]")
@@ -55,6 +73,7 @@ public class Mention {
                        .add("mentionedAt=" + mentionedAt)
                        .add("channelId=" + channelId)
                        .add("messageId=" + messageId)
+                       .add("metadata=" + metadata)
                        .toString();
     }
 }
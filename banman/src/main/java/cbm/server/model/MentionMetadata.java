@@ -0,0 +1,109 @@
+package cbm.server.model;
+
+import discord4j.common.util.Snowflake;
+
+import java.time.Instant;
+import java.util.StringJoiner;
+
+/**
+ * What is shown for a mention, captured when the mention is recorded, so that it can be rendered without going to
+ * Discord. The author fields are {@code null} if the message no longer exists.
+ */
+public class MentionMetadata {
+    private final Snowflake authorId;
+    private final String authorName;
+    private final String authorAvatarUrl;
+    private final Integer authorColor;
+    private final String channelName;
+    private final Instant updatedAt;
+
+    private MentionMetadata(Builder builder) {
+        this.authorId = builder.authorId;
+        this.authorName = builder.authorName;
+        this.authorAvatarUrl = builder.authorAvatarUrl;
+        this.authorColor = builder.authorColor;
+        this.channelName = builder.channelName;
+        this.updatedAt = builder.updatedAt;
+    }
+
+    public Snowflake getAuthorId() {
+        return authorId;
+    }
+
+    public String getAuthorName() {
+        return authorName;
+    }
+
+    public String getAuthorAvatarUrl() {
+        return authorAvatarUrl;
+    }
+
+    /**
+     * @return The RGB value of the author's role color
+     */
+    public Integer getAuthorColor() {
+        return authorColor;
+    }
+
+    public String getChannelName() {
+        return channelName;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", MentionMetadata.class.getSimpleName() + "[", "]")
+                .add("authorId=" + authorId)
+                .add("authorName='" + authorName + "'")
+                .add("authorColor=" + authorColor)
+                .add("channelName='" + channelName + "'")
+                .add("updatedAt=" + updatedAt)
+                .toString();
+    }
+
+    public static class Builder {
+        private Snowflake authorId;
+        private String authorName;
+        private String authorAvatarUrl;
+        private Integer authorColor;
+        private String channelName;
+        private Instant updatedAt;
+
+        public MentionMetadata build() {
+            return new MentionMetadata(this);
+        }
+
+        public Builder setAuthorId(Snowflake authorId) {
+            this.authorId = authorId;
+            return this;
+        }
+
+        public Builder setAuthorName(String authorName) {
+            this.authorName = authorName;
+            return this;
+        }
+
+        public Builder setAuthorAvatarUrl(String authorAvatarUrl) {
+            this.authorAvatarUrl = authorAvatarUrl;
+            return this;
+        }
+
+        public Builder setAuthorColor(Integer authorColor) {
+            this.authorColor = authorColor;
+            return this;
+        }
+
+        public Builder setChannelName(String channelName) {
+            this.channelName = channelName;
+            return this;
+        }
+
+        public Builder setUpdatedAt(Instant updatedAt) {
+            this.updatedAt = updatedAt;
+            return this;
+        }
+    }
+}
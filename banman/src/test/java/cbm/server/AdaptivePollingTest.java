@@ -0,0 +1,65 @@
+package cbm.server;
+
+import cbm.server.db.BansDatabase;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AdaptivePollingTest {
+
+    @Test
+    public void testInterval() {
+        final AdaptivePolling polling = new AdaptivePolling(Duration.ofMinutes(1), Duration.ofMinutes(10),
+                                                            Duration.ofMinutes(40));
+        assertEquals(Duration.ofMinutes(10), polling.getInterval());
+
+        // Shortened while the bans change
+        assertEquals(Duration.ofMinutes(5), polling.onPoll(stats(1, 0)));
+        assertEquals(Duration.ofSeconds(150), polling.onPoll(stats(0, 2)));
+        assertEquals(Duration.ofSeconds(75), polling.onPoll(stats(3, 3)));
+        assertEquals(Duration.ofMinutes(1), polling.onPoll(stats(1, 0)));
+        assertEquals(Duration.ofMinutes(1), polling.onPoll(stats(1, 0)));
+
+        // Backs off when they don't
+        assertEquals(Duration.ofMinutes(2), polling.onPoll(stats(0, 0)));
+        assertEquals(Duration.ofMinutes(4), polling.onPoll(stats(0, 0)));
+        for (int i = 0; i < 10; ++i)
+            polling.onPoll(stats(0, 0));
+        assertEquals(Duration.ofMinutes(40), polling.getInterval());
+    }
+
+    @Test
+    public void testInvalidIntervals() {
+        assertThrows(IllegalArgumentException.class,
+                     () -> new AdaptivePolling(Duration.ZERO, Duration.ofMinutes(10), Duration.ofMinutes(40)));
+        assertThrows(IllegalArgumentException.class,
+                     () -> new AdaptivePolling(Duration.ofMinutes(1), Duration.ofMinutes(50), Duration.ofMinutes(40)));
+    }
+
+    private static BansDatabase.Stats stats(int added, int removed) {
+        return new BansDatabase.Stats() {
+            @Override
+            public int numAddedLong() {
+                return added;
+            }
+
+            @Override
+            public int numRemovedLong() {
+                return removed;
+            }
+
+            @Override
+            public int numAddedShort() {
+                return 0;
+            }
+
+            @Override
+            public int numRemovedShort() {
+                return 0;
+            }
+        };
+    }
+}
@@ -0,0 +1,117 @@
+package cbm.server;
+
+import cbm.server.model.Ban;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BanLineParserTest {
+
+    private final BanLineParser parser = new BanLineParser();
+
+    @Test
+    public void testNetIdBan() throws ParseException {
+        final Ban ban = parser.parse("BannedIDs=(Uid=(A=123775322,B=17825793))");
+        assertEquals("76561198084041050", ban.getId());
+        assertTrue(ban.isNetIDBan());
+    }
+
+    @Test
+    public void testBan() throws ParseException {
+        final Ban ban = parser.parse("Bans=(DurationSeconds=3600,EnactedTime=(Year=2019,Month=5,DayOfWeek=3,Day=1," +
+                                             "Hour=18,Min=23,Sec=51,MSec=917),IPPolicy=\"DENY,1.2.3.4\"," +
+                                             "NetId=(Uid=(A=123775322,B=17825793)),PlayerName=\"Robin\"," +
+                                             "Reason=\"Running away\",NetIDAsString=\"0x011000010760A75A\")  ");
+        assertEquals("76561198084041050", ban.getId());
+        assertEquals(Duration.ofHours(1), ban.getDuration());
+        assertEquals(Instant.parse("2019-05-01T18:23:51Z"), ban.getEnactedTime());
+        assertEquals("DENY,1.2.3.4", ban.getIpPolicy());
+        assertEquals("Robin", ban.getPlayerName());
+        assertEquals("Running away", ban.getReason());
+    }
+
+    @Test
+    public void testEmptyAndQuotedValues() throws ParseException {
+        final Ban empty = parser.parse(ban("-1", "2019", "12", "31", "23", "59", "60", "", ""));
+        assertEquals(Duration.ofSeconds(-1), empty.getDuration());
+        assertEquals(Instant.parse("2019-12-31T23:59:59Z"), empty.getEnactedTime());
+        assertNull(empty.getIpPolicy());
+        assertNull(empty.getPlayerName());
+        assertNull(empty.getReason());
+
+        final Ban quotes = parser.parse(ban("0", "2020", "2", "29", "24", "0", "0",
+                                            "\"\"Sir\",Reason=\"Robin\"\"", "\"He said \"hi\"\""));
+        assertEquals(Instant.parse("2020-03-01T00:00:00Z"), quotes.getEnactedTime());
+        assertEquals("\"Sir\",Reason=\"Robin\"", quotes.getPlayerName());
+        assertEquals("He said \"hi\"", quotes.getReason());
+
+        final Ban emptyName = parser.parse(ban("60", "2021", "1", "1", "0", "0", "0", "", "\"Reason\""));
+        assertNull(emptyName.getPlayerName());
+        assertEquals("Reason", emptyName.getReason());
+    }
+
+    @Test
+    public void testEnactedTimeMatchesInstantParse() throws ParseException {
+        final OffsetDateTime start = OffsetDateTime.of(1999, 12, 31, 23, 0, 0, 0, ZoneOffset.UTC);
+        for (int i = 0; i < 20_000; ++i) {
+            final OffsetDateTime t = start.plusSeconds(i * 7919L);
+            final Ban ban = parser.parse(ban("1", Integer.toString(t.getYear()),
+                                             Integer.toString(t.getMonthValue()),
+                                             Integer.toString(t.getDayOfMonth()),
+                                             Integer.toString(t.getHour()),
+                                             Integer.toString(t.getMinute()),
+                                             Integer.toString(t.getSecond()), "", ""));
+            assertEquals(t.toInstant(), ban.getEnactedTime());
+        }
+    }
+
+    @Test
+    public void testErrors() {
+        assertErrorAt(18, "BannedIDs=(Uid=(A=x,B=17825793))");
+        assertErrorAt(27, "BannedIDs=(Uid=(A=123775322,B=1))");
+        assertErrorAt(0, "Bans=(Foo=1)");
+        assertErrorAt(42, ban("1", "19", "1", "1", "0", "0", "0", "", ""));
+        assertErrorAt(42, ban("1", "2021", "2", "29", "0", "0", "0", "", ""));
+        assertErrorAt(42, ban("1", "2021", "2", "28", "24", "0", "1", "", ""));
+        assertErrorAt(53, ban("1", "2021", "123", "1", "0", "0", "0", "", ""));
+        assertErrorAt(22, ban("99999999999999999999", "2021", "1", "1", "0", "0", "0", "", ""));
+        assertErrorAt(158, ban("1", "2021", "1", "1", "0", "0", "0", "\"unbalanced", ""));
+    }
+
+    @Test
+    public void testParseFile() {
+        final String content = "[Engine.AccessControl]\r\n" +
+                                       "BannedIDs=(Uid=(A=123775322,B=17825793))\r\n" +
+                                       "Bans=(broken)\r\n" +
+                                       ban("1", "2021", "1", "1", "0", "0", "0", "\"a\"", "\"b\"") + "\r\n" +
+                                       "IPPolicies=ACCEPT;*";
+        final List<Ban> bans = LogDownloader.parseBans(content).collect(Collectors.toList());
+        assertEquals(2, bans.size());
+        assertEquals("a", bans.get(1).getPlayerName());
+    }
+
+    private void assertErrorAt(int offset, String line) {
+        final ParseException e = assertThrows(ParseException.class, () -> parser.parse(line));
+        assertEquals(offset, e.getErrorOffset(), e.getMessage());
+    }
+
+    private static String ban(String duration, String year, String month, String day, String hour, String min,
+                              String sec, String name, String reason) {
+
+        return "Bans=(DurationSeconds=" + duration + ",EnactedTime=(Year=" + year + ",Month=" + month +
+                       ",DayOfWeek=3,Day=" + day + ",Hour=" + hour + ",Min=" + min + ",Sec=" + sec + ",MSec=0)," +
+                       "IPPolicy=,NetId=(Uid=(A=123775322,B=17825793)),PlayerName=" + name + ",Reason=" + reason +
+                       ",NetIDAsString=\"0x011000010760A75A\")";
+    }
+}
@@ -0,0 +1,37 @@
+package cbm.server;
+
+import cbm.server.model.Ban;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BanNotifierTest {
+
+    @Test
+    public void testCompose() {
+        final Ban robin = new Ban.Builder()
+                                  .setId("76561198084041050")
+                                  .setEnactedTime(Instant.parse("2019-05-01T18:23:51Z"))
+                                  .setDuration(Duration.ofDays(7))
+                                  .setPlayerName("Robin")
+                                  .setReason("Running away")
+                                  .build();
+        final Ban lancelot = new Ban.Builder()
+                                     .setId("76561197960287930")
+                                     .setEnactedTime(Instant.parse("2019-05-01T18:23:51Z"))
+                                     .setPlayerName("Lancelot")
+                                     .setReason("Teamkilling")
+                                     .build();
+
+        assertEquals(List.of("**New bans** (2):\n\n"
+                             + "<https://steamcommunity.com/profiles/76561198084041050/> \"Robin\" "
+                             + "until 2019-05-08T18:23:51Z for \"Running away\"\n"
+                             + "<https://steamcommunity.com/profiles/76561197960287930/> \"Lancelot\" "
+                             + "forever for \"Teamkilling\"\n\n"),
+                     BanNotifier.compose(List.of(robin, lancelot)));
+    }
+}
@@ -1,29 +1,118 @@
 package cbm.server;
 
+import cbm.server.db.BansDatabase;
+import discord4j.common.util.Snowflake;
+import discord4j.core.GatewayDiscordClient;
+import discord4j.core.object.entity.Message;
+import discord4j.core.object.entity.channel.GuildMessageChannel;
+import discord4j.discordjson.json.MessageData;
+import discord4j.discordjson.json.UserData;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Flux;
 
-import static cbm.server.ChannelWatcher.isProfileUrl;
-import static org.junit.jupiter.api.Assertions.assertFalse;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class ChannelWatcherTest {
 
-    @SuppressWarnings("HttpUrlsUsage")
+    private static final Snowflake GUILD = Snowflake.of(111);
+    private static final Snowflake CHANNEL = Snowflake.of(222);
+    private static final long FIRST_STEAM_ID = 76561198000000000L;
+    /**
+     * Only carried by the messages, the watcher never reaches Discord through it.
+     */
+    private static final GatewayDiscordClient GATEWAY =
+            new GatewayDiscordClient(null, null, null, null, null, gateway -> null);
+
     @Test
-    public void testSteamProfile() {
-        assertTrue(isProfileUrl("https://steamcommunity.com/profiles/123"));
-        assertTrue(isProfileUrl("http://steamcommunity.com/profiles/123"));
-        assertTrue(isProfileUrl("https://steamcommunity.com/id/123"));
-        assertTrue(isProfileUrl("http://steamcommunity.com/id/123"));
-        assertTrue(isProfileUrl("https://steamCommunity.com/profiles/123"));
-        assertTrue(isProfileUrl("http://Steamcommunity.com/profiles/123"));
-        assertTrue(isProfileUrl("https://SteamCommunity.com/id/123"));
-        assertTrue(isProfileUrl("http://steamcommunity.com/id/123"));
-        assertFalse(isProfileUrl("http://steamcommunity.com/ids/123"));
-        assertFalse(isProfileUrl("http://streamcommunity.com/id/123"));
-        assertFalse(isProfileUrl("http://steamcommunity.com/profilei/123"));
-        assertFalse(isProfileUrl("http://steamcommunity.com/profilesd/123"));
-        assertFalse(isProfileUrl("http://steamcommunity.com/profileid/123"));
-        assertFalse(isProfileUrl("http://steamcommunity.com/profiled/123"));
+    public void testFailedCatchUpIsRetried(@TempDir Path dir) throws Exception {
+        final List<Message> history = LongStream.rangeClosed(1, 250)
+                                                .mapToObj(ChannelWatcherTest::message)
+                                                .collect(Collectors.toList());
+        final List<Snowflake> reads = new CopyOnWriteArrayList<>();
+        final GuildMessageChannel channel = channel(from -> {
+            reads.add(from);
+            final Flux<Message> messages = Flux.fromIterable(history)
+                                               .filter(message -> message.getId().asLong() > from.asLong());
+            // The first read fails in the middle of the second page
+            return reads.size() == 1 ? messages.take(150).concatWith(Flux.error(new IOException("Reset")))
+                                     : messages;
+        });
+
+        try (final BansDatabase db = new BansDatabase(dir.toString())) {
+            final ChannelWatcher watcher = new ChannelWatcher(channel, db, Duration.ofMillis(50));
+            try {
+                watcher.catchUp();
+                // Processed while the catch-up is pending: not checkpointed, or the gap would be skipped
+                watcher.onMessage(message(300));
+
+                final long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+                while (!Snowflake.of(250).equals(db.getLastProcessedMessageIdSync(CHANNEL))
+                               && System.nanoTime() < deadline)
+                    Thread.sleep(20);
+
+                assertEquals(Snowflake.of(250), db.getLastProcessedMessageIdSync(CHANNEL));
+                assertEquals(2, reads.size());
+                // Resumed from the last page checkpointed, if any, not from the live message
+                assertTrue(reads.get(1).asLong() <= 100, reads.toString());
+                for (long i = 1; i <= 250; i += 50)
+                    assertEquals(1, db.findMentions(SteamID.steamID(FIRST_STEAM_ID + i)).count().block());
+            } finally {
+                watcher.dispose();
+            }
+        }
+    }
+
+    private static Message message(long id) {
+        final UserData author = UserData.builder()
+                                        .id(42)
+                                        .username("Robin")
+                                        .discriminator("0001")
+                                        .build();
+        return new Message(GATEWAY, MessageData.builder()
+                                            .id(id)
+                                            .channelId(CHANNEL.asLong())
+                                            .author(author)
+                                            .content("https://steamcommunity.com/profiles/" + (FIRST_STEAM_ID + id))
+                                            .timestamp("2021-06-01T12:00:00+00:00")
+                                            .tts(false)
+                                            .mentionEveryone(false)
+                                            .pinned(false)
+                                            .type(0)
+                                            .build());
+    }
+
+    private static GuildMessageChannel channel(History history) {
+        return (GuildMessageChannel) Proxy.newProxyInstance(
+                ChannelWatcherTest.class.getClassLoader(), new Class<?>[]{GuildMessageChannel.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getId":
+                            return CHANNEL;
+                        case "getGuildId":
+                            return GUILD;
+                        case "getName":
+                            return "watch-list";
+                        case "getMessagesAfter":
+                            return history.getMessagesAfter((Snowflake) args[0]);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @FunctionalInterface
+    private interface History {
+        Flux<Message> getMessagesAfter(Snowflake from);
     }
 }
@@ -0,0 +1,113 @@
+package cbm.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JobSchedulerTest {
+
+    @Test
+    public void testFailureDoesNotStopTheJob() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(3);
+        try (final JobScheduler scheduler = new JobScheduler()) {
+            scheduler.schedule("failing", Duration.ZERO, Duration.ofMillis(20), Duration.ZERO, () -> {
+                runs.incrementAndGet();
+                latch.countDown();
+                throw new IllegalStateException("boom");
+            });
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+            final JobScheduler.JobStatus status = scheduler.getJobs().get(0);
+            assertEquals("failing", status.getName());
+            assertTrue(status.getLastOutcome().contains("boom"));
+        }
+        assertTrue(runs.get() >= 3);
+        assertTrue(Metrics.get("jobs.failing.failures") >= 3);
+    }
+
+    @Test
+    public void testErrorDoesNotStopTheJob() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        try (final JobScheduler scheduler = new JobScheduler()) {
+            scheduler.schedule("erroring", Duration.ZERO, Duration.ofMillis(20), Duration.ZERO, () -> {
+                latch.countDown();
+                throw new StackOverflowError("deep");
+            });
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertTrue(scheduler.getJobs().get(0).getLastOutcome().contains("deep"));
+        }
+    }
+
+    @Test
+    public void testNoOverlap() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        try (final JobScheduler scheduler = new JobScheduler()) {
+            scheduler.schedule("slow", Duration.ZERO, Duration.ofMillis(10), Duration.ZERO, () -> {
+                runs.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            // Neither the schedule nor a trigger start a second run while the first one is running
+            Thread.sleep(100);
+            assertFalse(scheduler.trigger("slow"));
+            assertTrue(scheduler.getJobs().get(0).isRunning());
+            assertNull(scheduler.getJobs().get(0).getNextRun());
+            assertEquals(1, runs.get());
+
+            release.countDown();
+            while (scheduler.getJobs().get(0).isRunning())
+                Thread.sleep(5);
+            assertEquals("ok", scheduler.getJobs().get(0).getLastOutcome());
+        }
+        assertTrue(Metrics.get("jobs.slow.skipped") > 0);
+    }
+
+    @Test
+    public void testTrigger() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        try (final JobScheduler scheduler = new JobScheduler()) {
+            scheduler.schedule("daily", Duration.ofDays(1), Duration.ofDays(1), Duration.ZERO, latch::countDown);
+            assertNull(scheduler.getJobs().get(0).getLastStart());
+
+            assertFalse(scheduler.trigger("unknown"));
+            assertTrue(scheduler.trigger("daily"));
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+            assertThrows(IllegalArgumentException.class,
+                         () -> scheduler.schedule("daily", Duration.ZERO, Duration.ofDays(1), Duration.ZERO, () -> {}));
+        }
+    }
+
+    @Test
+    public void testAdaptive() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(3);
+        try (final JobScheduler scheduler = new JobScheduler()) {
+            scheduler.scheduleAdaptive("adaptive", Duration.ZERO, Duration.ofDays(1), Duration.ZERO, () -> {
+                latch.countDown();
+                return latch.getCount() > 0 ? Duration.ofMillis(10) : Duration.ofHours(1);
+            });
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            while (scheduler.getJobs().get(0).isRunning())
+                Thread.sleep(5);
+            assertEquals(Duration.ofHours(1), scheduler.getJobs().get(0).getPeriod());
+        }
+    }
+}
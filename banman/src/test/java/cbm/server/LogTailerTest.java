@@ -0,0 +1,30 @@
+package cbm.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LogTailerTest {
+
+    @Test
+    public void testPartialLines() {
+        final LogTailer tailer = new LogTailer("eu", "localhost", "/Launch.log", "user", "password");
+
+        assertEquals(List.of(), tailer.append(bytes("[0001.00] Log: Ini")));
+        assertEquals(List.of("[0001.00] Log: Init", "[0002.00] ScriptLog: Ronin"),
+                     tailer.append(bytes("t\r\n[0002.00] ScriptLog: Ronin\n[0003")));
+        // A multibyte character split across two polls
+        final byte[] name = bytes(".00] ScriptLog: Sieur Gauvain de Ce\u00f1al\n");
+        assertEquals(List.of(), tailer.append(Arrays.copyOf(name, name.length - 3)));
+        assertEquals(List.of("[0003.00] ScriptLog: Sieur Gauvain de Ce\u00f1al"),
+                     tailer.append(Arrays.copyOfRange(name, name.length - 3, name.length)));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,46 @@
+package cbm.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServerLogParserTest {
+
+    @Test
+    public void testDefaultPattern() {
+        final ServerLogParser parser = new ServerLogParser();
+
+        final ServerLogParser.Event ban =
+                parser.parse("[0123.45] ScriptLog: AdminKickBan 76561198084041050 \"Robin\" reason: \"Running away\"")
+                      .orElseThrow();
+        assertTrue(ban.isBan());
+        assertEquals("76561198084041050", ban.getPlayerId());
+        assertEquals("Robin", ban.getPlayerName());
+        assertEquals("Running away", ban.getReason());
+
+        final ServerLogParser.Event kick = parser.parse("[0124.00] ScriptLog: AdminKick 76561198084041051")
+                                                 .orElseThrow();
+        assertFalse(kick.isBan());
+        assertEquals("76561198084041051", kick.getPlayerId());
+        assertNull(kick.getPlayerName());
+        assertNull(kick.getReason());
+
+        assertTrue(parser.parse("[0125.00] ScriptLog: 76561198084041050 joined the game").isEmpty());
+        assertTrue(parser.parse("[0126.00] Log: Bandwidth 10000").isEmpty());
+    }
+
+    @Test
+    public void testCustomPattern() {
+        final ServerLogParser parser = new ServerLogParser("(?<action>BANNED) id=(?<id>\\d+)");
+        final ServerLogParser.Event event = parser.parse("BANNED id=123").orElseThrow();
+        assertTrue(event.isBan());
+        assertEquals("123", event.getPlayerId());
+        assertNull(event.getPlayerName());
+
+        assertThrows(IllegalArgumentException.class, () -> new ServerLogParser("BANNED (?<id>\\d+)"));
+    }
+}
@@ -0,0 +1,58 @@
+package cbm.server;
+
+import cbm.server.model.Ban;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServersDownloaderTest {
+
+    private static final Ban BAN = new Ban.Builder()
+                                           .setId("76561198084041050")
+                                           .setEnactedTime(Instant.parse("2019-05-01T18:23:51Z"))
+                                           .setDuration(Duration.ofHours(1))
+                                           .setPlayerName("Robin")
+                                           .setReason("Running away")
+                                           .build();
+
+    @Test
+    public void testConcurrentDownloads() throws Exception {
+        // Each download waits for the other one: they only complete if they run at the same time
+        final CountDownLatch latch = new CountDownLatch(2);
+        final Callable<Stream<Ban>> download = () -> {
+            latch.countDown();
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            return Stream.of(BAN);
+        };
+
+        try (final ServersDownloader downloader = new ServersDownloader(Map.of("eu", download, "us", download))) {
+            assertEquals(Map.of("eu", List.of(BAN), "us", List.of(BAN)), downloader.downloadBans());
+        }
+    }
+
+    @Test
+    public void testFailedDownload() {
+        final Callable<Stream<Ban>> failing = () -> {
+            throw new IOException("Connection refused");
+        };
+
+        try (final ServersDownloader downloader = new ServersDownloader(Map.of("eu", () -> Stream.of(BAN),
+                                                                               "us", failing))) {
+            final IOException e = assertThrows(IOException.class, downloader::downloadBans);
+            assertTrue(e.getMessage().contains("us"));
+        }
+        assertEquals(1, Metrics.get("servers.us.download.failures"));
+    }
+}
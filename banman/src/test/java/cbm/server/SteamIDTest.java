@@ -0,0 +1,82 @@
+package cbm.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SteamIDTest {
+
+    private static final long ID = 76561198084041050L;
+
+    @Test
+    public void testAllForms() {
+        for (String s : List.of("76561198084041050",
+                                "123775322",
+                                " 76561198084041050\n",
+                                "STEAM_0:0:61887661",
+                                "STEAM_1:0:61887661",
+                                "steam_0:0:61887661",
+                                "[U:1:123775322]",
+                                "U:1:123775322",
+                                "0x011000010760A95A",
+                                "0x011000010760a95a",
+                                "https://steamcommunity.com/profiles/76561198084041050",
+                                "https://steamcommunity.com/profiles/76561198084041050/",
+                                "http://steamcommunity.com/profiles/76561198084041050/?xml=1",
+                                "https://www.steamcommunity.com/profiles/76561198084041050#top",
+                                "HTTPS://SteamCommunity.com/profiles/76561198084041050/",
+                                "steamcommunity.com/profiles/76561198084041050",
+                                "https://steamcommunity.com/profiles/[U:1:123775322]/"))
+            assertEquals(Optional.of(ID), SteamID.steamID(s).map(SteamID::steamID64), s);
+    }
+
+    @Test
+    public void testInvalid() {
+        for (String s : List.of("",
+                                "robin",
+                                "STEAM_0:2:61887661",
+                                "STEAM_0:0:",
+                                "STEAM_6:0:61887661",
+                                "[U:1:123775322",
+                                "[U:2:123775322]",
+                                "0x",
+                                "0x1",
+                                "-5",
+                                "99999999999999999999",
+                                "https://steamcommunity.com/id/robin",
+                                "https://steamcommunity.com/profiles/76561198084041050/friends",
+                                "https://steamcommunity.com.evil/profiles/76561198084041050",
+                                "https://example.com/profiles/76561198084041050"))
+            assertTrue(SteamID.steamID(s).isEmpty(), s);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final SteamID steamID = SteamID.steamID(ID);
+        for (String s : List.of(steamID.s64(), steamID.steamID(), steamID.steamID3(), steamID.netIDAsString(),
+                                steamID.profileUrl()))
+            assertEquals(Optional.of(steamID), SteamID.steamID(s), s);
+    }
+
+    @Test
+    public void testVanityName() {
+        assertEquals(Optional.of("robin"), SteamID.vanityName("robin"));
+        assertEquals(Optional.of("Sir_Robin-2"), SteamID.vanityName("https://steamcommunity.com/id/Sir_Robin-2/"));
+        assertEquals(Optional.of("robin"), SteamID.vanityName("steamcommunity.com/id/robin?l=english"));
+
+        for (String s : List.of("76561198084041050",
+                                "[U:1:123775322]",
+                                "https://steamcommunity.com/profiles/76561198084041050",
+                                "https://steamcommunity.com/id/robin/friends",
+                                "https://steamcommunity.com/id/",
+                                "https://example.com/id/robin",
+                                "r",
+                                "not a name",
+                                "robin!"))
+            assertTrue(SteamID.vanityName(s).isEmpty(), s);
+    }
+}
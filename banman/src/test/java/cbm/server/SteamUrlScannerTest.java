@@ -0,0 +1,64 @@
+package cbm.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SteamUrlScannerTest {
+
+    @SuppressWarnings("HttpUrlsUsage")
+    @Test
+    public void testSteamProfile() {
+        assertTrue(isProfileUrl("https://steamcommunity.com/profiles/123"));
+        assertTrue(isProfileUrl("http://steamcommunity.com/profiles/123"));
+        assertTrue(isProfileUrl("https://steamcommunity.com/id/123"));
+        assertTrue(isProfileUrl("http://steamcommunity.com/id/123"));
+        assertTrue(isProfileUrl("https://steamCommunity.com/profiles/123"));
+        assertTrue(isProfileUrl("http://Steamcommunity.com/profiles/123"));
+        assertTrue(isProfileUrl("https://SteamCommunity.com/id/123"));
+        assertTrue(isProfileUrl("http://steamcommunity.com/id/123"));
+        assertTrue(isProfileUrl("https://www.steamcommunity.com/ID/robin/"));
+        assertTrue(isProfileUrl("steamcommunity.com/profiles/76561198084041050"));
+        assertFalse(isProfileUrl("http://steamcommunity.com/ids/123"));
+        assertFalse(isProfileUrl("http://streamcommunity.com/id/123"));
+        assertFalse(isProfileUrl("http://steamcommunity.com/profilei/123"));
+        assertFalse(isProfileUrl("http://steamcommunity.com/profilesd/123"));
+        assertFalse(isProfileUrl("http://steamcommunity.com/profileid/123"));
+        assertFalse(isProfileUrl("http://steamcommunity.com/profiled/123"));
+        assertFalse(isProfileUrl("https://mysteamcommunity.com/id/robin"));
+        assertFalse(isProfileUrl("https://steamcommunity.com/profiles/123abc"));
+        assertFalse(isProfileUrl("https://steamcommunity.com/profiles/765611980840410500"));
+        assertFalse(isProfileUrl("https://steamcommunity.com/id/r"));
+        assertFalse(isProfileUrl("https://steamcommunity.com/id/" + "r".repeat(33)));
+    }
+
+    @Test
+    public void testScan() {
+        final String text = "here is his profile https://steamcommunity.com/profiles/76561199073125902. " +
+                                    "Also <https://steamcommunity.com/id/sir_robin/?xml=1> and " +
+                                    "(steamcommunity.com/profiles/123775322), not https://example.com/id/robin";
+        final List<SteamUrlScanner.Match> matches = SteamUrlScanner.scan(text);
+        assertEquals(3, matches.size());
+
+        assertEquals(Optional.of(SteamID.steamID(76561199073125902L)), matches.get(0).getSteamID());
+        assertEquals("https://steamcommunity.com/profiles/76561199073125902",
+                     text.substring(matches.get(0).getStart(), matches.get(0).getEnd()));
+
+        assertEquals(Optional.empty(), matches.get(1).getSteamID());
+        assertEquals(Optional.of("sir_robin"), matches.get(1).getVanityName());
+
+        assertEquals(Optional.of(SteamID.steamID(76561198084041050L)), matches.get(2).getSteamID());
+
+        assertTrue(SteamUrlScanner.scan("no profile here, just steamcommunity.com").isEmpty());
+    }
+
+    private static boolean isProfileUrl(String url) {
+        final List<SteamUrlScanner.Match> matches = SteamUrlScanner.scan(url);
+        return matches.size() == 1 && matches.get(0).getStart() == 0;
+    }
+}
@@ -0,0 +1,224 @@
+package cbm.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.netty.http.client.HttpClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SteamWebTest {
+
+    private static final String PROFILE_XML =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+                    "<profile>\n" +
+                    "  <steamID64>76561198084041050</steamID64>\n" +
+                    "  <steamID><![CDATA[Sir <Robin>]]></steamID>\n" +
+                    "  <avatarIcon><![CDATA[small.jpg]]></avatarIcon>\n" +
+                    "  <avatarFull><![CDATA[full.jpg]]></avatarFull>\n" +
+                    "  <groups><group><steamID64>103582791429521408</steamID64></group></groups>\n" +
+                    "</profile>";
+    private static final String NO_PROFILE_XML =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" +
+                    "<response><error><![CDATA[The specified profile could not be found.]]></error></response>";
+
+    private HttpServer server;
+    private SteamWeb steamWeb;
+    private String baseUrl;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final AtomicInteger summaryRequests = new AtomicInteger();
+    private volatile long summariesDelayMillis;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/profiles/76561198084041050", exchange -> {
+            // The first request fails, to exercise the retry
+            if (requests.getAndIncrement() == 0)
+                respond(exchange, 503, "busy");
+            else
+                respond(exchange, 200, PROFILE_XML);
+        });
+        server.createContext("/profiles/76561198084041051", exchange -> {
+            requests.incrementAndGet();
+            if ("xml=1".equals(exchange.getRequestURI().getQuery()))
+                respond(exchange, 200, "<profile><steamID>");
+            else
+                respond(exchange, 200, "<html><span class=\"actual_persona_name\">Robin</span>" +
+                                               "<div class=\"playerAvatarAutoSizeInner\"><img src=\"a.jpg\"></div>");
+        });
+        server.createContext("/profiles/missing", exchange -> {
+            requests.incrementAndGet();
+            respond(exchange, 404, "not found");
+        });
+        server.createContext("/id/robin", exchange -> respond(exchange, 200, PROFILE_XML));
+        server.createContext("/id/nobody", exchange -> respond(exchange, 200, NO_PROFILE_XML));
+        server.createContext("/id/broken", exchange -> respond(exchange, 500, "oops"));
+        server.createContext("/lookup", exchange -> {
+            lookups.incrementAndGet();
+            final String form = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            if (form.equals("input=broken"))
+                respond(exchange, 200, "<dl><dt>steamID64</dt><dd>76561198084041051</dd></dl>");
+            else
+                respond(exchange, 200, "<dl></dl>");
+        });
+        server.createContext("/api/ISteamUser/GetPlayerSummaries/v2/", exchange -> {
+            summaryRequests.incrementAndGet();
+            try {
+                Thread.sleep(summariesDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            final String query = exchange.getRequestURI().getQuery();
+            if (!query.startsWith("key=secret&steamids=")) {
+                respond(exchange, 403, "forbidden");
+                return;
+            }
+
+            final String players =
+                    Arrays.stream(query.substring("key=secret&steamids=".length()).split(","))
+                          .filter(id -> !id.endsWith("0"))
+                          .map(id -> "{\"steamid\":\"" + id + "\",\"personaname\":\"p" + id + "\"," +
+                                             "\"avatarfull\":\"a" + id + "\",\"communityvisibilitystate\":3}")
+                          .collect(Collectors.joining(","));
+            respond(exchange, 200, "{\"response\":{\"players\":[" + players + "]}}");
+        });
+        server.start();
+
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        steamWeb = new SteamWeb(HttpClient.create().responseTimeout(Duration.ofSeconds(5)), baseUrl,
+                                baseUrl + "/lookup", baseUrl + "/api");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testXmlProfileWithRetry() {
+        final SteamWeb.Profile profile = steamWeb.getProfile(baseUrl + "/profiles/76561198084041050/").block();
+        assertEquals("Sir <Robin>", profile.getName());
+        assertEquals("full.jpg", profile.getAvatar());
+        assertEquals(2, requests.get());
+
+        // Cached
+        steamWeb.getProfile(baseUrl + "/profiles/76561198084041050/").block();
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testHtmlFallback() {
+        final SteamWeb.Profile profile = steamWeb.getProfile(baseUrl + "/profiles/76561198084041051/").block();
+        assertEquals("Robin", profile.getName());
+        assertEquals("a.jpg", profile.getAvatar());
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testNotFoundIsNotRetried() {
+        final Exception e = assertThrows(Exception.class,
+                                         () -> steamWeb.getProfile(baseUrl + "/profiles/missing").block());
+        assertEquals(404, ((SteamWeb.HttpStatusException) e.getCause()).getStatusCode());
+        // Once for the XML, once for the HTML
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testLookup() {
+        assertEquals(SteamID.steamID(76561198084041050L), steamWeb.getSteamID("robin").block());
+        assertNull(steamWeb.getSteamID("nobody").block());
+        assertEquals(0, lookups.get());
+
+        assertEquals(SteamID.steamID(76561198084041051L), steamWeb.getSteamID("broken").block());
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void testBatchedSummaries() {
+        steamWeb.configureApiKey("secret");
+
+        final List<SteamID> steamIDs = LongStream.range(76561198000000000L, 76561198000000250L)
+                                                 .mapToObj(SteamID::steamID)
+                                                 .collect(Collectors.toList());
+        final Map<SteamID, String> names =
+                Flux.fromIterable(steamIDs)
+                    .flatMap(steamID -> steamWeb.getPlayerSummary(steamID)
+                                                .map(profile -> Map.entry(steamID, profile.getName())))
+                    .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                    .block();
+
+        // Every tenth player doesn't exist
+        assertEquals(225, names.size());
+        assertEquals("p76561198000000001", names.get(steamIDs.get(1)));
+        assertEquals(3, summaryRequests.get());
+
+        // Cached
+        assertEquals("a76561198000000001",
+                     steamWeb.getPlayerSummary(steamIDs.get(1)).map(SteamWeb.Profile::getAvatar).block());
+        assertEquals(3, summaryRequests.get());
+    }
+
+    @Test
+    public void testSlowSummaries() {
+        steamWeb.configureApiKey("secret");
+        summariesDelayMillis = 200;
+
+        // Small groups of lookups, each flushed by the batch delay, while the previous batches are in flight
+        final List<SteamID> steamIDs = LongStream.range(76561198000000000L, 76561198000000080L)
+                                                 .mapToObj(SteamID::steamID)
+                                                 .collect(Collectors.toList());
+        final Long found = Flux.fromIterable(steamIDs)
+                               .buffer(10)
+                               .delayElements(Duration.ofMillis(100))
+                               .flatMap(Flux::fromIterable)
+                               .flatMap(steamWeb::getPlayerSummary, steamIDs.size())
+                               .count()
+                               .block(Duration.ofSeconds(30));
+
+        assertEquals(72, found);
+
+        // Still batching
+        assertEquals("p76561198000001001",
+                     steamWeb.getPlayerSummary(SteamID.steamID(76561198000001001L))
+                             .map(SteamWeb.Profile::getName)
+                             .block(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void testSummariesFallback() {
+        final SteamID steamID = SteamID.steamID(76561198084041050L);
+
+        steamWeb.configureApiKey("wrong");
+        assertEquals("Sir <Robin>", steamWeb.getPlayerSummary(steamID)
+                                            .map(SteamWeb.Profile::getName)
+                                            .block());
+        assertEquals(1, summaryRequests.get());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
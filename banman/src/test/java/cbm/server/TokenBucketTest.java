@@ -0,0 +1,31 @@
+package cbm.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TokenBucketTest {
+
+    @Test
+    public void testReserve() {
+        final AtomicLong now = new AtomicLong();
+        final TokenBucket bucket = new TokenBucket(3, Duration.ofSeconds(1), now::get);
+
+        for (int i = 0; i < 3; ++i)
+            assertEquals(Duration.ZERO, bucket.reserve());
+        assertEquals(Duration.ofSeconds(1), bucket.reserve());
+        assertEquals(Duration.ofSeconds(2), bucket.reserve());
+
+        now.addAndGet(Duration.ofMillis(2500).toNanos());
+        assertEquals(Duration.ofMillis(500), bucket.reserve());
+
+        // Never more than the capacity
+        now.addAndGet(Duration.ofHours(1).toNanos());
+        for (int i = 0; i < 3; ++i)
+            assertEquals(Duration.ZERO, bucket.reserve());
+        assertEquals(Duration.ofSeconds(1), bucket.reserve());
+    }
+}
@@ -0,0 +1,97 @@
+package cbm.server.api;
+
+import cbm.server.db.BansDatabase;
+import cbm.server.model.Ban;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ApiServerTest {
+
+    private static final Ban ROBIN = new Ban.Builder()
+                                             .setId("76561198084041050")
+                                             .setEnactedTime(Instant.now().truncatedTo(ChronoUnit.SECONDS))
+                                             .setDuration(Duration.ofDays(7))
+                                             .setPlayerName("Robin")
+                                             .setReason("Running away")
+                                             .build();
+    private static final Ban LANCELOT = new Ban.Builder()
+                                                .setId("76561198084041051")
+                                                .setEnactedTime(Instant.now().truncatedTo(ChronoUnit.SECONDS))
+                                                .setDuration(Duration.ofDays(7))
+                                                .setPlayerName("Lancelot")
+                                                .setReason("Teamkilling")
+                                                .build();
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Test
+    public void testBans(@TempDir Path dir) throws Exception {
+        try (final BansDatabase db = new BansDatabase(dir.toString());
+             final ApiServer api = new ApiServer(new InetSocketAddress("127.0.0.1", 0), db)) {
+
+            final Instant first = Instant.parse("2021-06-01T00:00:00Z");
+            db.storeBans(first, Stream.of(ROBIN));
+
+            final HttpResponse<String> status = get(api, "/api/bans/" + ROBIN.getId(), null);
+            assertEquals(200, status.statusCode());
+            assertTrue(json(status).get("banned").getAsBoolean());
+            assertFalse(json(get(api, "/api/bans/" + LANCELOT.getId(), null)).get("banned").getAsBoolean());
+
+            // Not modified until the bans change, even if they are updated
+            final String etag = get(api, "/api/bans", null).headers().firstValue("ETag").orElseThrow();
+            assertEquals(304, get(api, "/api/bans", etag).statusCode());
+            db.storeBans(first.plusSeconds(300), Stream.of(ROBIN));
+            assertEquals(304, get(api, "/api/bans", etag).statusCode());
+
+            db.storeBans(first.plusSeconds(600), Stream.of(ROBIN, LANCELOT));
+            final HttpResponse<String> all = get(api, "/api/bans", etag);
+            assertEquals(200, all.statusCode());
+            assertNotEquals(etag, all.headers().firstValue("ETag").orElseThrow());
+            assertEquals(2, json(all).getAsJsonArray("bans").size());
+
+            // Only the changes after the first update
+            final JsonObject changes = json(get(api, "/api/bans?since=" + first, null));
+            assertEquals(first.plusSeconds(600).toString(), changes.get("lastUpdate").getAsString());
+            assertEquals(1, changes.getAsJsonArray("changes").size());
+            assertEquals("Lancelot", changes.getAsJsonArray("changes").get(0).getAsJsonObject()
+                                            .getAsJsonObject("ban").get("playerName").getAsString());
+            assertEquals(0, json(get(api, "/api/bans?since=" + first.plusSeconds(600).getEpochSecond(), null))
+                                   .getAsJsonArray("changes").size());
+            assertEquals(400, get(api, "/api/bans?since=yesterday", null).statusCode());
+
+            final JsonObject history = json(get(api, "/api/history/" + ROBIN.getId(), null));
+            assertEquals(1, history.getAsJsonArray("history").size());
+            assertEquals(404, get(api, "/api/history/nobody", null).statusCode());
+        }
+    }
+
+    private HttpResponse<String> get(ApiServer api, String path, String etag) throws Exception {
+        final HttpRequest.Builder request =
+                HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + api.getAddress().getPort() + path));
+        if (etag != null)
+            request.header("If-None-Match", etag);
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static JsonObject json(HttpResponse<String> response) {
+        return JsonParser.parseString(response.body()).getAsJsonObject();
+    }
+}
@@ -0,0 +1,44 @@
+package cbm.server.bot;
+
+import discord4j.core.spec.EmbedCreateSpec;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EmbedSenderTest {
+
+    @Test
+    public void testPackByCount() {
+        final List<List<Integer>> messages = EmbedSender.pack(Flux.range(0, 25), i -> 10)
+                                                        .collectList()
+                                                        .block();
+        assertEquals(List.of(10, 10, 5), messages.stream().map(List::size).collect(Collectors.toList()));
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), messages.get(0));
+        assertEquals(24, messages.get(2).get(4));
+    }
+
+    @Test
+    public void testPackByLength() {
+        final List<List<Integer>> messages = EmbedSender.pack(Flux.just(2500, 2500, 1001, 999, 6000, 7000, 1), i -> i)
+                                                        .collectList()
+                                                        .block();
+        assertEquals(List.of(List.of(2500, 2500), List.of(1001, 999), List.of(6000), List.of(7000), List.of(1)),
+                     messages);
+    }
+
+    @Test
+    public void testLength() {
+        final Consumer<EmbedCreateSpec> embed = e -> e.setTitle("title")
+                                                      .setDescription("description")
+                                                      .setAuthor("author", null, null)
+                                                      .setFooter("footer", null)
+                                                      .setUrl("https://example.com/not-counted")
+                                                      .addField("name", "value", true);
+        assertEquals(5 + 11 + 6 + 6 + 4 + 5, EmbedSender.length(embed));
+    }
+}
@@ -0,0 +1,62 @@
+package cbm.server.bot;
+
+import cbm.server.db.BansDatabase.BanLogEntry;
+import cbm.server.model.Ban;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class InfoCommandTest {
+
+    @Test
+    public void testPairBanHistory() {
+        final List<List<String>> pairs =
+                InfoCommand.pairBanHistory(Flux.just(entry("2019-05-01T18:23:55Z", "provisional"),
+                                                     entry("2019-05-01T18:30:00Z", "add"),
+                                                     entry("2019-05-01T19:30:00Z", "remove"),
+                                                     entry("2019-05-02T10:00:03Z", "provisional"),
+                                                     entry("2019-05-02T10:10:00Z", "add")))
+                           .map(pair -> pair.stream()
+                                            .map(e -> e.getAction() + " " + e.getDetectedAt())
+                                            .collect(Collectors.toList()))
+                           .collectList()
+                           .block();
+
+        assertEquals(List.of(List.of("add 2019-05-01T18:30:00Z", "remove 2019-05-01T19:30:00Z"),
+                             List.of("add 2019-05-02T10:10:00Z")),
+                     pairs);
+    }
+
+    private static BanLogEntry entry(String detectedAt, String action) {
+        final Ban ban = new Ban.Builder()
+                                .setId("76561198084041050")
+                                .setEnactedTime(Instant.parse(detectedAt))
+                                .setDuration(Duration.ofHours(1))
+                                .setPlayerName("Robin")
+                                .setReason("Running away")
+                                .build();
+        return new BanLogEntry() {
+            @Override
+            public @NotNull Instant getDetectedAt() {
+                return Instant.parse(detectedAt);
+            }
+
+            @Override
+            public @NotNull String getAction() {
+                return action;
+            }
+
+            @Override
+            public @NotNull Ban getBan() {
+                return ban;
+            }
+        };
+    }
+}
@@ -0,0 +1,100 @@
+package cbm.server.db;
+
+import cbm.server.SteamID;
+import cbm.server.model.Ban;
+import cbm.server.model.OfflineBan;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BanListExportTest {
+
+    private static final Instant ENACTED = Instant.parse("2021-06-01T00:00:00Z");
+
+    @Test
+    public void testExport(@TempDir Path dir) throws Exception {
+        final Path export = dir.resolve("export");
+        final Instant first = Instant.parse("2021-06-01T12:00:00Z");
+        final Instant second = first.plusSeconds(600);
+
+        try (final BansDatabase db = new BansDatabase(dir.toString())) {
+            assertEquals(0, BanListExport.open(export).size());
+
+            db.storeBans(first, Stream.of(ban(3, Duration.ofDays(7)), ban(1, Duration.ZERO),
+                                          ban(2, Duration.ofMinutes(1))));
+            final BanListExport bans = BanListExport.open(export);
+            assertEquals(1, bans.getSequence());
+            assertEquals(first, bans.getLastUpdate());
+            assertEquals(3, bans.size());
+            assertEquals(steamID(1), bans.getSteamID(0));
+            assertEquals(steamID(3), bans.getSteamID(2));
+
+            assertEquals(BanListExport.PERMANENT, bans.getExpiry(bans.indexOf(steamID(1))));
+            assertEquals(ENACTED.plus(Duration.ofDays(7)).getEpochSecond(), bans.getExpiry(bans.indexOf(steamID(3))));
+            assertEquals(BanListExport.SHORT_BAN, bans.getFlags(bans.indexOf(steamID(2))));
+            assertTrue(bans.indexOf(steamID(4)) < 0);
+
+            db.addOfflineBan(new OfflineBan.Builder()
+                                     .setId(SteamID.steamID(steamID(4)).s64())
+                                     .setEnactedTime(ENACTED)
+                                     .setDuration(Duration.ofDays(1))
+                                     .setPlayerName("player_4")
+                                     .setReason("Teamkilling")
+                                     .build(), false).block();
+            db.storeBans(second, Stream.of(ban(1, Duration.ZERO), ban(2, Duration.ofDays(2))));
+
+            // Unchanged: not exported again
+            db.storeBans(second.plusSeconds(600), Stream.of(ban(1, Duration.ZERO), ban(2, Duration.ofDays(2))));
+        }
+
+        final BanListExport bans = BanListExport.open(export);
+        assertEquals(second, bans.getLastUpdate());
+        assertEquals(3, bans.getSequence());
+        assertEquals(3, bans.size());
+        assertEquals(BanListExport.OFFLINE_BAN, bans.getFlags(bans.indexOf(steamID(4))));
+
+        // 3 is removed, 2 is changed; 4 was added by the previous export
+        assertArrayEquals(new long[]{steamID(2), steamID(3)}, BanListExport.readChanges(export, 2));
+        assertArrayEquals(new long[0], BanListExport.readChanges(export, 3));
+        assertNull(BanListExport.readChanges(export, 1));
+    }
+
+    @Test
+    public void testCorruptExport(@TempDir Path dir) throws Exception {
+        try (final BansDatabase db = new BansDatabase(dir.toString())) {
+            db.storeBans(Instant.parse("2021-06-01T12:00:00Z"), Stream.of(ban(1, Duration.ZERO)));
+        }
+
+        final Path file = dir.resolve("export").resolve(BanListExport.FILE_NAME);
+        final byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> BanListExport.open(dir.resolve("export")));
+    }
+
+    private static long steamID(int i) {
+        return 76561197960265728L + i;
+    }
+
+    private static Ban ban(int i, Duration duration) {
+        return new Ban.Builder()
+                       .setId(Long.toString(steamID(i)))
+                       .setEnactedTime(ENACTED)
+                       .setDuration(duration)
+                       .setPlayerName("player_" + i)
+                       .setReason("Teamkilling")
+                       .build();
+    }
+}
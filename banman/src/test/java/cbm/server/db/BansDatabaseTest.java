@@ -0,0 +1,310 @@
+package cbm.server.db;
+
+import cbm.server.SteamID;
+import cbm.server.model.Ban;
+import cbm.server.model.Mention;
+import cbm.server.model.MentionMetadata;
+import cbm.server.model.OfflineBan;
+import discord4j.common.util.Snowflake;
+import jetbrains.exodus.bindings.BindingUtils;
+import jetbrains.exodus.bindings.ComparableBinding;
+import jetbrains.exodus.entitystore.Entity;
+import jetbrains.exodus.entitystore.PersistentEntityStore;
+import jetbrains.exodus.entitystore.PersistentEntityStores;
+import jetbrains.exodus.util.LightOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BansDatabaseTest {
+
+    private static final Snowflake GUILD = Snowflake.of(111);
+    private static final Snowflake CHANNEL = Snowflake.of(222);
+    private static final ComparableBinding LEGACY_SNOWFLAKE_BINDING = new ComparableBinding() {
+        @Override
+        public Snowflake readObject(@NotNull ByteArrayInputStream stream) {
+            return Snowflake.of(BindingUtils.readString(stream));
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public void writeObject(@NotNull LightOutputStream output, @NotNull Comparable object) {
+            output.writeString(((Snowflake) object).asString());
+        }
+    };
+
+    @Test
+    public void testMentionMetadata(@TempDir Path dir) throws Exception {
+        final SteamID robin = SteamID.steamID(76561198084041050L);
+        final SteamID lancelot = SteamID.steamID(76561198084041051L);
+        final Instant now = Instant.now();
+
+        try (final BansDatabase db = new BansDatabase(dir.toString())) {
+            db.addMentionSync(new Mention(robin, now, GUILD, CHANNEL, Snowflake.of(1), null));
+            db.addMentionSync(new Mention(lancelot, now, GUILD, CHANNEL, Snowflake.of(1), null));
+            db.addMentionSync(new Mention(robin, now, GUILD, CHANNEL, Snowflake.of(2),
+                                          metadata("Arthur", now.minus(Duration.ofDays(30)))));
+            db.addMentionSync(new Mention(robin, now, GUILD, CHANNEL, Snowflake.of(3), metadata("Bedevere", now)));
+
+            final List<Mention> stale = db.findStaleMentions(now.minus(Duration.ofDays(7)), 10)
+                                          .collectList()
+                                          .block();
+            assertEquals(3, stale.size());
+            assertEquals(List.of(Snowflake.of(1), Snowflake.of(1), Snowflake.of(2)),
+                         stale.stream().map(Mention::getMessageId).sorted().collect(Collectors.toList()));
+
+            db.updateMentionMetadata(Snowflake.of(1), metadata("Galahad", now)).block();
+            db.updateMentionMetadata(Snowflake.of(2), new MentionMetadata.Builder()
+                                                              .setChannelName("watch-list")
+                                                              .setUpdatedAt(now)
+                                                              .build()).block();
+            assertTrue(db.findStaleMentions(now.minus(Duration.ofDays(7)), 10).collectList().block().isEmpty());
+
+            final List<Mention> mentions = db.findMentions(robin).collectList().block();
+            assertEquals(3, mentions.size());
+            for (Mention mention : mentions) {
+                final MentionMetadata metadata = mention.getMetadata();
+                if (mention.getMessageId().equals(Snowflake.of(1))) {
+                    assertEquals("Galahad", metadata.getAuthorName());
+                    assertEquals(0x123456, metadata.getAuthorColor());
+                    assertEquals(Snowflake.of(42), metadata.getAuthorId());
+                } else if (mention.getMessageId().equals(Snowflake.of(2))) {
+                    // The message was deleted
+                    assertNull(metadata.getAuthorName());
+                    assertNull(metadata.getAuthorColor());
+                    assertEquals("watch-list", metadata.getChannelName());
+                } else {
+                    assertEquals("Bedevere", metadata.getAuthorName());
+                }
+            }
+            assertEquals("Galahad", db.findMentions(lancelot).blockFirst().getMetadata().getAuthorName());
+        }
+    }
+
+    @Test
+    public void testIndexOutbox(@TempDir Path dir) throws Exception {
+        final Ban ban = new Ban.Builder()
+                                .setId("76561198084041050")
+                                .setEnactedTime(Instant.parse("2019-05-01T18:23:51Z"))
+                                .setDuration(Duration.ofHours(1))
+                                .setPlayerName("Robin")
+                                .setReason("Running away")
+                                .build();
+
+        try (final BansDatabase db = new BansDatabase(dir.toString())) {
+            db.storeBans(Instant.parse("2019-05-01T19:00:00Z"), Stream.of(ban));
+            db.drainIndexOutbox();
+            assertEquals(1, db.searchBansSync(new SearchRequest("running")).getTotal());
+
+            // Removed, then added again: indexed again, but only once
+            db.storeBans(Instant.parse("2019-05-01T20:00:00Z"), Stream.of());
+            db.storeBans(Instant.parse("2019-05-01T21:00:00Z"), Stream.of(ban));
+        }
+
+        // Closing waits for the indexer
+        try (final BansDatabase db = new BansDatabase(dir.toString())) {
+            db.drainIndexOutbox();
+            final SearchResponse<Ban> response = db.searchBansSync(new SearchRequest("running"));
+            assertEquals(1, response.getTotal());
+            assertEquals("Robin", response.results.get(0).getPlayerName());
+        }
+    }
+
+    @Test
+    public void testMultipleServers(@TempDir Path dir) throws Exception {
+        final Ban robin = ban("76561198084041050", "Robin");
+        final Ban lancelot = ban("76561198084041051", "Lancelot");
+
+        try (final BansDatabase db = new BansDatabase(dir.toString())) {
+            final BansDatabase.Stats stats =
+                    db.storeBans(Instant.parse("2019-05-01T19:00:00Z"),
+                                 Map.of("eu", List.of(robin, lancelot), "us", List.of(robin)));
+            assertEquals(2, stats.numAdded());
+            assertEquals(Map.of(lancelot.getId(), Set.of("us")), stats.divergentBans());
+            assertEquals(Set.of("eu", "us"), db.getBanServersSync(robin.getId()));
+            assertEquals(Set.of("eu"), db.getBanServersSync(lancelot.getId()));
+
+            // Seen on another server, without being a new ban
+            final BansDatabase.Stats next =
+                    db.storeBans(Instant.parse("2019-05-01T20:00:00Z"),
+                                 Map.of("eu", List.of(robin, lancelot), "us", List.of(robin, lancelot)));
+            assertEquals(0, next.numAdded() + next.numRemoved());
+            assertTrue(next.divergentBans().isEmpty());
+            assertEquals(Set.of("eu", "us"), db.getBanServersSync(lancelot.getId()));
+
+            // A copy which differs is reported, the longer ban is stored
+            final Ban extended = new Ban.Builder()
+                                         .setId(robin.getId())
+                                         .setEnactedTime(robin.getEnactedTime())
+                                         .setDuration(Duration.ofDays(1))
+                                         .setPlayerName("Robin")
+                                         .setReason("Running away")
+                                         .build();
+            final BansDatabase.Stats differing =
+                    db.storeBans(Instant.parse("2019-05-01T21:00:00Z"),
+                                 Map.of("eu", List.of(robin, lancelot), "us", List.of(extended, lancelot)));
+            assertEquals(Map.of(robin.getId(), Set.of("eu")), differing.divergentBans());
+            assertEquals(List.of(extended), db.getCurrentBansSync()
+                                               .stream()
+                                               .filter(ban -> ban.getId().equals(robin.getId()))
+                                               .collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testProvisionalBans(@TempDir Path dir) throws Exception {
+        final Ban robin = ban("76561198084041050", "Robin");
+        final Ban lancelot = ban("76561198084041051", "Lancelot");
+        final Instant detectedAt = Instant.parse("2019-05-01T18:24:00Z");
+
+        try (final BansDatabase db = new BansDatabase(dir.toString())) {
+            assertTrue(db.addProvisionalBanSync(detectedAt, robin));
+            assertTrue(db.addProvisionalBanSync(detectedAt, lancelot));
+            assertFalse(db.addProvisionalBanSync(detectedAt, robin));
+            assertEquals("provisional",
+                         db.getBanHistorySync(SteamID.steamID(76561198084041050L)).get(0).getAction());
+
+            // Robin's ban is confirmed, Lancelot's one is still pending
+            db.storeBans(Instant.parse("2019-05-01T19:00:00Z"), Stream.of(robin));
+            assertFalse(db.addProvisionalBanSync(detectedAt, robin));
+            assertFalse(db.addProvisionalBanSync(detectedAt, lancelot));
+            assertEquals(List.of("provisional", "add"),
+                         db.getBanHistorySync(SteamID.steamID(76561198084041050L))
+                           .stream()
+                           .map(BansDatabase.BanLogEntry::getAction)
+                           .collect(Collectors.toList()));
+
+            // Then Lancelot's one is never confirmed
+            db.storeBans(Instant.parse("2019-05-01T21:00:00Z"), Stream.of(robin));
+            assertTrue(db.getBanHistorySync(SteamID.steamID(76561198084041051L)).isEmpty());
+            assertTrue(db.addProvisionalBanSync(detectedAt, lancelot));
+        }
+    }
+
+    @Test
+    public void testMigrateLongIds(@TempDir Path dir) throws Exception {
+        // As stored by older versions
+        try (final PersistentEntityStore store = PersistentEntityStores.newInstance(dir.toString())) {
+            store.executeInTransaction(txn -> {
+                store.registerCustomPropertyType(txn, Snowflake.class, LEGACY_SNOWFLAKE_BINDING);
+                final Entity channel = txn.newEntity("Channel");
+                channel.setProperty("channel-id", CHANNEL);
+                channel.setProperty("latest-message-id", Snowflake.of(1234567890123456789L));
+                for (int i = 0; i < 2500; ++i) {
+                    final Entity offlineBan = txn.newEntity("OfflineBan");
+                    offlineBan.setProperty("player-id", Long.toString(76561198000000000L + i));
+                    offlineBan.setProperty("player-name", "player" + i);
+                }
+            });
+            // The migration skips the deleted entities
+            store.executeInTransaction(txn -> {
+                int i = 0;
+                for (Entity offlineBan : txn.getAll("OfflineBan"))
+                    if (i++ % 100 == 0)
+                        offlineBan.delete();
+            });
+        }
+
+        try (final BansDatabase db = new BansDatabase(dir.toString())) {
+            db.migrateLongIds();
+            assertEquals(Snowflake.of(1234567890123456789L), db.getLastProcessedMessageIdSync(CHANNEL));
+            assertEquals(2475, db.getOfflineBansSync().size());
+            assertTrue(db.removeOfflineBanSync(SteamID.steamID(76561198000001234L)));
+            assertEquals(2474, db.getOfflineBansSync().size());
+        }
+
+        try (final PersistentEntityStore store = PersistentEntityStores.newInstance(dir.toString())) {
+            store.executeInReadonlyTransaction(txn -> {
+                final Entity channel = Objects.requireNonNull(txn.getAll("Channel").getFirst());
+                assertEquals(1234567890123456789L, channel.getProperty("latest-message-id"));
+                for (Entity offlineBan : txn.getAll("OfflineBan"))
+                    assertTrue(offlineBan.getProperty("player-id") instanceof Long);
+            });
+        }
+    }
+
+    private static MentionMetadata metadata(String author, Instant updatedAt) {
+        return new MentionMetadata.Builder()
+                       .setAuthorId(Snowflake.of(42))
+                       .setAuthorName(author)
+                       .setAuthorAvatarUrl("https://cdn.discordapp.com/avatars/42/a.png")
+                       .setAuthorColor(0x123456)
+                       .setChannelName("watch-list")
+                       .setUpdatedAt(updatedAt)
+                       .build();
+    }
+
+    @Test
+    public void testEvents(@TempDir Path dir) throws Exception {
+        final Ban robin = ban("76561198084041050", "Robin");
+        final Ban lancelot = ban("76561197960287930", "Lancelot");
+        final Ban galahad = ban("76561197960287931", "Galahad");
+        final Ban extended = new Ban.Builder()
+                                     .setId(lancelot.getId())
+                                     .setEnactedTime(lancelot.getEnactedTime())
+                                     .setDuration(Duration.ofDays(7))
+                                     .setPlayerName("Lancelot")
+                                     .setReason("Running away")
+                                     .build();
+        final OfflineBan offlineBan = new OfflineBan.Builder()
+                                              .setId(robin.getId())
+                                              .setEnactedTime(Instant.parse("2019-05-01T18:00:00Z"))
+                                              .setDuration(Duration.ofMinutes(30))
+                                              .setPlayerName("Robin")
+                                              .setReason("Running away")
+                                              .build();
+
+        final Mono<List<BanEvent>> events;
+        try (final BansDatabase db = new BansDatabase(dir.toString())) {
+            events = db.events().collectList().cache();
+            events.subscribe();
+
+            // The first bans stored are all new, they are not published
+            db.storeBans(Instant.parse("2019-05-01T18:00:00Z"), Stream.of(galahad));
+            assertEquals(Boolean.TRUE, db.addOfflineBan(offlineBan, false).block());
+            db.storeBans(Instant.parse("2019-05-01T19:00:00Z"), Stream.of(robin, lancelot));
+            db.storeBans(Instant.parse("2019-05-01T20:00:00Z"), Stream.of(extended));
+        }
+
+        // Closing completes the events. The order of the bans of an update is unspecified.
+        final List<String> actual = Objects.requireNonNull(events.block(Duration.ofSeconds(10)))
+                                           .stream()
+                                           .map(e -> e.getTimestamp().atZone(ZoneOffset.UTC).getHour() + " "
+                                                     + e.getType() + " " + e.getBan().getPlayerName() + " "
+                                                     + e.getBan().getDuration().toHours())
+                                           .sorted()
+                                           .collect(Collectors.toList());
+        assertEquals(List.of("19 ADDED Lancelot 1", "19 ADDED Robin 1", "19 OFFLINE_APPLIED Robin 1",
+                             "19 REMOVED Galahad 1", "20 ADDED Lancelot 168", "20 REMOVED Lancelot 1",
+                             "20 REMOVED Robin 1"),
+                     actual);
+    }
+
+    private static Ban ban(String id, String playerName) {
+        return new Ban.Builder()
+                       .setId(id)
+                       .setEnactedTime(Instant.parse("2019-05-01T18:23:51Z"))
+                       .setDuration(Duration.ofHours(1))
+                       .setPlayerName(playerName)
+                       .setReason("Running away")
+                       .build();
+    }
+}
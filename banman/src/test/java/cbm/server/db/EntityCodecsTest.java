@@ -0,0 +1,273 @@
+package cbm.server.db;
+
+import cbm.server.SteamID;
+import cbm.server.model.Ban;
+import cbm.server.model.Mention;
+import cbm.server.model.MentionMetadata;
+import cbm.server.model.OfflineBan;
+import discord4j.common.util.Snowflake;
+import jetbrains.exodus.entitystore.Entity;
+import jetbrains.exodus.entitystore.PersistentEntityStores;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class EntityCodecsTest {
+
+    private static final String ENTITY_TYPE = "Record";
+    private static final SteamID ROBIN = SteamID.steamID(76561198084041050L);
+    private static final Instant ENACTED_TIME = Instant.parse("2021-06-01T12:00:00Z");
+    private static final Instant NOW = Instant.parse("2021-06-02T08:30:00Z");
+
+    private InstrumentedPersistentEntityStore store;
+
+    @BeforeEach
+    public void setUp(@TempDir Path dir) {
+        store = new InstrumentedPersistentEntityStore(PersistentEntityStores.newInstance(dir.toString()));
+        store.registerCustomPropertyTypes(BansDatabase.PROPERTY_TYPES);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void testBanRecord() {
+        final Ban full = ban(ROBIN.s64());
+        assertBan(full, write(entity -> EntityCodecs.writeBan(entity, full), EntityCodecs::readBan));
+
+        final Ban partial = new Ban.Builder().setId("Robin").build();
+        assertBan(partial, write(entity -> EntityCodecs.writeBan(entity, partial), EntityCodecs::readBan));
+    }
+
+    @Test
+    public void testLegacyBan() {
+        final Ban ban = ban(ROBIN.s64());
+        assertBan(ban, write(entity -> {
+            entity.setProperty("player-id", ban.getId());
+            entity.setProperty("enacted-time", ban.getEnactedTime());
+            entity.setProperty("duration", ban.getDuration());
+            entity.setProperty("ip-policy", ban.getIpPolicy());
+            entity.setProperty("player-name", ban.getPlayerName());
+            entity.setProperty("reason", ban.getReason());
+        }, EntityCodecs::readBan));
+
+        assertBan(new Ban.Builder().setId(ROBIN.s64()).build(),
+                  write(entity -> entity.setProperty("player-id", ROBIN.steamID64()), EntityCodecs::readBan));
+    }
+
+    @Test
+    public void testOfflineBanRecord() {
+        final OfflineBan full = new OfflineBan.Builder()
+                                        .setId(ROBIN.s64())
+                                        .setEnactedTime(ENACTED_TIME)
+                                        .setDuration(Duration.ofDays(7))
+                                        .setPlayerName("Robin")
+                                        .setReason("Teamkilling")
+                                        .build();
+        assertOfflineBan(full, write(entity -> EntityCodecs.writeOfflineBan(entity, full),
+                                     EntityCodecs::readOfflineBan));
+
+        final OfflineBan partial = new OfflineBan.Builder().setId(ROBIN.s64()).build();
+        assertOfflineBan(partial, write(entity -> EntityCodecs.writeOfflineBan(entity, partial),
+                                        EntityCodecs::readOfflineBan));
+    }
+
+    @Test
+    public void testLegacyOfflineBan() {
+        final OfflineBan offlineBan = new OfflineBan.Builder()
+                                              .setId(ROBIN.s64())
+                                              .setEnactedTime(ENACTED_TIME)
+                                              .setReason("Teamkilling")
+                                              .build();
+        assertOfflineBan(offlineBan, write(entity -> {
+            entity.setProperty("player-id", offlineBan.getId());
+            entity.setProperty("enacted-time", offlineBan.getEnactedTime());
+            entity.setProperty("reason", offlineBan.getReason());
+        }, EntityCodecs::readOfflineBan));
+    }
+
+    @Test
+    public void testBanLogEntryRecord() {
+        final Ban ban = ban(ROBIN.s64());
+        final BansDatabase.BanLogEntry entry =
+                write(entity -> EntityCodecs.writeBanLogEntry(entity, NOW, "add", ban), EntityCodecs::readBanLogEntry);
+
+        assertEquals(NOW, entry.getDetectedAt());
+        assertEquals("add", entry.getAction());
+        assertBan(ban, entry.getBan());
+        assertEquals(NOW, read(entity -> entity.getProperty("detected-at")));
+    }
+
+    @Test
+    public void testLegacyBanLogEntry() {
+        final Ban ban = new Ban.Builder().setId(ROBIN.s64()).setPlayerName("Robin").build();
+        final BansDatabase.BanLogEntry entry = write(entity -> {
+            entity.setProperty("detected-at", NOW);
+            entity.setProperty("action", "remove");
+            entity.setProperty("player-id", ban.getId());
+            entity.setProperty("player-name", ban.getPlayerName());
+        }, EntityCodecs::readBanLogEntry);
+
+        assertEquals(NOW, entry.getDetectedAt());
+        assertEquals("remove", entry.getAction());
+        assertBan(ban, entry.getBan());
+    }
+
+    @Test
+    public void testMentionRecord() {
+        final Mention full = mention(new MentionMetadata.Builder()
+                                             .setAuthorId(Snowflake.of(42))
+                                             .setAuthorName("Arthur")
+                                             .setAuthorAvatarUrl("https://cdn.discordapp.com/avatars/42/a.png")
+                                             .setAuthorColor(0x123456)
+                                             .setChannelName("watch-list")
+                                             .setUpdatedAt(NOW)
+                                             .build());
+        assertMention(full, write(entity -> EntityCodecs.writeMention(entity, full),
+                                  entity -> EntityCodecs.readMention(ROBIN, entity)));
+
+        final Mention partial = mention(new MentionMetadata.Builder()
+                                                .setAuthorName("Arthur")
+                                                .setUpdatedAt(NOW)
+                                                .build());
+        assertMention(partial, write(entity -> EntityCodecs.writeMention(entity, partial),
+                                     entity -> EntityCodecs.readMention(ROBIN, entity)));
+
+        final Mention withoutMetadata = mention(null);
+        assertMention(withoutMetadata, write(entity -> EntityCodecs.writeMention(entity, withoutMetadata),
+                                             entity -> EntityCodecs.readMention(ROBIN, entity)));
+        assertNull(read(entity -> entity.getProperty("metadata-updated-at")));
+    }
+
+    @Test
+    public void testLegacyMention() {
+        final Mention mention = mention(new MentionMetadata.Builder()
+                                                .setAuthorId(Snowflake.of(42))
+                                                .setAuthorName("Arthur")
+                                                .setAuthorColor(0x123456)
+                                                .setUpdatedAt(NOW)
+                                                .build());
+        assertMention(mention, write(entity -> {
+            writeLegacyMention(entity, mention);
+            entity.setProperty("author-id", mention.getMetadata().getAuthorId());
+            entity.setProperty("author-name", mention.getMetadata().getAuthorName());
+            entity.setProperty("author-color", mention.getMetadata().getAuthorColor());
+            entity.setProperty("metadata-updated-at", NOW);
+        }, entity -> EntityCodecs.readMention(ROBIN, entity)));
+
+        final Mention withoutMetadata = mention(null);
+        assertMention(withoutMetadata, write(entity -> writeLegacyMention(entity, withoutMetadata),
+                                             entity -> EntityCodecs.readMention(ROBIN, entity)));
+    }
+
+    @Test
+    public void testRewriteLegacyMention() {
+        final Mention mention = mention(new MentionMetadata.Builder()
+                                                .setAuthorName("Arthur")
+                                                .setUpdatedAt(NOW)
+                                                .build());
+        store.executeInTransaction(txn -> {
+            final Entity entity = txn.newEntity(ENTITY_TYPE);
+            writeLegacyMention(entity, mention(null));
+            EntityCodecs.writeMention(entity, mention);
+        });
+
+        assertEquals(List.of("message-id", "metadata-updated-at", "player-id"),
+                     read(entity -> entity.getPropertyNames().stream().sorted().collect(Collectors.toList())));
+        assertMention(mention, read(entity -> EntityCodecs.readMention(ROBIN, entity)));
+    }
+
+    private <T> T write(EntityWriter writer, EntityReader<T> reader) {
+        store.executeInTransaction(txn -> txn.getAll(ENTITY_TYPE).forEach(Entity::delete));
+        store.executeInTransaction(txn -> writer.write(txn.newEntity(ENTITY_TYPE)));
+        return read(reader);
+    }
+
+    private <T> T read(EntityReader<T> reader) {
+        return store.computeInReadonlyTransaction(txn -> reader.read(txn.getAll(ENTITY_TYPE).getFirst()));
+    }
+
+    private static void writeLegacyMention(Entity entity, Mention mention) {
+        entity.setProperty("player-id", mention.getPlayerId().s64());
+        entity.setProperty("mentioned-at", mention.getMentionedAt());
+        entity.setProperty("guild-id", mention.getGuildId());
+        entity.setProperty("channel-id", mention.getChannelId());
+        entity.setProperty("message-id", mention.getMessageId());
+    }
+
+    private static Ban ban(String id) {
+        return new Ban.Builder()
+                       .setId(id)
+                       .setEnactedTime(ENACTED_TIME)
+                       .setDuration(Duration.ofHours(12))
+                       .setIpPolicy("none")
+                       .setPlayerName("Robin")
+                       .setReason("Teamkilling")
+                       .build();
+    }
+
+    private static Mention mention(MentionMetadata metadata) {
+        return new Mention(ROBIN, ENACTED_TIME, Snowflake.of(111), Snowflake.of(222), Snowflake.of(333), metadata);
+    }
+
+    private static void assertBan(Ban expected, Ban actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getEnactedTime(), actual.getEnactedTime());
+        assertEquals(expected.getDuration(), actual.getDuration());
+        assertEquals(expected.getIpPolicy(), actual.getIpPolicy());
+        assertEquals(expected.getPlayerName(), actual.getPlayerName());
+        assertEquals(expected.getReason(), actual.getReason());
+    }
+
+    private static void assertOfflineBan(OfflineBan expected, OfflineBan actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getEnactedTime(), actual.getEnactedTime());
+        assertEquals(expected.getDuration(), actual.getDuration());
+        assertEquals(expected.getPlayerName(), actual.getPlayerName());
+        assertEquals(expected.getReason(), actual.getReason());
+    }
+
+    private static void assertMention(Mention expected, Mention actual) {
+        assertEquals(expected.getPlayerId(), actual.getPlayerId());
+        assertEquals(expected.getMentionedAt(), actual.getMentionedAt());
+        assertEquals(expected.getGuildId(), actual.getGuildId());
+        assertEquals(expected.getChannelId(), actual.getChannelId());
+        assertEquals(expected.getMessageId(), actual.getMessageId());
+
+        final MentionMetadata metadata = expected.getMetadata();
+        if (metadata == null) {
+            assertNull(actual.getMetadata());
+            return;
+        }
+        assertNotNull(actual.getMetadata());
+        assertEquals(metadata.getAuthorId(), actual.getMetadata().getAuthorId());
+        assertEquals(metadata.getAuthorName(), actual.getMetadata().getAuthorName());
+        assertEquals(metadata.getAuthorAvatarUrl(), actual.getMetadata().getAuthorAvatarUrl());
+        assertEquals(metadata.getAuthorColor(), actual.getMetadata().getAuthorColor());
+        assertEquals(metadata.getChannelName(), actual.getMetadata().getChannelName());
+        assertEquals(metadata.getUpdatedAt(), actual.getMetadata().getUpdatedAt());
+    }
+
+    @FunctionalInterface
+    private interface EntityWriter {
+        void write(Entity entity);
+    }
+
+    @FunctionalInterface
+    private interface EntityReader<T> {
+        T read(Entity entity);
+    }
+}
@@ -0,0 +1,150 @@
+package cbm.server.db;
+
+import cbm.server.model.Ban;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IncrementalBackupTest {
+
+    @Test
+    public void testBackupAndRestore(@TempDir Path dir) throws Exception {
+        final Path db = dir.resolve("db");
+        final IncrementalBackup backups = new IncrementalBackup(dir.resolve("backups"), Long.MAX_VALUE, 2);
+
+        final Path first;
+        try (final BansDatabase database = new BansDatabase(db.toString())) {
+            database.storeBans(Instant.parse("2021-06-01T00:00:00Z"), bans(0, 100));
+            database.drainIndexOutbox();
+            first = database.backup(backups);
+
+            database.storeBans(Instant.parse("2021-06-02T00:00:00Z"), bans(50, 200));
+            database.drainIndexOutbox();
+            database.backup(backups);
+        }
+
+        // The second backup refers to the files of the first one it didn't have to copy again
+        final List<String> firstFiles = Files.readAllLines(first);
+        final List<String> secondFiles = Files.readAllLines(manifest(dir, backups.list().get(1)));
+        assertTrue(firstFiles.stream().anyMatch(secondFiles::contains));
+
+        final Path restored = dir.resolve("restored");
+        backups.restore(null, restored);
+        try (final BansDatabase database = new BansDatabase(restored.toString())) {
+            assertEquals(150, database.getCurrentBansSync().size());
+            assertEquals(200, database.searchBansSync(new SearchRequest("teamkilling")).getTotal());
+        }
+
+        // The target has to be empty
+        assertThrows(IOException.class, () -> backups.restore(null, restored));
+    }
+
+    @Test
+    public void testRecreatedIndex(@TempDir Path dir) throws Exception {
+        final Path db = dir.resolve("db");
+        final IncrementalBackup backups = new IncrementalBackup(dir.resolve("backups"), Long.MAX_VALUE, 2);
+        try (final BansDatabase database = new BansDatabase(db.toString())) {
+            database.storeBans(Instant.parse("2021-06-01T00:00:00Z"), bans(0, 10));
+            database.drainIndexOutbox();
+            database.backup(backups);
+        }
+
+        // The new index reuses the names of the files of the previous one
+        try (final Stream<Path> files = Files.walk(db.resolve("lucene"))) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                Files.delete(file);
+        }
+        try (final BansDatabase database = new BansDatabase(db.toString())) {
+            database.storeBans(Instant.parse("2021-06-02T00:00:00Z"), bans(0, 20));
+            database.drainIndexOutbox();
+            database.backup(backups);
+        }
+
+        final Path restored = dir.resolve("restored");
+        backups.restore(null, restored);
+        try (final BansDatabase database = new BansDatabase(restored.toString())) {
+            assertEquals(20, database.searchBansSync(new SearchRequest("teamkilling")).getTotal());
+        }
+    }
+
+    @Test
+    public void testRetention(@TempDir Path dir) throws Exception {
+        final IncrementalBackup backups = new IncrementalBackup(dir.resolve("backups"), Long.MAX_VALUE, 2);
+        try (final BansDatabase database = new BansDatabase(dir.resolve("db").toString())) {
+            for (int i = 0; i < 4; ++i) {
+                database.storeBans(Instant.parse("2021-06-01T00:00:00Z").plus(Duration.ofDays(i)), bans(0, i + 1));
+                database.backup(backups);
+            }
+        }
+
+        assertEquals(2, backups.list().size());
+
+        // Only the files of the remaining backups are left
+        final long referenced = backups.list()
+                                       .stream()
+                                       .flatMap(name -> lines(manifest(dir, name)))
+                                       .distinct()
+                                       .count();
+        try (final Stream<Path> files = Files.walk(dir.resolve("backups").resolve("files"))) {
+            assertEquals(referenced, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    public void testCorruptBackup(@TempDir Path dir) throws Exception {
+        final IncrementalBackup backups = new IncrementalBackup(dir.resolve("backups"), Long.MAX_VALUE, 2);
+        final Path manifest;
+        try (final BansDatabase database = new BansDatabase(dir.resolve("db").toString())) {
+            database.storeBans(Instant.parse("2021-06-01T00:00:00Z"), bans(0, 10));
+            manifest = database.backup(backups);
+        }
+
+        final String[] fields = Files.readAllLines(manifest).get(0).split(" ");
+        final Path file = dir.resolve("backups").resolve("files").resolve(fields[0]).resolve(
+                fields[0].equals("xodus") ? fields[1] + "@" + fields[2] : fields[1]);
+        final byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+
+        assertThrows(IOException.class, () -> backups.restore(null, dir.resolve("restored")));
+    }
+
+    private static Path manifest(Path dir, String name) {
+        return dir.resolve("backups").resolve(name + ".manifest");
+    }
+
+    private static Stream<String> lines(Path file) {
+        try {
+            return Files.readAllLines(file).stream();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Stream<Ban> bans(int from, int to) {
+        return IntStream.range(from, to)
+                        .mapToObj(i -> new Ban.Builder()
+                                               .setId(Long.toString(76561197960265728L + i))
+                                               .setEnactedTime(Instant.parse("2021-05-01T00:00:00Z"))
+                                               .setDuration(Duration.ofDays(7))
+                                               .setPlayerName("player_" + i)
+                                               .setReason("Teamkilling")
+                                               .build())
+                        .collect(Collectors.toList())
+                        .stream();
+    }
+}
@@ -0,0 +1,103 @@
+package cbm.server.db;
+
+import cbm.server.Metrics;
+import jetbrains.exodus.bindings.BindingUtils;
+import jetbrains.exodus.bindings.ComparableBinding;
+import jetbrains.exodus.entitystore.Entity;
+import jetbrains.exodus.entitystore.PersistentEntityStores;
+import jetbrains.exodus.util.LightOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class InstrumentedPersistentEntityStoreTest {
+
+    private static final ComparableBinding DURATION_BINDING = new ComparableBinding() {
+        @Override
+        public Duration readObject(@NotNull ByteArrayInputStream stream) {
+            return Duration.ofSeconds(BindingUtils.readLong(stream));
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public void writeObject(@NotNull LightOutputStream output, @NotNull Comparable object) {
+            output.writeUnsignedLong(((Duration) object).toSeconds() ^ 0x8000000000000000L);
+        }
+    };
+
+    @Test
+    public void testPropertyTypeIds(@TempDir Path dir) {
+        final int typeId;
+        try (final InstrumentedPersistentEntityStore store = open(dir)) {
+            typeId = store.getPropertyTypeIds().get(Duration.class.getName());
+            store.executeInTransaction(txn -> txn.newEntity("Ban").setProperty("duration", Duration.ofHours(1)));
+        }
+
+        try (final InstrumentedPersistentEntityStore store = open(dir)) {
+            assertEquals(Map.of(Duration.class.getName(), typeId), store.getPropertyTypeIds());
+            assertEquals(Duration.ofHours(1),
+                         store.computeInReadonlyTransaction(txn -> txn.getAll("Ban")
+                                                                      .getFirst()
+                                                                      .getProperty("duration")));
+
+            // As if the values had been stored with another type id
+            store.executeInTransaction(txn -> {
+                final Entity recorded = txn.getAll("PropertyType").getFirst();
+                recorded.setProperty("type-id", typeId + 1);
+            });
+        }
+
+        assertThrows(IllegalStateException.class, () -> open(dir));
+    }
+
+    @Test
+    public void testTransactionMetrics(@TempDir Path dir) {
+        try (final InstrumentedPersistentEntityStore store = open(dir)) {
+            final long reads = Metrics.get("db.txn.read");
+            final long writes = Metrics.get("db.txn.write");
+
+            store.executeInTransaction(txn -> txn.newEntity("Ban"));
+            assertEquals(1L, (long) store.computeInReadonlyTransaction(txn -> txn.getAll("Ban").size()));
+
+            assertEquals(reads + 1, Metrics.get("db.txn.read"));
+            assertEquals(writes + 1, Metrics.get("db.txn.write"));
+        }
+    }
+
+    @Test
+    public void testFailedTransactionMetrics(@TempDir Path dir) {
+        try (final InstrumentedPersistentEntityStore store = open(dir)) {
+            final long writes = Metrics.get("db.txn.write");
+            final long errors = Metrics.get("db.txn.write.errors");
+
+            assertThrows(IllegalStateException.class, () -> store.executeInTransaction(txn -> {
+                txn.newEntity("Ban");
+                throw new IllegalStateException();
+            }));
+
+            assertEquals(writes + 1, Metrics.get("db.txn.write"));
+            assertEquals(errors + 1, Metrics.get("db.txn.write.errors"));
+            assertEquals(0L, (long) store.computeInReadonlyTransaction(txn -> txn.getAll("Ban").size()));
+        }
+    }
+
+    private static InstrumentedPersistentEntityStore open(Path dir) {
+        final InstrumentedPersistentEntityStore store =
+                new InstrumentedPersistentEntityStore(PersistentEntityStores.newInstance(dir.toString()));
+        try {
+            store.registerCustomPropertyTypes(Map.of(Duration.class, DURATION_BINDING));
+        } catch (RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+}
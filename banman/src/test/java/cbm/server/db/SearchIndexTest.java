@@ -0,0 +1,143 @@
+package cbm.server.db;
+
+import cbm.server.model.Ban;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchIndexTest {
+
+    @Test
+    public void testPagingIsStableAcrossUpdates(@TempDir Path dir) throws Exception {
+        try (final SearchIndex index = new SearchIndex(dir)) {
+            assertFalse(index.isOutdated());
+            index.index(bans(0, 25));
+
+            final List<String> seen = new ArrayList<>();
+            SearchResponse<Ban> response = index.search(new SearchRequest("cheater"));
+            assertEquals(25, response.getTotal());
+            response.results.forEach(ban -> seen.add(ban.getPlayerName()));
+
+            // Documents added between pages should not shift the following pages
+            index.index(bans(25, 40));
+
+            while (response.getContinueAfter() != null) {
+                response = index.search(new SearchRequest("cheater", response.getContinueAfter()));
+                assertEquals(25, response.getTotal());
+                response.results.forEach(ban -> seen.add(ban.getPlayerName()));
+            }
+
+            assertEquals(25, seen.size());
+            assertEquals(names(bans(0, 25)), new HashSet<>(seen));
+
+            // A new search sees the new documents
+            assertEquals(40, index.search(new SearchRequest("cheater")).getTotal());
+        }
+    }
+
+    @Test
+    public void testRebuild(@TempDir Path dir) throws Exception {
+        try (final SearchIndex index = new SearchIndex(dir)) {
+            index.index(bans(0, 5));
+            index.rebuild(bans(5, 8));
+
+            final SearchResponse<Ban> response = index.search(new SearchRequest("cheater"));
+            assertEquals(3, response.getTotal());
+            assertNull(response.getContinueAfter());
+            assertEquals(Set.of("player5", "player6", "player7"), names(response.results));
+        }
+    }
+
+    @Test
+    public void testEmptyIndex(@TempDir Path dir) throws Exception {
+        try (final SearchIndex index = new SearchIndex(dir)) {
+            final SearchResponse<Ban> response = index.search(new SearchRequest("cheater"));
+            assertEquals(0, response.getTotal());
+            assertTrue(response.results.isEmpty());
+        }
+    }
+
+    @Test
+    public void testInvalidCursor(@TempDir Path dir) throws Exception {
+        try (final SearchIndex index = new SearchIndex(dir)) {
+            index.index(bans(0, 1));
+            assertNotNull(index.search(new SearchRequest("cheater")));
+            assertThrows(ParseException.class, () -> index.search(new SearchRequest("cheater", "10:1:0.5")));
+        }
+    }
+
+    @Test
+    public void testExpiredCursor(@TempDir Path dir) throws Exception {
+        try (final SearchIndex index = new SearchIndex(dir)) {
+            index.index(bans(0, 25));
+            final String continueAfter = index.search(new SearchRequest("cheater")).getContinueAfter();
+            assertNotNull(continueAfter);
+
+            // A searcher that is no longer pinned
+            final String[] split = continueAfter.split(":", 3);
+            final String expired = split[0] + ":" + (Long.parseLong(split[1]) + 1) + ":" + split[2];
+            assertThrows(ParseException.class, () -> index.search(new SearchRequest("cheater", expired)));
+        }
+    }
+
+    @Test
+    public void testResultsFromIndex(@TempDir Path dir) throws Exception {
+        final Ban ban = new Ban.Builder()
+                                .setId("76561198084041050")
+                                .setEnactedTime(Instant.parse("2019-05-01T18:23:51Z"))
+                                .setDuration(Duration.ofHours(1))
+                                .setIpPolicy("DENY,1.2.3.4")
+                                .setPlayerName("Robin")
+                                .setReason("Running away")
+                                .build();
+        final Ban sparse = new Ban.Builder()
+                                   .setId("76561198084041051")
+                                   .setReason("Running away too")
+                                   .build();
+
+        try (final SearchIndex index = new SearchIndex(dir)) {
+            index.index(List.of(ban, sparse));
+            // The same bans downloaded again
+            index.index(List.of(ban, sparse));
+
+            final SearchResponse<Ban> response = index.search(new SearchRequest("running"));
+            assertEquals(2, response.getTotal());
+            // Ban.equals doesn't compare all the fields
+            assertEquals(Set.of(ban.toString(), sparse.toString()),
+                         response.results.stream().map(Ban::toString).collect(Collectors.toSet()));
+        }
+    }
+
+    private static List<Ban> bans(int from, int to) {
+        final List<Ban> bans = new ArrayList<>();
+        for (int i = from; i < to; ++i)
+            bans.add(new Ban.Builder()
+                             .setId(Long.toString(76561198000000000L + i))
+                             .setPlayerName("player" + i)
+                             .setReason("cheater")
+                             .build());
+        return bans;
+    }
+
+    private static Set<String> names(List<Ban> bans) {
+        return bans.stream()
+                   .map(Ban::getPlayerName)
+                   .collect(Collectors.toSet());
+    }
+}
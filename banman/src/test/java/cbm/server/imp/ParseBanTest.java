@@ -0,0 +1,102 @@
+package cbm.server.imp;
+
+import cbm.server.model.Ban;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ParseBanTest {
+
+    @Test
+    public void testJsonLines() {
+        final String s = "{\"profile-url\":\"https://steamcommunity.com/profiles/76561198084041050\"," +
+                                 "\"enacted-time\":\"2013-09-10T11:35\",\"duration\":\"PT1H\"," +
+                                 "\"ip-policy\":\"DENY,0.0.0.0\",\"player-name\":\"Robin\",\"reason\":\"Fled\"," +
+                                 "\"unknown\":{\"a\":[1,2]}}\n" +
+                                 "{\"profile-url\":\"https://steamcommunity.com/profiles/76561198084041051\"," +
+                                 "\"enacted-time\":null,\"duration\":null}\n" +
+                                 "{\"profile-url\":\"not a profile\"}\n";
+
+        final List<Ban> bans = ParseBan.parseBans(s);
+        assertEquals(2, bans.size());
+
+        final Ban ban = bans.get(0);
+        assertEquals("76561198084041050", ban.getId());
+        assertEquals(Instant.parse("2013-09-10T11:35:00Z"), ban.getEnactedTime());
+        assertEquals(Duration.ofHours(1), ban.getDuration());
+        assertEquals("DENY,0.0.0.0", ban.getIpPolicy());
+        assertEquals("Robin", ban.getPlayerName());
+        assertEquals("Fled", ban.getReason());
+
+        assertEquals("76561198084041051", bans.get(1).getId());
+        assertNull(bans.get(1).getEnactedTime());
+        assertNull(bans.get(1).getDuration());
+    }
+
+    @Test
+    public void testMalformedJsonLines() {
+        final String s = "{\"profile-url\":\"https://steamcommunity.com/profiles/76561198084041050\"}\n" +
+                                 "{\"profile-url\":\"https://steamcommunity.com/profiles/76561198084041051\"\n" +
+                                 "{\"profile-url\":{\"url\":\"https://steamcommunity.com/profiles/1\"}}\n" +
+                                 "{\"profile-url\":\"https://steamcommunity.com/profiles/76561198084041052\"," +
+                                 "\"reason\":[\"Fled\"]}\n" +
+                                 "{\"profile-url\":\"https://steamcommunity.com/profiles/76561198084041053\"}\n";
+
+        final List<Ban> bans = ParseBan.parseBans(s);
+        assertEquals(List.of("76561198084041050", "76561198084041053"),
+                     bans.stream().map(Ban::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testOldFormat() {
+        final String s = "https://steamcommunity.com/profiles/76561198084041050 - Ban{steamId=STEAM_0:0:61887661, " +
+                                 "steamId64=76561198084041050, duration=PT24H, enactedTime=2013-09-10T11:35Z, " +
+                                 "bannedUntil=2013-09-11T11:35Z, ipPolicy=null, playerName=Robin, reason=Fled, " +
+                                 "netId=0x011000010760A75A}\n" +
+                                 "garbage\n";
+
+        final List<Ban> bans = ParseBan.parseBans(s);
+        assertEquals(1, bans.size());
+        assertEquals(Instant.parse("2013-09-10T11:35:00Z"), bans.get(0).getEnactedTime());
+        assertEquals(Duration.ofDays(1), bans.get(0).getDuration());
+        assertNull(bans.get(0).getIpPolicy());
+    }
+
+    @Test
+    public void testParseInstant() {
+        for (String s : List.of("2013-09-10T11:35:07Z", "2013-09-10T11:35:07.120Z", "2020-02-29T23:59:59.999999999Z"))
+            assertEquals(Instant.parse(s), ParseBan.parseInstant(s));
+
+        assertEquals(Instant.parse("2013-09-10T11:35:00Z"), ParseBan.parseInstant("2013-09-10T11:35Z"));
+        assertEquals(Instant.parse("2013-09-10T11:35:07Z"), ParseBan.parseInstant("2013-09-10T11:35:07"));
+    }
+
+    @Test
+    public void testParallelChunksPreserveOrder() {
+        final String bans = Stream.iterate(0, i -> i + 1)
+                                  .limit(20_000)
+                                  .map(i -> "{\"profile-url\":\"https://steamcommunity.com/profiles/" +
+                                                    (76561198000000000L + i) + "/\",\"reason\":\"" + i + "\"}")
+                                  .collect(Collectors.joining("\n"));
+        final byte[] bytes = bans.getBytes(StandardCharsets.UTF_8);
+
+        final List<String> sequential = ParseBan.streamBans(new ByteArrayInputStream(bytes))
+                                                .map(Ban::getReason)
+                                                .collect(Collectors.toList());
+        final List<String> parallel = ParseBan.parseBans(bytes, true)
+                                              .map(Ban::getReason)
+                                              .collect(Collectors.toList());
+
+        assertEquals(20_000, sequential.size());
+        assertEquals(sequential, parallel);
+    }
+}